@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Locale;
+
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.LocalizationContext;
+
+/**
+ * Creates the component manager used by the benchmarks.
+ *
+ * @version $Id$
+ */
+public final class BenchmarkComponents
+{
+    private BenchmarkComponents()
+    {
+        // Utility class
+    }
+
+    /**
+     * @return a component manager containing all the components available in the classpath, plus a localization
+     *         manager providing the English figure and table prefixes
+     * @throws Exception if the component manager fails to be initialized
+     */
+    public static EmbeddableComponentManager createComponentManager() throws Exception
+    {
+        EmbeddableComponentManager componentManager = new EmbeddableComponentManager();
+        componentManager.initialize(BenchmarkComponents.class.getClassLoader());
+        DefaultComponentDescriptor<ContextualLocalizationManager> descriptor = new DefaultComponentDescriptor<>();
+        descriptor.setRoleType(ContextualLocalizationManager.class);
+        descriptor.setImplementation(BenchmarkLocalizationManager.class);
+        componentManager.registerComponent(descriptor, new BenchmarkLocalizationManager());
+        DefaultComponentDescriptor<LocalizationContext> contextDescriptor = new DefaultComponentDescriptor<>();
+        contextDescriptor.setRoleType(LocalizationContext.class);
+        componentManager.registerComponent(contextDescriptor, () -> Locale.ENGLISH);
+        return componentManager;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.CompositeBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * Minimal {@link ContextualLocalizationManager} providing the English figure and table prefixes, since the
+ * benchmarks don't run inside a full XWiki instance.
+ *
+ * @version $Id$
+ */
+public class BenchmarkLocalizationManager implements ContextualLocalizationManager
+{
+    private final Map<String, Translation> translations = new HashMap<>();
+
+    /**
+     * Setup the figure and table prefix translations.
+     */
+    public BenchmarkLocalizationManager()
+    {
+        addTranslation("transformation.numberedReferences.figurePrefix", "Figure {0}:");
+        addTranslation("transformation.numberedReferences.tablePrefix", "Table {0}:");
+    }
+
+    @Override
+    public Translation getTranslation(String key)
+    {
+        return this.translations.get(key);
+    }
+
+    @Override
+    public String getTranslationPlain(String key, Object... parameters)
+    {
+        Translation translation = getTranslation(key);
+        return translation != null ? MessageFormat.format((String) translation.getRawSource(), parameters) : null;
+    }
+
+    private void addTranslation(String key, String message)
+    {
+        this.translations.put(key, new BenchmarkTranslation(key, message));
+    }
+
+    private static final class BenchmarkTranslation implements Translation
+    {
+        private final String key;
+
+        private final String message;
+
+        BenchmarkTranslation(String key, String message)
+        {
+            this.key = key;
+            this.message = message;
+        }
+
+        @Override
+        public TranslationBundle getBundle()
+        {
+            return null;
+        }
+
+        @Override
+        public Locale getLocale()
+        {
+            return Locale.ENGLISH;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return this.key;
+        }
+
+        @Override
+        public Object getRawSource()
+        {
+            return this.message;
+        }
+
+        @Override
+        public Block render(Locale locale, Object... parameters)
+        {
+            return render(parameters);
+        }
+
+        @Override
+        public Block render(Object... parameters)
+        {
+            // Same as what the rendering of a plain text translation message produces
+            return new CompositeBlock(Arrays.asList(new WordBlock(MessageFormat.format(this.message, parameters))));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+
+/**
+ * Compares the default representation of the heading numbers (one word per number level, separated by dot symbols)
+ * with the compact one (a single word), both when creating the number blocks inserted in the headings and in the
+ * reference labels, and when rendering the numbered XDOM. For a number of depth {@code d} the default representation
+ * uses {@code 2d - 1} blocks against 1 for the compact one.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactLabelsBenchmark
+{
+    @Param({ "2", "5" })
+    public int headingDepth;
+
+    @Param("1000")
+    public int headingCount;
+
+    @Param({ "false", "true" })
+    public boolean compactLabels;
+
+    private List<int[]> numbers;
+
+    private XDOM xdom;
+
+    private BlockRenderer renderer;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.renderer = BenchmarkComponents.createComponentManager().getInstance(BlockRenderer.class,
+            Syntax.XWIKI_2_1.toIdString());
+
+        // All the headings are at the deepest level and each of them is referenced once.
+        this.numbers = new ArrayList<>(this.headingCount);
+        for (int i = 0; i < this.headingCount; i++) {
+            int[] number = new int[this.headingDepth];
+            for (int level = 0; level < this.headingDepth; level++) {
+                number[level] = 1;
+            }
+            number[this.headingDepth - 1] = i + 1;
+            this.numbers.add(number);
+        }
+        this.xdom = new XDOM(serialize());
+    }
+
+    @Benchmark
+    public List<Block> serialize()
+    {
+        HeaderLevel level = HeaderLevel.parseInt(this.headingDepth);
+        List<Block> blocks = new ArrayList<>(2 * this.numbers.size());
+        for (int[] number : this.numbers) {
+            List<Block> headerChildren = new ArrayList<>(2);
+            headerChildren.add(NumberedHeadingsTransformation.serializeAndFormatNumber(number, this.compactLabels));
+            headerChildren.add(new WordBlock("heading"));
+            blocks.add(new HeaderBlock(headerChildren, level));
+
+            DocumentResourceReference reference = new DocumentResourceReference("");
+            reference.setAnchor("H" + number[this.headingDepth - 1]);
+            blocks.add(new ParagraphBlock(Collections.singletonList(new LinkBlock(
+                NumberedHeadingsTransformation.serializeSectionNumber(number, this.compactLabels), reference,
+                false))));
+        }
+        return blocks;
+    }
+
+    @Benchmark
+    public String render()
+    {
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        this.renderer.render(this.xdom, printer);
+        return printer.toString();
+    }
+}
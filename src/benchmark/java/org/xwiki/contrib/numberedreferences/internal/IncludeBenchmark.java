@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MetaDataBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.transformation.Transformation;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.rendering.transformation.TransformationException;
+
+/**
+ * Simulates a page including many documents: the numbered transformations are executed on each included document
+ * and then on the including page.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncludeBenchmark
+{
+    @Param({ "10", "50" })
+    public int includeCount;
+
+    private Transformation headingsTransformation;
+
+    private Transformation figuresTransformation;
+
+    private List<XDOM> includedXDOMs;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        EmbeddableComponentManager componentManager = BenchmarkComponents.createComponentManager();
+        this.headingsTransformation = componentManager.getInstance(Transformation.class, "numberedheadings");
+        this.figuresTransformation = componentManager.getInstance(Transformation.class, "numberedfigures");
+
+        XDOMGenerator generator = new XDOMGenerator();
+        generator.setHeadingCount(50);
+        generator.setFigureCount(5);
+        generator.setTableCount(5);
+        this.includedXDOMs = new ArrayList<>();
+        for (int i = 0; i < this.includeCount; i++) {
+            this.includedXDOMs.add(generator.generate());
+        }
+    }
+
+    @Benchmark
+    public Block include() throws TransformationException
+    {
+        List<Block> includedBlocks = new ArrayList<>();
+        for (XDOM includedXDOM : this.includedXDOMs) {
+            Block block = includedXDOM.clone();
+            transform(block);
+            includedBlocks.add(new MetaDataBlock(block.getChildren(), MetaData.EMPTY));
+        }
+        XDOM xdom = new XDOM(Collections.singletonList(new MetaDataBlock(includedBlocks, MetaData.EMPTY)));
+        transform(xdom);
+        return xdom;
+    }
+
+    private void transform(Block block) throws TransformationException
+    {
+        this.headingsTransformation.transform(block, new TransformationContext());
+        this.figuresTransformation.transform(block, new TransformationContext());
+    }
+}
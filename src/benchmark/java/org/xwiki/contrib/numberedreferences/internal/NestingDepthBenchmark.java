@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.GroupBlock;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.HeaderLevel;
+
+/**
+ * Measures the collection of the numbered blocks on deeply nested content (e.g. tables inside lists inside macros).
+ * Each nesting level contains a header, a protected group (also containing a header) and the next nesting level, so
+ * the number of blocks grows linearly with the depth and so should the average time.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestingDepthBenchmark
+{
+    @Param({ "10", "100", "1000" })
+    public int depth;
+
+    private NumberingEngine numberingEngine;
+
+    private XDOM xdom;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        // The engine needs its injected components (e.g. to look up the numbered entity kinds).
+        this.numberingEngine = BenchmarkComponents.createComponentManager().getInstance(NumberingEngine.class);
+
+        Block levelBlock = new GroupBlock(Collections.emptyList());
+        for (int i = 0; i < this.depth; i++) {
+            List<Block> children = new ArrayList<>();
+            children.add(createHeaderBlock(i));
+            children.add(new GroupBlock(Collections.singletonList(createHeaderBlock(i)),
+                Collections.singletonMap("data-xwiki-rendering-protected", "true")));
+            children.add(levelBlock);
+            levelBlock = new GroupBlock(children);
+        }
+        this.xdom = new XDOM(Collections.singletonList(levelBlock));
+    }
+
+    @Benchmark
+    public NumberedBlocks collect()
+    {
+        return this.numberingEngine.collect(this.xdom);
+    }
+
+    private Block createHeaderBlock(int index)
+    {
+        return new HeaderBlock(Collections.singletonList(new WordBlock("heading" + index)),
+            HeaderLevel.parseInt(index % 6 + 1));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.listener.Format;
+
+/**
+ * Measures the allocations saved by sharing the words of the {@link NumberBlocks} when creating the numbers inserted in
+ * the headings, compared to converting each number to a string. Run with the GC profiler (as done by the
+ * {@code benchmark} profile) and compare the normalized allocation rate ({@code gc.alloc.rate.norm}) of both
+ * variants.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberBlocksBenchmark
+{
+    @Param({ "2", "5" })
+    public int headingDepth;
+
+    @Param("1000")
+    public int headingCount;
+
+    @Param({ "false", "true" })
+    public boolean shared;
+
+    private List<int[]> numbers;
+
+    @Setup
+    public void setUp()
+    {
+        this.numbers = new ArrayList<>(this.headingCount);
+        for (int i = 0; i < this.headingCount; i++) {
+            int[] number = new int[this.headingDepth];
+            for (int level = 0; level < this.headingDepth; level++) {
+                number[level] = (i + level) % 20 + 1;
+            }
+            this.numbers.add(number);
+        }
+    }
+
+    @Benchmark
+    public List<Block> serialize()
+    {
+        List<Block> blocks = new ArrayList<>(this.numbers.size());
+        for (int[] number : this.numbers) {
+            blocks.add(this.shared ? NumberedHeadingsTransformation.serializeAndFormatNumber(number, false)
+                : serializeWithNewBlocks(number));
+        }
+        return blocks;
+    }
+
+    /**
+     * The way the numbers were serialized before the words of the numbers were shared.
+     */
+    private Block serializeWithNewBlocks(int[] number)
+    {
+        List<Block> blocks = new ArrayList<>(2 * number.length + 1);
+        for (int i = 0; i < number.length; i++) {
+            if (i > 0) {
+                blocks.add(new SpecialSymbolBlock('.'));
+            }
+            blocks.add(new WordBlock(String.valueOf(number[i])));
+        }
+        blocks.add(new SpaceBlock());
+        return new FormatBlock(blocks, Format.NONE,
+            Collections.singletonMap("class", "wikigeneratedheadingnumber"));
+    }
+}
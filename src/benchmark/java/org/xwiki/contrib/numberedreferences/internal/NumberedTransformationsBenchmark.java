@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.transformation.Transformation;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.rendering.transformation.TransformationException;
+
+/**
+ * Measures the throughput of the {@code numberedheadings} and {@code numberedfigures} transformations on generated
+ * XDOMs. Each benchmark transforms a fresh copy of the generated XDOM, so {@link #baseline()} measures the cost of
+ * that copy alone. Run with the GC profiler (as done by the {@code benchmark} profile) to get the allocation rate.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NumberedTransformationsBenchmark
+{
+    @Param({ "100", "1000" })
+    public int headingCount;
+
+    @Param("4")
+    public int headingDepth;
+
+    @Param("50")
+    public int figureCount;
+
+    @Param("50")
+    public int tableCount;
+
+    @Param("0.5")
+    public double idDensity;
+
+    @Param("0.1")
+    public double referenceRatio;
+
+    private Transformation headingsTransformation;
+
+    private Transformation figuresTransformation;
+
+    private XDOM xdom;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        EmbeddableComponentManager componentManager = BenchmarkComponents.createComponentManager();
+
+        this.headingsTransformation = componentManager.getInstance(Transformation.class, "numberedheadings");
+        this.figuresTransformation = componentManager.getInstance(Transformation.class, "numberedfigures");
+
+        XDOMGenerator generator = new XDOMGenerator();
+        generator.setHeadingCount(this.headingCount);
+        generator.setHeadingDepth(this.headingDepth);
+        generator.setFigureCount(this.figureCount);
+        generator.setTableCount(this.tableCount);
+        generator.setIdDensity(this.idDensity);
+        generator.setReferenceRatio(this.referenceRatio);
+        this.xdom = generator.generate();
+    }
+
+    @Benchmark
+    public Block baseline()
+    {
+        return this.xdom.clone();
+    }
+
+    @Benchmark
+    public Block headings() throws TransformationException
+    {
+        Block block = this.xdom.clone();
+        this.headingsTransformation.transform(block, new TransformationContext());
+        return block;
+    }
+
+    @Benchmark
+    public Block figures() throws TransformationException
+    {
+        Block block = this.xdom.clone();
+        this.figuresTransformation.transform(block, new TransformationContext());
+        return block;
+    }
+
+    @Benchmark
+    public Block headingsAndFigures() throws TransformationException
+    {
+        Block block = this.xdom.clone();
+        this.headingsTransformation.transform(block, new TransformationContext());
+        this.figuresTransformation.transform(block, new TransformationContext());
+        return block;
+    }
+}
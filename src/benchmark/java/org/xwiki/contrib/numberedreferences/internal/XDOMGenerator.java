@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FigureBlock;
+import org.xwiki.rendering.block.FigureCaptionBlock;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.IdBlock;
+import org.xwiki.rendering.block.ImageBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.TableBlock;
+import org.xwiki.rendering.block.TableCellBlock;
+import org.xwiki.rendering.block.TableRowBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+
+/**
+ * Generates synthetic XDOMs, similar to what the Macro transformation produces, to benchmark the numbered
+ * transformations. The generation is deterministic for a given set of parameters.
+ *
+ * @version $Id$
+ */
+public class XDOMGenerator
+{
+    private int headingCount = 100;
+
+    private int headingDepth = 3;
+
+    private int figureCount = 10;
+
+    private int tableCount = 10;
+
+    private double idDensity = 0.5;
+
+    private double referenceRatio = 0.1;
+
+    private Random random;
+
+    /**
+     * @param headingCount the number of headings to generate
+     */
+    public void setHeadingCount(int headingCount)
+    {
+        this.headingCount = headingCount;
+    }
+
+    /**
+     * @param headingDepth the maximum heading level to use, between 1 and 6
+     */
+    public void setHeadingDepth(int headingDepth)
+    {
+        this.headingDepth = Math.max(1, Math.min(6, headingDepth));
+    }
+
+    /**
+     * @param figureCount the number of (image) figures to generate
+     */
+    public void setFigureCount(int figureCount)
+    {
+        this.figureCount = figureCount;
+    }
+
+    /**
+     * @param tableCount the number of table figures to generate
+     */
+    public void setTableCount(int tableCount)
+    {
+        this.tableCount = tableCount;
+    }
+
+    /**
+     * @param idDensity the probability, between 0 and 1, for a heading or figure to contain an id macro
+     */
+    public void setIdDensity(double idDensity)
+    {
+        this.idDensity = idDensity;
+    }
+
+    /**
+     * @param referenceRatio the number of reference macros to generate per heading and figure
+     */
+    public void setReferenceRatio(double referenceRatio)
+    {
+        this.referenceRatio = referenceRatio;
+    }
+
+    /**
+     * @return a new XDOM containing the headings, figures, tables and references, the figures and tables being
+     *         evenly spread among the headings
+     */
+    public XDOM generate()
+    {
+        this.random = new Random(42);
+
+        List<String> sectionIds = new ArrayList<>();
+        List<String> figureIds = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        List<Block> paragraphBlocks = new ArrayList<>();
+
+        int figureTotal = this.figureCount + this.tableCount;
+        int level = 1;
+        int figureIndex = 0;
+        for (int i = 0; i < this.headingCount; i++) {
+            level = 1 + this.random.nextInt(Math.min(level + 1, this.headingDepth));
+            blocks.add(createHeaderBlock(i, level, sectionIds));
+            ParagraphBlock paragraphBlock = createParagraphBlock(i);
+            blocks.add(paragraphBlock);
+            paragraphBlocks.add(paragraphBlock);
+            // Spread the figures and tables among the headings
+            int figureLimit = (int) ((long) figureTotal * (i + 1) / this.headingCount);
+            for (; figureIndex < figureLimit; figureIndex++) {
+                blocks.add(createFigureBlock(figureIndex, isTable(figureIndex), figureIds));
+            }
+        }
+        for (; figureIndex < figureTotal; figureIndex++) {
+            blocks.add(createFigureBlock(figureIndex, isTable(figureIndex), figureIds));
+        }
+        if (paragraphBlocks.isEmpty()) {
+            ParagraphBlock paragraphBlock = createParagraphBlock(0);
+            blocks.add(paragraphBlock);
+            paragraphBlocks.add(paragraphBlock);
+        }
+
+        addReferenceBlocks(paragraphBlocks, sectionIds, figureIds);
+
+        return new XDOM(blocks);
+    }
+
+    private boolean isTable(int figureIndex)
+    {
+        // Interleave tables and figures as long as there are some of both kinds left
+        int interleaved = 2 * Math.min(this.figureCount, this.tableCount);
+        if (figureIndex < interleaved) {
+            return figureIndex % 2 == 1;
+        }
+        return this.tableCount > this.figureCount;
+    }
+
+    private Block createHeaderBlock(int index, int level, List<String> sectionIds)
+    {
+        String headerId = "H" + index;
+        sectionIds.add(headerId);
+        List<Block> children = new ArrayList<>();
+        if (this.random.nextDouble() < this.idDensity) {
+            String id = "S" + index;
+            sectionIds.add(id);
+            children.add(createIdMacroBlock(id));
+        }
+        children.add(new WordBlock("Heading"));
+        children.add(new SpaceBlock());
+        children.add(new WordBlock(String.valueOf(index)));
+        return new HeaderBlock(children, HeaderLevel.parseInt(level), headerId);
+    }
+
+    private ParagraphBlock createParagraphBlock(int index)
+    {
+        List<Block> children = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) {
+                children.add(new SpaceBlock());
+            }
+            children.add(new WordBlock("word" + (index + i)));
+        }
+        return new ParagraphBlock(children);
+    }
+
+    private Block createFigureBlock(int index, boolean isTable, List<String> figureIds)
+    {
+        Block contentBlock;
+        if (isTable) {
+            contentBlock = new TableBlock(Arrays.asList(new TableRowBlock(Arrays.asList(
+                new TableCellBlock(Arrays.asList(new WordBlock("a"))),
+                new TableCellBlock(Arrays.asList(new WordBlock("b")))))));
+        } else {
+            contentBlock = new ParagraphBlock(Arrays.asList(
+                new ImageBlock(new ResourceReference("image" + index + ".png", ResourceType.URL), false)));
+        }
+
+        List<Block> captionChildren = new ArrayList<>();
+        if (this.random.nextDouble() < this.idDensity) {
+            String id = "F" + index;
+            figureIds.add(id);
+            captionChildren.add(createIdMacroBlock(id));
+        }
+        captionChildren.add(new WordBlock("Caption"));
+
+        return new MacroMarkerBlock("figure", Collections.emptyMap(), Arrays.asList(new FigureBlock(Arrays.asList(
+            contentBlock, new MacroMarkerBlock("figureCaption", Collections.emptyMap(),
+                Arrays.asList(new FigureCaptionBlock(captionChildren)), false)))), false);
+    }
+
+    private Block createIdMacroBlock(String id)
+    {
+        return new MacroMarkerBlock("id", Collections.singletonMap("name", id),
+            Arrays.asList(new IdBlock(id)), true);
+    }
+
+    private void addReferenceBlocks(List<Block> paragraphBlocks, List<String> sectionIds, List<String> figureIds)
+    {
+        int referenceCount = (int) Math.round((this.headingCount + this.figureCount + this.tableCount)
+            * this.referenceRatio);
+        int idCount = sectionIds.size() + figureIds.size();
+        if (idCount == 0) {
+            return;
+        }
+        for (int i = 0; i < referenceCount; i++) {
+            int idIndex = this.random.nextInt(idCount);
+            String id;
+            ReferenceType type;
+            if (idIndex < sectionIds.size()) {
+                id = sectionIds.get(idIndex);
+                type = ReferenceType.SECTION;
+            } else {
+                id = figureIds.get(idIndex - sectionIds.size());
+                type = ReferenceType.FIGURE;
+            }
+            Block referenceMacroBlock = new MacroMarkerBlock("reference",
+                Collections.singletonMap(type == ReferenceType.SECTION ? "section" : "figure", id),
+                Arrays.asList(new ReferenceBlock(id, type)), true);
+            Block paragraphBlock = paragraphBlocks.get(this.random.nextInt(paragraphBlocks.size()));
+            paragraphBlock.addChild(new SpaceBlock());
+            paragraphBlock.addChild(referenceMacroBlock);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.match.BlockMatcher;
+
+/**
+ * A kind of numbered block (equation, code listing, theorem, etc) handled by the numbered entities transformation.
+ * Implement this role to number new kinds of blocks: the blocks matched by all the registered kinds are collected
+ * during a single traversal of the XDOM, so a new kind doesn't add another traversal.
+ * <p>
+ * The kinds are matched before the headers and figures: a matched header or figure (e.g. a figure holding a code
+ * listing) is numbered by its kind instead of being numbered as a heading or a figure. The ids, the references, the
+ * lists of figures and the protected content (e.g. the code macro) are never matched, and a block matched by several
+ * kinds is numbered by only one of them.
+ * <p>
+ * The ids (i.e. the id macros) located inside a matched block represent it and the references to these ids are
+ * resolved with the {@link ReferenceType#ENTITY} type (or without type), e.g.
+ * {@code {{reference id="pythagoras" type="entity"/}}}, the link label being the number of the block. Since all the
+ * kinds share this type, the same id can't be used in blocks of different kinds: the transformation fails instead.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Role
+public interface NumberedEntityKind extends BlockMatcher
+{
+    /**
+     * The counter policy of the kind: the kinds returning the same counter name share the same sequence of numbers
+     * (e.g. theorems and lemmas numbered together), the other ones are numbered independently. Each counter starts
+     * at 1 and is incremented for each matched block, in document order.
+     *
+     * @return the name of the counter used to number the blocks of this kind
+     */
+    String getCounter();
+
+    /**
+     * Insert the number in a matched block, usually in its caption. The blocks can be numbered again (e.g. when a
+     * macro executes the transformations on its content), in which case the previously inserted number has to be
+     * replaced.
+     *
+     * @param block the matched block
+     * @param number the number of the block
+     */
+    void insertNumber(Block block, int[] number);
+}
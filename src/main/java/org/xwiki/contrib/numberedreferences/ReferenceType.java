@@ -17,7 +17,7 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-package org.xwiki.contrib.numberedreferences.internal;
+package org.xwiki.contrib.numberedreferences;
 
 /**
  * Represents a type of id (section id, figure id, etc).
@@ -35,5 +35,13 @@ public enum ReferenceType
     /**
      * Represents an id to a figure.
      */
-    FIGURE
+    FIGURE,
+
+    /**
+     * Represents an id to a block of one of the registered {@link NumberedEntityKind}s (equation, code listing,
+     * etc).
+     *
+     * @since 1.5
+     */
+    ENTITY
 }
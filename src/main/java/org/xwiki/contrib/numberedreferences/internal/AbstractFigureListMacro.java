@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.macro.AbstractMacro;
+import org.xwiki.rendering.transformation.MacroTransformationContext;
+
+/**
+ * Common code for the macros listing the figures or the tables of the content. The list is not computed by the macro
+ * but by the {@link NumberedFiguresTransformation} while it numbers the figures, so that the content is not
+ * traversed again to find them.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public abstract class AbstractFigureListMacro extends AbstractMacro<Object>
+{
+    private final boolean tableList;
+
+    /**
+     * @param name the name of the macro
+     * @param description the description of the macro
+     * @param tableList {@code true} to list the tables, {@code false} to list the other figures
+     */
+    protected AbstractFigureListMacro(String name, String description, boolean tableList)
+    {
+        super(name, description);
+        setDefaultCategory(DEFAULT_CATEGORY_NAVIGATION);
+        this.tableList = tableList;
+    }
+
+    @Override
+    public boolean supportsInlineMode()
+    {
+        return false;
+    }
+
+    @Override
+    public List<Block> execute(Object parameters, String content, MacroTransformationContext context)
+    {
+        // The "numberedfigures" transformation fills the placeholder block when it numbers the figures.
+        return Collections.singletonList(new FigureListBlock(this.tableList));
+    }
+}
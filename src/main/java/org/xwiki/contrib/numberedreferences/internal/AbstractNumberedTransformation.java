@@ -19,17 +19,34 @@
  */
 package org.xwiki.contrib.numberedreferences.internal;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
 
-import org.apache.commons.lang3.StringUtils;
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
 import org.xwiki.rendering.block.Block;
-import org.xwiki.rendering.block.LinkBlock;
-import org.xwiki.rendering.block.MacroMarkerBlock;
-import org.xwiki.rendering.block.match.ClassBlockMatcher;
-import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.transformation.AbstractTransformation;
+import org.xwiki.rendering.transformation.RenderingContext;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.rendering.transformation.TransformationException;
 
 /**
  * Common code for all numbered transformations.
@@ -39,6 +56,68 @@ import org.xwiki.rendering.transformation.AbstractTransformation;
  */
 public abstract class AbstractNumberedTransformation extends AbstractTransformation
 {
+    private static final class SkinExtensionUse
+    {
+        private final Object skinExtension;
+
+        private final Method use;
+
+        SkinExtensionUse(Object skinExtension, Method use)
+        {
+            this.skinExtension = skinExtension;
+            this.use = use;
+        }
+    }
+
+    private static final String CLIENT_SIDE_NUMBERING_STYLESHEET = "numberedreferences/numbering.css";
+
+    /**
+     * The skin extension including the resources of the extensions (e.g. a stylesheet) in the page, looked up by
+     * name so that there's no dependency on the skin extension module, which is only available in XWiki.
+     */
+    private static final String SKIN_EXTENSION_ROLE = "org.xwiki.skinx.SkinExtension";
+
+    private static final String RESOURCE_SKIN_EXTENSION_HINT = "ssrx";
+
+    @Inject
+    private NumberingEngine numberingEngine;
+
+    @Inject
+    private NumberedEntityKinds numberedEntityKinds;
+
+    @Inject
+    private NumberingMetrics numberingMetrics;
+
+    @Inject
+    private NumberingExecutor numberingExecutor;
+
+    @Inject
+    private NumberingIndexManager numberingIndexManager;
+
+    @Inject
+    private NumberingCache numberingCache;
+
+    @Inject
+    private NumberingConfiguration configuration;
+
+    @Inject
+    private NumberingSessionManager numberingSessionManager;
+
+    @Inject
+    private RenderingContext renderingContext;
+
+    @Inject
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The {@code use(String)} method of the resource stylesheet skin extension, bound to it, looked up the first time
+     * the client side numbering is used. Its target is {@code null} when there's no skin extension.
+     */
+    private volatile SkinExtensionUse stylesheetSkinExtension;
+
     @Override
     public int getPriority()
     {
@@ -47,54 +126,635 @@ public abstract class AbstractNumberedTransformation extends AbstractTransformat
         return 2000;
     }
 
-    protected void replaceReferenceBlocks(Block block, Map<String, List<Block>> numbers)
-    {
-        List<Block> referenceBlocks =
-            block.getBlocks(new ClassBlockMatcher(ReferenceBlock.class), Block.Axes.DESCENDANT);
-        for (Block untypedReferenceBlock : referenceBlocks) {
-            // Replace the ReferenceBlock blocks with a LinkBlock, if we can find a matching reference.
-            // Otherwise don't do anything since another transformation might be a match.
-            ReferenceBlock referenceBlock = (ReferenceBlock) untypedReferenceBlock;
-            String id = referenceBlock.getId();
-            List<Block> numberBlocks = numbers.get(id);
-            Block referenceParentBlock = referenceBlock.getParent();
-            if (numberBlocks != null) {
-                // Add the LinkBlock
-                DocumentResourceReference resourceReference = new DocumentResourceReference("");
-                resourceReference.setAnchor(id);
-                LinkBlock linkBlock = new LinkBlock(numberBlocks, resourceReference, false);
-                referenceParentBlock.setChildren(Arrays.asList(linkBlock));
+    @Override
+    public void transform(Block block, TransformationContext context) throws TransformationException
+    {
+        transform(block, context, null);
+    }
+
+    /**
+     * Transform the passed block and keep its numbering so that it can be renumbered incrementally when it's edited,
+     * e.g. for a live preview.
+     *
+     * @param block the block to transform
+     * @param context the transformation context
+     * @return the numbering state to pass to {@link #renumber(NumberingState, Block, Block)}
+     * @throws TransformationException if an error happens while numbering the blocks
+     * @since 1.5
+     */
+    public NumberingState transformIncrementally(Block block, TransformationContext context)
+        throws TransformationException
+    {
+        NumberingState state = new NumberingState(block);
+        transform(block, context, state);
+        return state;
+    }
+
+    /**
+     * Update the numbering of a block transformed with {@link #transformIncrementally(Block, TransformationContext)}
+     * after a subtree has been removed from it, inserted in it, or both (when a subtree is replaced). Only the
+     * numbers that change are updated: the numbered blocks following the edit are renumbered until the counters are
+     * the same as before the edit, and only the references to the renumbered ids and the inserted references are
+     * resolved again. Edits located inside a numbered block (e.g. inside a heading) renumber that block.
+     * <p>
+     * The inserted subtree must already have been transformed by the other transformations (such as the Macro
+     * transformation) and the removed subtree must not be part of the transformed block anymore, but must still
+     * point to its former parent (as after {@link Block#removeBlock(Block)}) so that the removals located inside a
+     * numbered block are detected.
+     *
+     * @param state the numbering state of the transformed block, updated by this method
+     * @param removedBlock the subtree removed from the transformed block, {@code null} if nothing has been removed
+     * @param insertedBlock the subtree inserted in the transformed block, {@code null} if nothing has been inserted
+     * @since 1.5
+     */
+    public void renumber(NumberingState state, Block removedBlock, Block insertedBlock)
+    {
+        Set<String> changedIds = new HashSet<>();
+        int[] range = new int[] { Integer.MAX_VALUE, 0 };
+
+        // The ids (or the type, for a figure) of the numbered block enclosing the edit may have changed, in which case
+        // it's collected again. The removed subtree is located through the parent it had before being removed.
+        List<ReferenceBlock> insertedReferenceBlocks = new ArrayList<>();
+        Block removedEnclosingBlock = null;
+        if (removedBlock != null) {
+            removedEnclosingBlock = state.getEnclosingNumberedBlock(removedBlock.getParent());
+            removeEntries(state, removedBlock, changedIds, range);
+            if (removedEnclosingBlock != null) {
+                removeEntries(state, removedEnclosingBlock, changedIds, range);
+                insertEntries(state, removedEnclosingBlock, insertedReferenceBlocks, range);
+            }
+        }
+        if (insertedBlock != null) {
+            Block enclosingBlock = state.getEnclosingNumberedBlock(insertedBlock);
+            if (enclosingBlock == null) {
+                insertEntries(state, insertedBlock, insertedReferenceBlocks, range);
+            } else if (enclosingBlock != removedEnclosingBlock) {
+                removeEntries(state, enclosingBlock, changedIds, range);
+                insertEntries(state, enclosingBlock, insertedReferenceBlocks, range);
+            }
+        }
+
+        // Renumber from the first edited position until the counters converge with the previous ones, after which
+        // all the following numbers are unchanged.
+        int start = range[0];
+        if (start < state.size()) {
+            int[] counters = start > 0 ? state.getEntry(start - 1).getCounters() : getInitialCounters();
+            for (int i = start; i < state.size(); i++) {
+                NumberingState.Entry entry = state.getEntry(i);
+                int[] nextCounters = nextCounters(state, counters, entry.getBlock(), entry.isTable());
+                if (i >= range[1] && Arrays.equals(nextCounters, entry.getCounters())) {
+                    break;
+                }
+                entry.setCounters(nextCounters);
+                int[] number = getNumber(state, nextCounters, entry.getBlock(), entry.isTable());
+                if (!Arrays.equals(number, entry.getNumber())) {
+                    entry.setNumber(number);
+                    insertNumber(state, entry.getBlock(), number, entry.isTable());
+                    for (String id : entry.getIds()) {
+                        state.putNumber(id, number);
+                        changedIds.add(id);
+                    }
+                }
+                counters = nextCounters;
+            }
+        }
+
+        // Resolve again the references to the renumbered ids and the inserted references.
+        for (String id : changedIds) {
+            for (NumberingState.Reference reference : state.getReferences(id)) {
+                relink(state, reference);
+            }
+        }
+        for (ReferenceBlock referenceBlock : insertedReferenceBlocks) {
+            for (NumberingState.Reference reference : state.getReferences(referenceBlock.getId())) {
+                if (reference.getReferenceBlock() == referenceBlock) {
+                    relink(state, reference);
+                }
+            }
+        }
+    }
+
+    private void removeEntries(NumberingState state, Block removedBlock, Set<String> changedIds, int[] range)
+    {
+        NumberedBlocks removedBlocks = this.numberingEngine.collectSubtree(removedBlock, state.getKinds());
+        List<NumberingState.Entry> removedEntries = new ArrayList<>();
+        int position = state.removeEntries(getNumberedBlocks(removedBlocks), removedEntries);
+        if (isNumberedPerSection() && !removedBlocks.getHeaderBlocks().isEmpty()) {
+            // The removed subtree isn't part of the transformed block anymore but its former parent is.
+            renumberFollowingBlocks(state, removedBlock.getParent() != null ? removedBlock.getParent() : removedBlock,
+                range);
+        }
+        if (position >= 0) {
+            for (NumberingState.Entry entry : removedEntries) {
+                for (String id : entry.getIds()) {
+                    state.removeNumber(id, entry.getNumber());
+                    changedIds.add(id);
+                }
             }
+            range[0] = Math.min(range[0], position);
         }
     }
 
-    // TODO: Remove this when https://jira.xwiki.org/browse/XWIKI-15093 is implemented
-    protected boolean isInsProtectedBlock(Block block)
+    private void insertEntries(NumberingState state, Block insertedBlock, List<ReferenceBlock> referenceBlocks,
+        int[] range)
     {
-        Block currentBlock = block;
-        while (currentBlock != null) {
-            if (isProtectedBlock(currentBlock)) {
-                return true;
+        NumberedBlocks insertedBlocks = this.numberingEngine.collectSubtree(insertedBlock, state.getKinds());
+        List<? extends Block> blocks = getNumberedBlocks(insertedBlocks);
+        if (!blocks.isEmpty()) {
+            int position = state.getInsertPosition(blocks.get(0));
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                state.addEntry(position + i,
+                    new NumberingState.Entry(block, isTable(insertedBlocks, i), getIds(block, insertedBlocks)));
             }
-            currentBlock = currentBlock.getParent();
+            range[0] = Math.min(range[0], position);
+            range[1] = Math.max(range[1], position + blocks.size());
         }
-        return false;
+        if (isNumberedPerSection() && !insertedBlocks.getHeaderBlocks().isEmpty()) {
+            renumberFollowingBlocks(state, insertedBlock, range);
+        }
+        for (ReferenceType type : Arrays.asList(getReferenceType(), null)) {
+            for (ReferenceBlock referenceBlock : insertedBlocks.getReferenceBlocks().get(type)) {
+                state.addReference(referenceBlock, referenceBlock.getParent(), false);
+                referenceBlocks.add(referenceBlock);
+            }
+        }
+    }
+
+    private void renumberFollowingBlocks(NumberingState state, Block editedBlock, int[] range)
+    {
+        // The numbered block following an edited heading can keep its counters while its section changed, so it's
+        // always renumbered. The counters of the blocks after it only depend on the headings in between, which are
+        // unchanged, so they're compared after it. A removed heading is only known to be located in its former parent
+        // so all the numbered blocks of the parent are renumbered.
+        range[0] = Math.min(range[0], state.getInsertPosition(editedBlock));
+        range[1] = Math.max(range[1], state.getEndPosition(editedBlock) + 1);
+    }
+
+    private void relink(NumberingState state, NumberingState.Reference reference)
+    {
+        ReferenceBlock referenceBlock = reference.getReferenceBlock();
+        Block ownerBlock = reference.getOwnerBlock();
+        boolean unresolved = referenceBlock.getParent() == ownerBlock && ownerBlock.getChildren().size() == 1
+            && ownerBlock.getChildren().get(0) == referenceBlock;
+        // Don't touch the references resolved by another transformation.
+        if (reference.isResolved() || unresolved) {
+            int[] number = state.getNumbers().get(referenceBlock.getId());
+            if (number != null) {
+                this.numberingEngine.link(ownerBlock, referenceBlock.getId(), serializeNumber(number));
+                reference.setResolved(true);
+            } else if (reference.isResolved()) {
+                // The target has been removed.
+                ownerBlock.setChildren(Collections.singletonList(referenceBlock));
+                reference.setResolved(false);
+            }
+        }
+    }
+
+    private void initializeState(NumberingState state, NumberedBlocks numberedBlocks, NumberingIndex index)
+    {
+        List<? extends Block> blocks = getNumberedBlocks(numberedBlocks);
+        List<int[]> blockNumbers = index.getBlockNumbers();
+        int[] counters = getInitialCounters();
+        for (int i = 0; i < blocks.size() && i < blockNumbers.size(); i++) {
+            Block block = blocks.get(i);
+            NumberingState.Entry entry =
+                new NumberingState.Entry(block, index.isTable(i), getIds(block, numberedBlocks));
+            counters = nextCounters(state, counters, block, entry.isTable());
+            entry.setCounters(counters);
+            entry.setNumber(blockNumbers.get(i));
+            state.addEntry(i, entry);
+        }
+        for (Map.Entry<String, int[]> number : index.getNumbers(getReferenceType()).entrySet()) {
+            state.putNumber(number.getKey(), number.getValue());
+        }
+    }
+
+    private void transform(Block block, TransformationContext context, NumberingState state)
+        throws TransformationException
+    {
+        // The kinds of entity are components, looked up once for the whole transformation and then passed along with
+        // the collected blocks (and kept in the state for the incremental renumbering).
+        List<NumberedEntityKind> kinds = this.numberedEntityKinds.getKinds();
+        if (state != null) {
+            state.setKinds(kinds);
+        }
+        if (!isEnabled(kinds)) {
+            return;
+        }
+
+        // Collect all the blocks we need in a single traversal, then number them and finally replace the
+        // ReferenceBlock with links. Each phase is timed and the statistics are published through JMX and JFR.
+        Object event = NumberingEvents.beginNumbering();
+        NumberingStatistics statistics = new NumberingStatistics();
+
+        long start = System.nanoTime();
+        NumberedBlocks numberedBlocks = this.numberingEngine.collect(block, kinds);
+        long end = System.nanoTime();
+        statistics.setCollectDuration(end - start);
+        statistics.setBlockCount(numberedBlocks.getBlockCount());
+
+        start = end;
+        NumberingSession session = this.numberingSessionManager.getSession();
+        String documentId = context != null ? context.getId() : null;
+        String indexId = getIndexId(block, context);
+        boolean fragment = documentId != null && indexId == null;
+        CachedNumbering cachedNumbering = session != null
+            ? getSessionNumbering(numberedBlocks, documentId, fragment, session, statistics)
+            : getNumbering(numberedBlocks, indexId, statistics);
+        afterNumbering(numberedBlocks, cachedNumbering.getIndex());
+        Map<String, int[]> numbers = cachedNumbering.getIndex().getNumbers(getReferenceType());
+        statistics.setIdCount(numbers.size());
+        if (state != null) {
+            initializeState(state, numberedBlocks, cachedNumbering.getIndex());
+        }
+        end = System.nanoTime();
+        statistics.setNumberDuration(end - start);
+
+        start = end;
+        // The references of the documents of a session can also target the blocks of the previous documents.
+        this.numberingEngine.replaceReferenceBlocks(block, numberedBlocks, getReferenceType(),
+            session != null ? session.getNumbers(getReferenceType(), documentId) : numbers,
+            number -> cachedNumbering.getLabel(number, this::serializeNumber), statistics, state);
+        if (session != null && !fragment) {
+            addSessionReferences(session, documentId, numberedBlocks);
+        }
+        statistics.setResolveDuration(System.nanoTime() - start);
+
+        if (isClientSideNumbering()) {
+            useClientSideNumberingStylesheet();
+        }
+
+        this.numberingMetrics.record(getHint(), statistics);
+        NumberingEvents.commitNumbering(event, getHint(), documentId, statistics);
     }
 
-    private boolean isProtectedBlock(Block block)
+    private void useClientSideNumberingStylesheet()
     {
-        // A protected block is either:
-        // - a code macro block
-        // - a block having a "data-xwiki-rendering-protected" parameter with value "true"
-        boolean isProtected = false;
-        if ((block instanceof MacroMarkerBlock) && "code".equals(((MacroMarkerBlock) block).getId())) {
-            isProtected = true;
+        // Ask the skin to include the stylesheet displaying the numbers, when there's a skin.
+        SkinExtensionUse skinExtensionUse = getStylesheetSkinExtension();
+        if (skinExtensionUse.skinExtension != null) {
+            try {
+                skinExtensionUse.use.invoke(skinExtensionUse.skinExtension, CLIENT_SIDE_NUMBERING_STYLESHEET);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                this.logger.warn("Failed to include the client side numbering stylesheet: {}", e.getMessage());
+            }
+        }
+    }
+
+    private SkinExtensionUse getStylesheetSkinExtension()
+    {
+        SkinExtensionUse skinExtensionUse = this.stylesheetSkinExtension;
+        if (skinExtensionUse == null) {
+            // The skin extension is a singleton provided by XWiki (when it's there), so it's looked up only once.
+            try {
+                Class<?> role = Class.forName(SKIN_EXTENSION_ROLE, true, getClass().getClassLoader());
+                Object skinExtension =
+                    this.componentManagerProvider.get().getInstance(role, RESOURCE_SKIN_EXTENSION_HINT);
+                skinExtensionUse = new SkinExtensionUse(skinExtension, role.getMethod("use", String.class));
+            } catch (ClassNotFoundException | NoSuchMethodException | ComponentLookupException e) {
+                this.logger.debug("No skin extension to include the client side numbering stylesheet: {}",
+                    e.getMessage());
+                skinExtensionUse = new SkinExtensionUse(null, null);
+            }
+            this.stylesheetSkinExtension = skinExtensionUse;
+        }
+        return skinExtensionUse;
+    }
+
+    private String getIndexId(Block block, TransformationContext context)
+    {
+        // The numbering index is stored per document, so only the transformations of a whole document are indexed:
+        // the index of a fragment (e.g. a part of the document or an included document transformed in the context of
+        // the including document) would otherwise replace the one of the document it's transformed for.
+        String documentId = context != null ? context.getId() : null;
+        if (documentId == null || !(block instanceof XDOM)
+            || (context.getXDOM() != null && context.getXDOM() != block)) {
+            return null;
+        }
+        Object source = ((XDOM) block).getMetaData().getMetaData(MetaData.SOURCE);
+        // The source can be serialized with or without the wiki.
+        if (source != null && !documentId.equals(source) && !documentId.endsWith(":" + source)) {
+            return null;
+        }
+        return documentId;
+    }
+
+    private CachedNumbering getSessionNumbering(NumberedBlocks numberedBlocks, String documentId, boolean fragment,
+        NumberingSession session, NumberingStatistics statistics) throws TransformationException
+    {
+        // The numbering continues the one of the previous documents of the session so it doesn't only depend on the
+        // content: it can't be cached nor stored.
+        NumberingIndex index = new NumberingIndex();
+        index.setContentHash(numberedBlocks.getContentHash());
+        int[] startCounters = getSessionCounters(session, documentId);
+        int[] endCounters = number(numberedBlocks, index, startCounters.clone(), statistics);
+        if (fragment) {
+            // The fragment is numbered again when the whole document is transformed.
+            session.addNumbers(getReferenceType(), documentId, index.getNumbers(getReferenceType()));
         } else {
-            String parameterValue = block.getParameter("data-xwiki-rendering-protected");
-            if (!StringUtils.isEmpty(parameterValue) && Boolean.valueOf(parameterValue)) {
-                isProtected = true;
+            session.addNumbers(getReferenceType(), documentId, startCounters, endCounters,
+                index.getNumbers(getReferenceType()));
+        }
+        return new CachedNumbering(index, Collections.emptyList());
+    }
+
+    private void addSessionReferences(NumberingSession session, String documentId, NumberedBlocks numberedBlocks)
+    {
+        // The references replaced by a link are resolved, either by this transformation or by a previous one.
+        ReferenceBlocks referenceBlocks = numberedBlocks.getReferenceBlocks();
+        for (ReferenceType referenceType : Arrays.asList(getReferenceType(), null)) {
+            for (ReferenceBlock referenceBlock : referenceBlocks.get(referenceType)) {
+                session.addReference(documentId, referenceBlock, !this.numberingEngine.isAttached(referenceBlock));
             }
         }
-        return isProtected;
     }
+
+    private CachedNumbering getNumbering(NumberedBlocks numberedBlocks, String documentId,
+        NumberingStatistics statistics) throws TransformationException
+    {
+        // Replay the numbering of identical content from the cache, if possible. The cache holds the inserted number
+        // blocks so it's not used when the numbers are displayed by the client.
+        long contentHash = numberedBlocks.getContentHash();
+        String wiki = getWiki();
+        Locale locale = getLocale();
+        boolean cacheable = !isClientSideNumbering();
+        CachedNumbering cachedNumbering =
+            cacheable ? this.numberingCache.get(getReferenceType(), contentHash, wiki, locale) : null;
+        if (cachedNumbering == null || !replay(numberedBlocks, cachedNumbering, statistics)) {
+            // Otherwise reuse the numbers computed for the same content of the same document, if any.
+            NumberingIndex index = this.numberingIndexManager.getIndex(documentId, getReferenceType(), contentHash);
+            if (index == null || !apply(numberedBlocks, index, statistics)) {
+                index = new NumberingIndex();
+                index.setContentHash(contentHash);
+                number(numberedBlocks, index, getInitialCounters(), statistics);
+                this.numberingIndexManager.saveIndex(documentId, getReferenceType(), index);
+            }
+            if (cacheable) {
+                cachedNumbering = new CachedNumbering(index, getInsertedBlocks(numberedBlocks));
+                this.numberingCache.put(getReferenceType(), contentHash, wiki, locale, cachedNumbering);
+            } else {
+                cachedNumbering = new CachedNumbering(index, Collections.emptyList());
+            }
+        }
+        return cachedNumbering;
+    }
+
+    /**
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @return {@code true} if the transformed content is large enough for the blocks to be numbered in parallel (see
+     *         {@link NumberingConfiguration#getParallelThreshold()})
+     * @since 1.5
+     */
+    protected boolean isParallel(NumberedBlocks numberedBlocks)
+    {
+        int threshold = this.configuration.getParallelThreshold();
+        return threshold > 0 && numberedBlocks.getBlockCount() >= threshold;
+    }
+
+    /**
+     * Call the passed action for each index between 0 (included) and the passed size (excluded), in parallel, in the
+     * pool dedicated to the numbering (see {@link NumberingExecutor}).
+     *
+     * @param size the number of indexes
+     * @param action the action to call for each index, which must not depend on the execution context
+     * @since 1.5
+     */
+    protected void forEachInParallel(int size, IntConsumer action)
+    {
+        this.numberingExecutor.forEach(size, action);
+    }
+
+    /**
+     * @return {@code true} if the numbered blocks are only annotated with their number, which is then displayed by
+     *         the client (see {@link NumberingConfiguration#isClientSideNumbering()}), which requires the output
+     *         syntax to be HTML (or unknown)
+     * @since 1.5
+     */
+    protected boolean isClientSideNumbering()
+    {
+        // The numbers can only be displayed by the client in HTML, they're inserted in the other output syntaxes.
+        Syntax targetSyntax = this.renderingContext.getTargetSyntax();
+        return this.configuration.isClientSideNumbering()
+            && (targetSyntax == null || targetSyntax.getType().getId().contains("html"));
+    }
+
+    /**
+     * @return {@code true} if the numbers are serialized as a single block (see
+     *         {@link NumberingConfiguration#isCompactLabels()})
+     * @since 1.5
+     */
+    protected boolean isCompactLabels()
+    {
+        return this.configuration.isCompactLabels();
+    }
+
+    /**
+     * @return the heading level of the sections whose number prefixes the figure numbers, 0 if the figures are
+     *         numbered continuously (see {@link NumberingConfiguration#getFigureChapterLevel()})
+     * @since 1.5
+     */
+    protected int getFigureChapterLevel()
+    {
+        return this.configuration.getFigureChapterLevel();
+    }
+
+    /**
+     * @return the locale used to number the blocks, {@code null} if the numbering doesn't depend on the locale
+     * @since 1.5
+     */
+    protected Locale getLocale()
+    {
+        return null;
+    }
+
+    /**
+     * @return the wiki whose translations are used to number the blocks, {@code null} if the numbering doesn't depend
+     *         on the wiki
+     * @since 1.5
+     */
+    protected String getWiki()
+    {
+        return null;
+    }
+
+    /**
+     * @param kinds the registered kinds of entity
+     * @return {@code false} if this transformation has nothing to number, in which case the blocks are not even
+     *         collected
+     * @since 1.5
+     */
+    protected boolean isEnabled(List<NumberedEntityKind> kinds)
+    {
+        return true;
+    }
+
+    /**
+     * @return the hint of this transformation, used to identify its metrics
+     * @since 1.5
+     */
+    protected abstract String getHint();
+
+    /**
+     * @return the type of the references resolved by this transformation (references without type are resolved too)
+     */
+    protected abstract ReferenceType getReferenceType();
+
+    /**
+     * Number the blocks handled by this transformation.
+     *
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @param index the index in which to record the number of each numbered block, in document order, and the numbers
+     *            to use for the references, indexed by id
+     * @param counters the counters from which to start numbering (see {@link #getInitialCounters()}), which are not
+     *            the initial ones when the numbering continues the one of the previous documents of a
+     *            {@link NumberingSession}
+     * @param statistics the statistics in which to count the numbered blocks
+     * @return the counters after the last numbered block
+     * @throws TransformationException if an error happens while numbering the blocks
+     */
+    protected abstract int[] number(NumberedBlocks numberedBlocks, NumberingIndex index, int[] counters,
+        NumberingStatistics statistics) throws TransformationException;
+
+    /**
+     * Called once the blocks handled by this transformation are numbered, whether their numbers have been computed,
+     * taken from a stored index or replayed from the cache.
+     *
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @param index the numbers of the numbered blocks, in document order
+     * @since 1.5
+     */
+    protected void afterNumbering(NumberedBlocks numberedBlocks, NumberingIndex index)
+    {
+        // Nothing to do by default
+    }
+
+    /**
+     * Insert the numbers recorded in an index computed for the same content, without recounting. Nothing is
+     * modified if the index doesn't match the collected blocks (which can only happen in case of hash collision).
+     *
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @param index the index computed by {@link #number(NumberedBlocks, NumberingIndex, NumberingStatistics)} for
+     *            the same content
+     * @param statistics the statistics in which to count the numbered blocks
+     * @return {@code true} if the numbers have been inserted, {@code false} if the index doesn't match
+     * @throws TransformationException if an error happens while inserting the numbers
+     * @since 1.5
+     */
+    protected abstract boolean apply(NumberedBlocks numberedBlocks, NumberingIndex index,
+        NumberingStatistics statistics) throws TransformationException;
+
+    /**
+     * Insert copies of the blocks inserted in the numbered blocks of identical content, without recounting. Nothing
+     * is modified if the cached numbering doesn't match the collected blocks.
+     *
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @param cachedNumbering the numbering of identical content
+     * @param statistics the statistics in which to count the numbered blocks
+     * @return {@code true} if the numbers have been inserted, {@code false} if the cached numbering doesn't match
+     * @since 1.5
+     */
+    protected abstract boolean replay(NumberedBlocks numberedBlocks, CachedNumbering cachedNumbering,
+        NumberingStatistics statistics);
+
+    /**
+     * @param numberedBlocks the numbered blocks
+     * @return the blocks inserted in the numbered blocks, in document order ({@code null} when nothing has been
+     *         inserted)
+     * @since 1.5
+     */
+    protected abstract List<Block> getInsertedBlocks(NumberedBlocks numberedBlocks);
+
+    /**
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @return the blocks numbered by this transformation, in document order
+     * @since 1.5
+     */
+    protected abstract List<? extends Block> getNumberedBlocks(NumberedBlocks numberedBlocks);
+
+    /**
+     * @param block a numbered block
+     * @param numberedBlocks the blocks collected from the XDOM, including the passed block
+     * @return the ids representing the passed numbered block
+     * @since 1.5
+     */
+    protected abstract List<String> getIds(Block block, NumberedBlocks numberedBlocks);
+
+    /**
+     * @param numberedBlocks the blocks collected from the XDOM
+     * @param position the position of a numbered block in {@link #getNumberedBlocks(NumberedBlocks)}
+     * @return {@code true} if the numbered block at the passed position is numbered as a table
+     * @since 1.5
+     */
+    protected boolean isTable(NumberedBlocks numberedBlocks, int position)
+    {
+        return false;
+    }
+
+    /**
+     * @return the counters before the first numbered block
+     * @since 1.5
+     */
+    protected abstract int[] getInitialCounters();
+
+    /**
+     * @param session the current numbering session
+     * @param documentId the identifier of the transformed document, can be {@code null}
+     * @return the counters from which to number the blocks of the transformed document
+     * @since 1.5
+     */
+    protected int[] getSessionCounters(NumberingSession session, String documentId)
+    {
+        return session.getCounters(getReferenceType(), documentId, getInitialCounters());
+    }
+
+    /**
+     * @return {@code true} if the numbers depend on the headings located before the numbered blocks, in which case
+     *         the numbered blocks following an edited heading are renumbered
+     * @since 1.5
+     */
+    protected boolean isNumberedPerSection()
+    {
+        return false;
+    }
+
+    /**
+     * @param state the numbering state of the transformed block
+     * @param counters the counters before the passed numbered block, not modified
+     * @param block a numbered block
+     * @param isTable whether the passed block is numbered as a table
+     * @return the counters after the passed numbered block
+     * @since 1.5
+     */
+    protected abstract int[] nextCounters(NumberingState state, int[] counters, Block block, boolean isTable);
+
+    /**
+     * @param state the numbering state of the transformed block
+     * @param counters the counters after a numbered block
+     * @param block the numbered block
+     * @param isTable whether the numbered block is numbered as a table
+     * @return the number of the numbered block
+     * @since 1.5
+     */
+    protected int[] getNumber(NumberingState state, int[] counters, Block block, boolean isTable)
+    {
+        return counters;
+    }
+
+    /**
+     * Insert (or replace) the number displayed in a numbered block.
+     *
+     * @param state the numbering state of the transformed block
+     * @param block the numbered block
+     * @param number the number of the block
+     * @param isTable whether the block is numbered as a table
+     * @since 1.5
+     */
+    protected abstract void insertNumber(NumberingState state, Block block, int[] number, boolean isTable);
+
+    /**
+     * @param number the number to serialize, as recorded in the {@link NumberingIndex}
+     * @return the blocks to use as the label of the links to the numbered block
+     */
+    protected abstract List<Block> serializeNumber(int[] number);
 }
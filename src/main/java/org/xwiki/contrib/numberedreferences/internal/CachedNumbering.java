@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.xwiki.rendering.block.Block;
+
+/**
+ * The result of a numbered transformation for a given content, kept in the {@link NumberingCache}: the numbers, the
+ * blocks inserted in the headers or figure captions and the link labels. The cached blocks are never attached to a
+ * XDOM, copies are returned instead.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class CachedNumbering
+{
+    private final NumberingIndex index;
+
+    private final List<Block> insertedBlocks;
+
+    /**
+     * The link labels, indexed by number. Arrays don't override {@code equals()} so the numbers are compared by
+     * identity, which is fine since the numbers come from the cached index.
+     */
+    private final Map<int[], List<Block>> labels = new ConcurrentHashMap<>();
+
+    /**
+     * @param index the numbers computed for the content
+     * @param insertedBlocks the blocks inserted in the numbered blocks, in document order ({@code null} when nothing
+     *            has been inserted, e.g. for a figure without caption)
+     */
+    public CachedNumbering(NumberingIndex index, List<Block> insertedBlocks)
+    {
+        this.index = index;
+        this.insertedBlocks = new ArrayList<>(insertedBlocks.size());
+        for (Block insertedBlock : insertedBlocks) {
+            this.insertedBlocks.add(insertedBlock != null ? insertedBlock.clone() : null);
+        }
+    }
+
+    /**
+     * @return the numbers computed for the content
+     */
+    public NumberingIndex getIndex()
+    {
+        return this.index;
+    }
+
+    /**
+     * @return the number of numbered blocks
+     */
+    public int getInsertedBlockCount()
+    {
+        return this.insertedBlocks.size();
+    }
+
+    /**
+     * @param position the position of the numbered block, in document order
+     * @return a copy of the block to insert in the numbered block, or {@code null} if there's nothing to insert
+     */
+    public Block getInsertedBlock(int position)
+    {
+        Block insertedBlock = this.insertedBlocks.get(position);
+        return insertedBlock != null ? insertedBlock.clone() : null;
+    }
+
+    /**
+     * @param number a number from the cached index
+     * @param serializer the function creating the label blocks, called only the first time a label is needed
+     * @return a copy of the link label blocks for the passed number
+     */
+    public List<Block> getLabel(int[] number, Function<int[], List<Block>> serializer)
+    {
+        List<Block> label = this.labels.computeIfAbsent(number, serializer);
+        List<Block> copy = new ArrayList<>(label.size());
+        for (Block block : label) {
+            copy.add(block.clone());
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.localization.Translation;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * A figure or table caption prefix translation (e.g. {@code Figure {0}:}) for a given locale, along with the prefix
+ * blocks it has rendered for each number, so that the translation is rendered only once per number.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class CaptionPrefixTemplate
+{
+    private final Translation translation;
+
+    /**
+     * The rendered prefixes, by translation parameter: an {@link Integer} for a figure number and a {@link String}
+     * for a figure number prefixed with its chapter number (e.g. {@code 3.7}).
+     */
+    private final Map<Object, Block> prefixBlocks = new ConcurrentHashMap<>();
+
+    private final Map<Object, String> plainPrefixes = new ConcurrentHashMap<>();
+
+    /**
+     * @param translation the caption prefix translation
+     */
+    public CaptionPrefixTemplate(Translation translation)
+    {
+        this.translation = translation;
+    }
+
+    /**
+     * @param number the figure or table number
+     * @return the caption prefix blocks for the passed number (e.g. "Figure 1:"), which can be inserted in the XDOM,
+     *         or {@code null} if the translation doesn't produce any block
+     */
+    public Block render(int number)
+    {
+        return render((Object) number);
+    }
+
+    /**
+     * @param number the figure or table number, optionally prefixed with the number of its chapter (e.g.
+     *            {@code [3, 7]} for the 7th figure of the 3rd chapter)
+     * @return the caption prefix blocks for the passed number (e.g. "Figure 3.7:"), which can be inserted in the XDOM,
+     *         or {@code null} if the translation doesn't produce any block
+     */
+    public Block render(int[] number)
+    {
+        return render(getParameter(number));
+    }
+
+    /**
+     * @param number the figure or table number
+     * @return the caption prefix for the passed number as plain text (e.g. "Figure 1:")
+     */
+    public String renderPlain(int number)
+    {
+        return renderPlain((Object) number);
+    }
+
+    /**
+     * @param number the figure or table number, optionally prefixed with the number of its chapter
+     * @return the caption prefix for the passed number as plain text (e.g. "Figure 3.7:")
+     */
+    public String renderPlain(int[] number)
+    {
+        return renderPlain(getParameter(number));
+    }
+
+    private Block render(Object parameter)
+    {
+        Block prefixBlock = getPrefixBlock(parameter);
+        return prefixBlock != null ? prefixBlock.clone() : null;
+    }
+
+    private String renderPlain(Object parameter)
+    {
+        return this.plainPrefixes.computeIfAbsent(parameter, key -> {
+            StringBuilder builder = new StringBuilder();
+            Block prefixBlock = getPrefixBlock(key);
+            if (prefixBlock != null) {
+                appendPlain(prefixBlock, builder);
+            }
+            return builder.toString();
+        });
+    }
+
+    private Object getParameter(int[] number)
+    {
+        // Keep the number formatting of the translation for the figure numbers without chapter.
+        return number.length == 1 ? (Object) number[0] : StringUtils.join(number, '.');
+    }
+
+    private Block getPrefixBlock(Object parameter)
+    {
+        // The rendered blocks are not inserted in the XDOM so they can be shared between threads.
+        return this.prefixBlocks.computeIfAbsent(parameter, key -> this.translation.render(key));
+    }
+
+    private void appendPlain(Block block, StringBuilder builder)
+    {
+        // The caption prefixes are simple inline content.
+        if (block instanceof WordBlock) {
+            builder.append(((WordBlock) block).getWord());
+        } else if (block instanceof SpaceBlock) {
+            builder.append(' ');
+        } else if (block instanceof SpecialSymbolBlock) {
+            builder.append(((SpecialSymbolBlock) block).getSymbol());
+        } else {
+            for (Block childBlock : block.getChildren()) {
+                appendPlain(childBlock, builder);
+            }
+        }
+    }
+}
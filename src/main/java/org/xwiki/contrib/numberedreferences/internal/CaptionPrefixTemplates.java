@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.LocalizationContext;
+import org.xwiki.localization.Translation;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Keeps the caption prefix templates of each wiki and locale (the translation bundles can be defined per wiki) so that
+ * the translations are looked up once per wiki and locale and rendered once per number, instead of once per figure.
+ * The templates are invalidated when the translations may have changed (see
+ * {@link CaptionPrefixTemplatesInvalidator}).
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = CaptionPrefixTemplates.class)
+@Singleton
+public class CaptionPrefixTemplates
+{
+    @Inject
+    private ContextualLocalizationManager localizationManager;
+
+    @Inject
+    private LocalizationContext localizationContext;
+
+    @Inject
+    private ModelContext modelContext;
+
+    private final Map<String, CaptionPrefixTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param translationKey the key of the caption prefix translation
+     * @return the template of the caption prefix for the current wiki and locale, or {@code null} if there's no such
+     *         translation
+     */
+    public CaptionPrefixTemplate getTemplate(String translationKey)
+    {
+        String key = getCurrentWiki() + '/' + this.localizationContext.getCurrentLocale() + '/' + translationKey;
+        CaptionPrefixTemplate template = this.templates.get(key);
+        if (template == null) {
+            // Missing translations are not cached since they may be added later.
+            Translation translation = this.localizationManager.getTranslation(translationKey);
+            if (translation != null) {
+                template = new CaptionPrefixTemplate(translation);
+                this.templates.put(key, template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Forget all the templates, so that the translations are looked up again.
+     */
+    public void invalidate()
+    {
+        this.templates.clear();
+    }
+
+    /**
+     * @return the wiki whose translations are used for the caption prefixes, {@code null} if there's no current wiki
+     */
+    public String getCurrentWiki()
+    {
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        EntityReference wikiReference =
+            currentReference != null ? currentReference.extractReference(EntityType.WIKI) : null;
+        return wikiReference != null ? wikiReference.getName() : null;
+    }
+}
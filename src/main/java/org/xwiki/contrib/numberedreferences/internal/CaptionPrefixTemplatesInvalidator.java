@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.extension.event.ExtensionEvent;
+import org.xwiki.extension.event.ExtensionInstalledEvent;
+import org.xwiki.extension.event.ExtensionUninstalledEvent;
+import org.xwiki.extension.event.ExtensionUpgradedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Invalidates the caption prefix templates, and the cached numberings in which they're inserted, when the translation
+ * bundles may have changed: when a document having a translation object before or after being saved is saved, when a
+ * document is deleted (it can't be checked anymore), and when an extension (possibly bringing translations) is
+ * installed, uninstalled or upgraded.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named(CaptionPrefixTemplatesInvalidator.NAME)
+@Singleton
+public class CaptionPrefixTemplatesInvalidator extends AbstractEventListener
+{
+    /**
+     * The name of this event listener.
+     */
+    public static final String NAME = "CaptionPrefixTemplatesInvalidator";
+
+    private static final String TRANSLATION_CLASS_SPACE = "XWiki";
+
+    private static final String TRANSLATION_CLASS_NAME = "TranslationDocumentClass";
+
+    @Inject
+    private CaptionPrefixTemplates captionPrefixTemplates;
+
+    @Inject
+    private NumberingCache numberingCache;
+
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * The documents being saved that had a translation object before the save.
+     */
+    private final Set<DocumentReference> savedTranslationDocuments = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Listen to the document and extension modifications.
+     */
+    public CaptionPrefixTemplatesInvalidator()
+    {
+        super(NAME, new DocumentCreatedEvent(), new DocumentUpdatingEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(), new ExtensionInstalledEvent(), new ExtensionUninstalledEvent(),
+            new ExtensionUpgradedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof DocumentUpdatingEvent) {
+            // The saved document isn't stored yet, so this checks the original document: its translation object may be
+            // removed by the save, after which it can't be found anymore.
+            DocumentModelBridge document = (DocumentModelBridge) source;
+            if (isTranslationDocument(document)) {
+                this.savedTranslationDocuments.add(document.getDocumentReference());
+            }
+        } else if (event instanceof ExtensionEvent || event instanceof DocumentDeletedEvent
+            || isSavedTranslationDocument((DocumentModelBridge) source)) {
+            this.captionPrefixTemplates.invalidate();
+            this.numberingCache.invalidate();
+        }
+    }
+
+    private boolean isSavedTranslationDocument(DocumentModelBridge document)
+    {
+        // The document had a translation object before being saved, or has one after.
+        boolean hadTranslation = this.savedTranslationDocuments.remove(document.getDocumentReference());
+        return hadTranslation || isTranslationDocument(document);
+    }
+
+    private boolean isTranslationDocument(DocumentModelBridge document)
+    {
+        DocumentReference documentReference = document.getDocumentReference();
+        DocumentReference classReference = new DocumentReference(documentReference.getWikiReference().getName(),
+            TRANSLATION_CLASS_SPACE, TRANSLATION_CLASS_NAME);
+        return this.documentAccessBridge.getProperty(documentReference, classReference, "scope") != null;
+    }
+}
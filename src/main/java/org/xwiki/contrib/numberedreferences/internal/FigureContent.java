@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.EmptyLinesBlock;
+import org.xwiki.rendering.block.FigureCaptionBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.MetaDataBlock;
+import org.xwiki.rendering.block.TableBlock;
+
+/**
+ * The content found at the top level of a figure, used to classify the figure, whether its content comes from the XDOM
+ * (see {@link NumberingEngine}) or from rendering events (see {@link NumberingListener}), so that both number it the
+ * same way. A figure is a table when its only content, apart from its caption, is a table. The macro markers and the
+ * metadata located at the top level of the figure don't count as content (their children do), and neither do the empty
+ * lines.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class FigureContent
+{
+    private static final String MACRO_MARKER_EVENT = "MacroMarker";
+
+    private static final String METADATA_EVENT = "MetaData";
+
+    private int tableCount;
+
+    private int otherCount;
+
+    /**
+     * @param block a block located at the top level of a figure
+     * @return {@code true} if the passed block doesn't count as figure content, its children being located at the top
+     *         level of the figure
+     */
+    public static boolean isTransparent(Block block)
+    {
+        return block instanceof MacroMarkerBlock || block instanceof MetaDataBlock || block instanceof EmptyLinesBlock;
+    }
+
+    /**
+     * @param eventName the name of a {@link org.xwiki.rendering.listener.Listener} method called at the top level of a
+     *            figure (e.g. {@code beginMacroMarker})
+     * @return {@code true} if the passed event doesn't count as figure content, the events located between the begin
+     *         and end events being located at the top level of the figure
+     */
+    public static boolean isTransparent(String eventName)
+    {
+        return eventName.endsWith(MACRO_MARKER_EVENT) || eventName.endsWith(METADATA_EVENT)
+            || "onEmptyLines".equals(eventName);
+    }
+
+    /**
+     * @param block a block located at the top level of a figure, which is not transparent
+     */
+    public void add(Block block)
+    {
+        add(block instanceof TableBlock, block instanceof FigureCaptionBlock);
+    }
+
+    /**
+     * @param eventName the name of a begin or on event located at the top level of a figure, which is not transparent
+     */
+    public void add(String eventName)
+    {
+        add("beginTable".equals(eventName), "beginFigureCaption".equals(eventName));
+    }
+
+    private void add(boolean table, boolean caption)
+    {
+        if (table) {
+            this.tableCount++;
+        } else if (!caption) {
+            this.otherCount++;
+        }
+    }
+
+    /**
+     * @return {@code true} if the figure is a table
+     */
+    public boolean isTable()
+    {
+        return this.tableCount == 1 && this.otherCount == 0;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.rendering.block.AbstractBlock;
+
+/**
+ * Placeholder inserted by the {@link ListOfFiguresMacro} and {@link ListOfTablesMacro} macros, which the
+ * {@link NumberedFiguresTransformation} fills with the list of the figures or tables of the transformed content once
+ * they're numbered. The children of this block are rendered as is.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class FigureListBlock extends AbstractBlock
+{
+    private final boolean tableList;
+
+    /**
+     * @param tableList {@code true} to list the tables, {@code false} to list the other figures
+     */
+    public FigureListBlock(boolean tableList)
+    {
+        this.tableList = tableList;
+    }
+
+    /**
+     * @return {@code true} if the tables are listed, {@code false} if the other figures are listed
+     */
+    public boolean isTableList()
+    {
+        return this.tableList;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this) {
+            return true;
+        }
+
+        if (obj instanceof FigureListBlock) {
+            EqualsBuilder builder = new EqualsBuilder();
+
+            builder.appendSuper(super.equals(obj));
+            builder.append(isTableList(), ((FigureListBlock) obj).isTableList());
+
+            return builder.isEquals();
+        }
+
+        return false;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        HashCodeBuilder builder = new HashCodeBuilder();
+
+        builder.appendSuper(super.hashCode());
+        builder.append(isTableList());
+
+        return builder.toHashCode();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.environment.Environment;
+
+/**
+ * Stores the numbering indexes as binary files in a local directory (by default located in the permanent directory).
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Singleton
+public class FileNumberingIndexStore implements NumberingIndexStore, Initializable
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String FILE_EXTENSION = ".index";
+
+    @Inject
+    private Environment environment;
+
+    private File directory;
+
+    @Override
+    public void initialize()
+    {
+        if (this.directory == null) {
+            this.directory = new File(this.environment.getPermanentDirectory(), "numberedreferences/index");
+        }
+    }
+
+    /**
+     * @param directory the directory where to store the indexes
+     */
+    public void setDirectory(File directory)
+    {
+        this.directory = directory;
+    }
+
+    @Override
+    public NumberingIndex load(String key) throws IOException
+    {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            // Ignore the indexes written in another format or for another key with the same file name.
+            if (input.readInt() != FORMAT_VERSION || !key.equals(input.readUTF())) {
+                return null;
+            }
+
+            NumberingIndex index = new NumberingIndex();
+            index.setContentHash(input.readLong());
+            int blockCount = input.readInt();
+            for (int i = 0; i < blockCount; i++) {
+                int[] number = readNumber(input);
+                index.addBlockNumber(number, input.readBoolean());
+            }
+            int typeCount = input.readInt();
+            for (int i = 0; i < typeCount; i++) {
+                ReferenceType type = ReferenceType.valueOf(input.readUTF());
+                int idCount = input.readInt();
+                for (int j = 0; j < idCount; j++) {
+                    String id = input.readUTF();
+                    index.put(type, id, readNumber(input));
+                }
+            }
+            return index;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(String.format("Invalid numbering index file [%s]", file), e);
+        }
+    }
+
+    @Override
+    public void save(String key, NumberingIndex index) throws IOException
+    {
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IOException(String.format("Failed to create the numbering index directory [%s]",
+                this.directory));
+        }
+
+        // Write to a temporary file first so that the index is never read while it's only partially written.
+        File temporaryFile = File.createTempFile("index", null, this.directory);
+        try {
+            try (DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile.toPath())))) {
+                output.writeInt(FORMAT_VERSION);
+                output.writeUTF(key);
+                output.writeLong(index.getContentHash());
+                List<int[]> blockNumbers = index.getBlockNumbers();
+                output.writeInt(blockNumbers.size());
+                for (int i = 0; i < blockNumbers.size(); i++) {
+                    writeNumber(output, blockNumbers.get(i));
+                    output.writeBoolean(index.isTable(i));
+                }
+                output.writeInt(index.getTypes().size());
+                for (ReferenceType type : index.getTypes()) {
+                    output.writeUTF(type.name());
+                    Map<String, int[]> numbers = index.getNumbers(type);
+                    output.writeInt(numbers.size());
+                    for (Map.Entry<String, int[]> entry : numbers.entrySet()) {
+                        output.writeUTF(entry.getKey());
+                        writeNumber(output, entry.getValue());
+                    }
+                }
+            }
+            Files.move(temporaryFile.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+    }
+
+    private File getFile(String key)
+    {
+        // The keys can contain any character so we use a name based UUID as file name.
+        return new File(this.directory,
+            UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString() + FILE_EXTENSION);
+    }
+
+    private int[] readNumber(DataInputStream input) throws IOException
+    {
+        int[] number = new int[input.readInt()];
+        for (int i = 0; i < number.length; i++) {
+            number[i] = input.readInt();
+        }
+        return number;
+    }
+
+    private void writeNumber(DataOutputStream output, int[] number) throws IOException
+    {
+        output.writeInt(number.length);
+        for (int value : number) {
+            output.writeInt(value);
+        }
+    }
+}
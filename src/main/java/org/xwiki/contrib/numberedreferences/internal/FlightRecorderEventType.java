@@ -0,0 +1,263 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Java Flight Recorder event type defined at runtime with the {@code jdk.jfr.EventFactory} API. The JFR API is only
+ * available starting with Java 8u262 (and not at all when compiling with {@code --release 8}), so it's only accessed
+ * through reflection: nothing in this extension is compiled against it.
+ * <p>
+ * Whether a recording enables the event type is cached and refreshed each time a recording changes state, so that no
+ * event is created (and no reflective call is made) while the event type is disabled, which is most of the time.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class FlightRecorderEventType
+{
+    private static final String JFR_PACKAGE = "jdk.jfr.";
+
+    private static final String[] CATEGORY = new String[] { "XWiki", "Rendering" };
+
+    private final Object factory;
+
+    private final Object eventType;
+
+    private final Method isEnabled;
+
+    private final Method newEvent;
+
+    private final Method begin;
+
+    private final Method end;
+
+    private final Method shouldCommit;
+
+    private final Method set;
+
+    private final Method commit;
+
+    private volatile boolean enabled;
+
+    /**
+     * A field of an event type.
+     *
+     * @version $Id$
+     * @since 1.5
+     */
+    public static final class Field
+    {
+        private final Class<?> type;
+
+        private final String name;
+
+        private final String label;
+
+        private final String description;
+
+        private final boolean timespan;
+
+        /**
+         * @param type the type of the field value, a primitive type or {@link String}
+         * @param name the name of the field, a valid Java identifier
+         * @param label the human readable name of the field
+         * @param description the description of the field, {@code null} if there's none
+         * @param timespan {@code true} if the value is a duration in nanoseconds
+         */
+        public Field(Class<?> type, String name, String label, String description, boolean timespan)
+        {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.description = description;
+            this.timespan = timespan;
+        }
+    }
+
+    private FlightRecorderEventType(Object factory, Class<?> factoryClass, Class<?> eventClass)
+        throws ReflectiveOperationException
+    {
+        this.factory = factory;
+        this.eventType = factoryClass.getMethod("getEventType").invoke(factory);
+        this.isEnabled = loadClass("EventType").getMethod("isEnabled");
+        this.newEvent = factoryClass.getMethod("newEvent");
+        this.begin = eventClass.getMethod("begin");
+        this.end = eventClass.getMethod("end");
+        this.shouldCommit = eventClass.getMethod("shouldCommit");
+        this.set = eventClass.getMethod("set", int.class, Object.class);
+        this.commit = eventClass.getMethod("commit");
+        refreshEnabled();
+    }
+
+    private void refreshEnabled()
+    {
+        try {
+            this.enabled = (Boolean) this.isEnabled.invoke(this.eventType);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            this.enabled = false;
+        }
+    }
+
+    private void listenToRecordings() throws ReflectiveOperationException
+    {
+        // The listener methods (called when the recorder is initialized and when a recording changes state) all
+        // refresh the cached state.
+        Class<?> listenerClass = loadClass("FlightRecorderListener");
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.getName().equals("equals") ? proxy == args[0]
+                    : method.getName().equals("hashCode") ? System.identityHashCode(proxy) : toString();
+            }
+            refreshEnabled();
+            return null;
+        };
+        Object listener =
+            Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[] { listenerClass }, handler);
+        loadClass("FlightRecorder").getMethod("addListener", listenerClass).invoke(null, listener);
+    }
+
+    private static Class<?> loadClass(String simpleName) throws ClassNotFoundException
+    {
+        return Class.forName(JFR_PACKAGE + simpleName, true, FlightRecorderEventType.class.getClassLoader());
+    }
+
+    /**
+     * Define a new event type, in the "XWiki / Rendering" category, without stack trace.
+     *
+     * @param name the unique name of the event type
+     * @param label the human readable name of the event type
+     * @param description the description of the event type
+     * @param fields the fields of the event type, whose values are passed in the same order to
+     *            {@link #commit(Object, Object...)}
+     * @return the event type, or {@code null} if the JFR API is not available
+     */
+    public static FlightRecorderEventType create(String name, String label, String description, Field... fields)
+    {
+        try {
+            Class<?> elementClass = loadClass("AnnotationElement");
+            Class<?> descriptorClass = loadClass("ValueDescriptor");
+            Class<?> factoryClass = loadClass("EventFactory");
+            Class<?> eventClass = loadClass("Event");
+            Constructor<?> elementConstructor = elementClass.getConstructor(Class.class, Object.class);
+            Constructor<?> descriptorConstructor =
+                descriptorClass.getConstructor(Class.class, String.class, List.class);
+
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(newAnnotation(elementConstructor, "Name", name));
+            annotations.add(newAnnotation(elementConstructor, "Label", label));
+            annotations.add(newAnnotation(elementConstructor, "Description", description));
+            annotations.add(newAnnotation(elementConstructor, "Category", CATEGORY));
+            annotations.add(newAnnotation(elementConstructor, "StackTrace", Boolean.FALSE));
+
+            List<Object> descriptors = new ArrayList<>();
+            for (Field field : fields) {
+                List<Object> fieldAnnotations = new ArrayList<>();
+                fieldAnnotations.add(newAnnotation(elementConstructor, "Label", field.label));
+                if (field.description != null) {
+                    fieldAnnotations.add(newAnnotation(elementConstructor, "Description", field.description));
+                }
+                if (field.timespan) {
+                    fieldAnnotations.add(newAnnotation(elementConstructor, "Timespan", "NANOSECONDS"));
+                }
+                descriptors.add(descriptorConstructor.newInstance(field.type, field.name, fieldAnnotations));
+            }
+
+            Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations,
+                descriptors);
+            FlightRecorderEventType eventType = new FlightRecorderEventType(factory, factoryClass, eventClass);
+            eventType.listenToRecordings();
+            return eventType;
+        } catch (ReflectiveOperationException | LinkageError | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Object newAnnotation(Constructor<?> elementConstructor, String annotation, Object value)
+        throws ReflectiveOperationException
+    {
+        return elementConstructor.newInstance(loadClass(annotation), value);
+    }
+
+    /**
+     * Create a new event and start timing it, if a recording enables the event type.
+     *
+     * @return the started event, or {@code null} if the event type is disabled or the event couldn't be created
+     */
+    public Object begin()
+    {
+        if (!this.enabled) {
+            return null;
+        }
+        try {
+            Object event = this.newEvent.invoke(this.factory);
+            this.begin.invoke(event);
+            return event;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stop timing an event. The field values only need to be computed when it returns {@code true}.
+     *
+     * @param event the event returned by {@link #begin()}, ignored if {@code null}
+     * @return {@code true} if the event has to be committed (see {@link #commit(Object, Object...)}), i.e. it is
+     *         recorded with its duration
+     */
+    public boolean end(Object event)
+    {
+        if (event != null) {
+            try {
+                this.end.invoke(event);
+                return (Boolean) this.shouldCommit.invoke(event);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // The event is lost, which doesn't affect the numbering.
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Commit an event with the passed field values.
+     *
+     * @param event the event for which {@link #end(Object)} returned {@code true}
+     * @param values the values of the fields of the event, in the order in which they were passed to
+     *            {@link #create(String, String, String, Field...)}
+     */
+    public void commit(Object event, Object... values)
+    {
+        try {
+            for (int i = 0; i < values.length; i++) {
+                this.set.invoke(event, i, values[i]);
+            }
+            this.commit.invoke(event);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // The event is lost, which doesn't affect the numbering.
+        }
+    }
+}
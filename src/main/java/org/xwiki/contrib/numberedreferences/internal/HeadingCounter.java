@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Arrays;
+
+import org.xwiki.rendering.listener.HeaderLevel;
+
+/**
+ * The current heading number (e.g. {@code 1.2.3}), kept as primitive ints for all the heading levels so that it can
+ * be updated in constant time, without allocating anything, as the headings are traversed.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class HeadingCounter
+{
+    private final int[] numbers = new int[HeaderLevel.values().length];
+
+    private int depth;
+
+    /**
+     * Start before the first heading.
+     */
+    public HeadingCounter()
+    {
+        // Nothing counted yet
+    }
+
+    /**
+     * Start after a heading of the passed number.
+     *
+     * @param number the number of the last counted heading (e.g. {@code [1, 2, 3]} for {@code 1.2.3})
+     */
+    public HeadingCounter(int[] number)
+    {
+        System.arraycopy(number, 0, this.numbers, 0, number.length);
+        this.depth = number.length;
+    }
+
+    /**
+     * Compute the number of the next heading of the passed level. For example if the current number is {@code 1.2.3}
+     * then the next number is {@code 1.3} for a level 2 heading and {@code 1.2.3.1.1} for a level 5 heading.
+     *
+     * @param level the level of the next heading
+     */
+    public void next(HeaderLevel level)
+    {
+        int levelValue = level.getAsInt();
+        if (this.depth < levelValue) {
+            // Missing levels start at 1
+            Arrays.fill(this.numbers, this.depth, levelValue, 1);
+        } else {
+            this.numbers[levelValue - 1]++;
+        }
+        this.depth = levelValue;
+    }
+
+    /**
+     * @return the number of levels of the current number (e.g. 3 for {@code 1.2.3}), 0 if no heading was counted
+     */
+    public int getDepth()
+    {
+        return this.depth;
+    }
+
+    /**
+     * @param index the index of the level, starting at 0
+     * @return the number for the passed level (e.g. 2 for index 1 of {@code 1.2.3})
+     */
+    public int get(int index)
+    {
+        return this.numbers[index];
+    }
+
+    /**
+     * @return a copy of the current number levels (e.g. {@code [1, 2, 3]} for {@code 1.2.3})
+     */
+    public int[] toArray()
+    {
+        return Arrays.copyOf(this.numbers, this.depth);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.depth; i++) {
+            if (i > 0) {
+                builder.append('.');
+            }
+            builder.append(this.numbers[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe latency histogram with fixed exponential buckets (below 10 and 100 microseconds, 1, 10 and 100
+ * milliseconds, 1 second and above), cheap enough to be updated on every transformation.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class LatencyHistogram
+{
+    private static final long[] BUCKET_BOUNDS = new long[] {
+        TimeUnit.MICROSECONDS.toNanos(10),
+        TimeUnit.MICROSECONDS.toNanos(100),
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(100),
+        TimeUnit.SECONDS.toNanos(1)
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Default constructor.
+     */
+    public LatencyHistogram()
+    {
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param duration the duration to record, in nanoseconds
+     */
+    public void record(long duration)
+    {
+        int index = 0;
+        while (index < BUCKET_BOUNDS.length && duration >= BUCKET_BOUNDS[index]) {
+            index++;
+        }
+        this.buckets[index].increment();
+        this.count.increment();
+        this.total.add(duration);
+        this.max.accumulate(duration);
+    }
+
+    /**
+     * @return the upper bounds (exclusive) of the buckets, in microseconds, the last bucket having no upper bound
+     */
+    public static long[] getBucketBounds()
+    {
+        long[] bounds = new long[BUCKET_BOUNDS.length];
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            bounds[i] = TimeUnit.NANOSECONDS.toMicros(BUCKET_BOUNDS[i]);
+        }
+        return bounds;
+    }
+
+    /**
+     * @return the number of recorded durations in each bucket
+     */
+    public long[] getBucketCounts()
+    {
+        long[] counts = new long[this.buckets.length];
+        for (int i = 0; i < this.buckets.length; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the average of the recorded durations, in microseconds
+     */
+    public double getMean()
+    {
+        long currentCount = this.count.sum();
+        return currentCount == 0 ? 0 : this.total.sum() / (currentCount * 1000.0);
+    }
+
+    /**
+     * @return the longest recorded duration, in microseconds
+     */
+    public long getMax()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(this.max.get());
+    }
+
+    /**
+     * Forget all the recorded durations.
+     */
+    public void reset()
+    {
+        for (LongAdder bucket : this.buckets) {
+            bucket.reset();
+        }
+        this.count.reset();
+        this.total.reset();
+        this.max.reset();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+/**
+ * List the numbered figures of the content (except the tables), each item linking to the figure when it has an id.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named("listoffigures")
+@Singleton
+public class ListOfFiguresMacro extends AbstractFigureListMacro
+{
+    /**
+     * The description of the macro.
+     */
+    private static final String DESCRIPTION = "List the numbered figures of the content.";
+
+    /**
+     * Create and initialize the descriptor of the macro.
+     */
+    public ListOfFiguresMacro()
+    {
+        super("List of figures", DESCRIPTION, false);
+    }
+}
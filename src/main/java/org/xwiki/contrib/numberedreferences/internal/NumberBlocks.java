@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * Creates the leaf blocks the generated numbers are made of: the dot separators, the spaces and the words of the
+ * numbers. A block has a single parent so each call returns a new block, but the words of the small numbers are
+ * computed once and shared between the returned blocks.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class NumberBlocks
+{
+    /**
+     * The numbers for which the word is kept, which covers the numbers of nearly all the documents.
+     */
+    static final int SHARED_NUMBER_COUNT = 1024;
+
+    private static final String[] NUMBER_WORDS = new String[SHARED_NUMBER_COUNT];
+
+    static {
+        for (int i = 0; i < NUMBER_WORDS.length; i++) {
+            NUMBER_WORDS[i] = String.valueOf(i);
+        }
+    }
+
+    private NumberBlocks()
+    {
+        // Utility class
+    }
+
+    /**
+     * @return a block representing the separator between the levels of a section number
+     */
+    public static Block getDotBlock()
+    {
+        return new SpecialSymbolBlock('.');
+    }
+
+    /**
+     * @return a block representing a space
+     */
+    public static Block getSpaceBlock()
+    {
+        return new SpaceBlock();
+    }
+
+    /**
+     * @param number the number to represent
+     * @return a word block representing the passed number
+     */
+    public static Block getNumberBlock(int number)
+    {
+        return new WordBlock(number >= 0 && number < SHARED_NUMBER_COUNT ? NUMBER_WORDS[number]
+            : String.valueOf(number));
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FigureBlock;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.IdBlock;
+
+/**
+ * The blocks collected by the {@link NumberingEngine} in a single traversal of the XDOM: the headings, figures and
+ * entities to number, the ids they contain and the references to resolve.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class NumberedBlocks
+{
+    private static final int INITIAL_FIGURE_CAPACITY = 16;
+
+    private final List<HeaderBlock> headerBlocks = new ArrayList<>();
+
+    private final List<FigureBlock> figureBlocks = new ArrayList<>();
+
+    /**
+     * Which of the figure blocks are tables, by position.
+     */
+    private final BitSet tables = new BitSet();
+
+    /**
+     * The number of header blocks collected before each of the figure blocks, by position, so that the enclosing
+     * section of a figure is known without walking the XDOM again.
+     */
+    private int[] figureHeaderCounts = new int[INITIAL_FIGURE_CAPACITY];
+
+    private final List<Block> entityBlocks = new ArrayList<>();
+
+    /**
+     * The kind of each of the entity blocks, by position.
+     */
+    private final List<NumberedEntityKind> entityKinds = new ArrayList<>();
+
+    private List<NumberedEntityKind> kinds = Collections.emptyList();
+
+    private final List<FigureListBlock> figureListBlocks = new ArrayList<>();
+
+    private final ReferenceBlocks referenceBlocks = new ReferenceBlocks();
+
+    /**
+     * The {@link IdBlock} blocks found inside each header or figure block. Blocks implement a content-based
+     * {@code equals()} so we need to use identity here.
+     */
+    private final Map<Block, List<IdBlock>> idBlocks = new IdentityHashMap<>();
+
+    private int blockCount;
+
+    private long contentHash;
+
+    /**
+     * @param headerBlock the header block to number
+     */
+    public void addHeaderBlock(HeaderBlock headerBlock)
+    {
+        this.headerBlocks.add(headerBlock);
+    }
+
+    /**
+     * @param figureBlock the figure block to number
+     */
+    public void addFigureBlock(FigureBlock figureBlock)
+    {
+        setFigureHeaderCount(this.figureBlocks.size(), this.headerBlocks.size());
+        this.figureBlocks.add(figureBlock);
+    }
+
+    /**
+     * @param position the position of a figure block in {@link #getFigureBlocks()}
+     * @param isTable whether the figure is a table, known once its content has been collected
+     */
+    public void setTable(int position, boolean isTable)
+    {
+        this.tables.set(position, isTable);
+    }
+
+    /**
+     * @param entityBlock the block to number
+     * @param kind the kind of entity matching the block
+     */
+    public void addEntityBlock(Block entityBlock, NumberedEntityKind kind)
+    {
+        this.entityBlocks.add(entityBlock);
+        this.entityKinds.add(kind);
+    }
+
+    /**
+     * @param kinds the kinds of entity against which the blocks are matched
+     */
+    public void setKinds(List<NumberedEntityKind> kinds)
+    {
+        this.kinds = kinds;
+    }
+
+    /**
+     * @param figureListBlock the list of figures or tables to fill once the figures are numbered
+     */
+    public void addFigureListBlock(FigureListBlock figureListBlock)
+    {
+        this.figureListBlocks.add(figureListBlock);
+    }
+
+    /**
+     * @param ownerBlock the header, figure or entity block containing the id block
+     * @param idBlock the id block found inside the owner block
+     */
+    public void addIdBlock(Block ownerBlock, IdBlock idBlock)
+    {
+        this.idBlocks.computeIfAbsent(ownerBlock, key -> new ArrayList<>()).add(idBlock);
+    }
+
+    /**
+     * @param contentHash the hash of the content that matters for the numbering
+     */
+    public void setContentHash(long contentHash)
+    {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the hash of the content that matters for the numbering (see {@link NumberingEngine#collect(Block)})
+     */
+    public long getContentHash()
+    {
+        return this.contentHash;
+    }
+
+    /**
+     * Count a block visited by the traversal.
+     */
+    public void incrementBlockCount()
+    {
+        this.blockCount++;
+    }
+
+    /**
+     * @return the number of blocks visited to collect the numbered blocks, which gives the size of the document
+     */
+    public int getBlockCount()
+    {
+        return this.blockCount;
+    }
+
+    /**
+     * @return the header blocks to number, in document order
+     */
+    public List<HeaderBlock> getHeaderBlocks()
+    {
+        return this.headerBlocks;
+    }
+
+    /**
+     * @return the figure blocks to number, in document order
+     */
+    public List<FigureBlock> getFigureBlocks()
+    {
+        return this.figureBlocks;
+    }
+
+    /**
+     * @param position the position of a figure block in {@link #getFigureBlocks()}
+     * @return {@code true} if the figure block at the passed position is a table
+     */
+    public boolean isTable(int position)
+    {
+        return this.tables.get(position);
+    }
+
+    /**
+     * @param position the position of the figure block in {@link #getFigureBlocks()}
+     * @return the number of header blocks located before the figure block, in document order
+     */
+    public int getFigureHeaderCount(int position)
+    {
+        return this.figureHeaderCounts[position];
+    }
+
+    private void setFigureHeaderCount(int position, int headerCount)
+    {
+        if (position >= this.figureHeaderCounts.length) {
+            this.figureHeaderCounts =
+                Arrays.copyOf(this.figureHeaderCounts, Math.max(position + 1, this.figureHeaderCounts.length * 2));
+        }
+        this.figureHeaderCounts[position] = headerCount;
+    }
+
+    /**
+     * @return the blocks matched by the registered {@link NumberedEntityKind}s, in document order
+     */
+    public List<Block> getEntityBlocks()
+    {
+        return this.entityBlocks;
+    }
+
+    /**
+     * @param position the position of an entity block in {@link #getEntityBlocks()}
+     * @return the kind of entity matching the block at the passed position
+     */
+    public NumberedEntityKind getEntityKind(int position)
+    {
+        return this.entityKinds.get(position);
+    }
+
+    /**
+     * @return the kinds of entity against which the blocks have been matched, looked up once for the traversal
+     */
+    public List<NumberedEntityKind> getKinds()
+    {
+        return this.kinds;
+    }
+
+    /**
+     * @return the lists of figures or tables to fill, in document order
+     */
+    public List<FigureListBlock> getFigureListBlocks()
+    {
+        return this.figureListBlocks;
+    }
+
+    /**
+     * @return the reference blocks to resolve, in document order for each type
+     */
+    public ReferenceBlocks getReferenceBlocks()
+    {
+        return this.referenceBlocks;
+    }
+
+    /**
+     * @param ownerBlock the header, figure or entity block for which to return the contained id blocks
+     * @return the id blocks found inside the passed block, in document order
+     */
+    public List<IdBlock> getIdBlocks(Block ownerBlock)
+    {
+        List<IdBlock> result = this.idBlocks.get(ownerBlock);
+        return result != null ? result : Collections.emptyList();
+    }
+}
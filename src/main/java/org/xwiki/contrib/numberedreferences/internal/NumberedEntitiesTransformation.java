@@ -0,0 +1,214 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.IdBlock;
+import org.xwiki.rendering.transformation.TransformationException;
+
+/**
+ * Number the blocks matched by all the registered {@link NumberedEntityKind}s (equations, code listings, theorems,
+ * etc) and replace the Reference macro blocks targeting them with a link block. The blocks of all the kinds are
+ * collected during a single traversal of the XDOM, done by this transformation like the headings and figures
+ * transformations do their own, and skipped when no kind is registered.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component
+@Named(NumberedEntitiesTransformation.HINT)
+@Singleton
+public class NumberedEntitiesTransformation extends AbstractNumberedTransformation
+{
+    /**
+     * The hint of this transformation.
+     */
+    public static final String HINT = "numberedentities";
+
+    @Override
+    protected boolean isEnabled(List<NumberedEntityKind> kinds)
+    {
+        // There's nothing to number when no kind is registered.
+        return !kinds.isEmpty();
+    }
+
+    @Override
+    protected String getHint()
+    {
+        return HINT;
+    }
+
+    @Override
+    protected ReferenceType getReferenceType()
+    {
+        return ReferenceType.ENTITY;
+    }
+
+    @Override
+    protected int[] number(NumberedBlocks numberedBlocks, NumberingIndex index, int[] counters,
+        NumberingStatistics statistics) throws TransformationException
+    {
+        // The counters are indexed by the sorted counter names of the registered kinds. The blocks collected for a
+        // kind that isn't registered anymore are still counted, from 1.
+        List<String> counterNames = NumberedEntityKinds.getCounters(numberedBlocks.getKinds());
+        Map<String, Integer> values = new HashMap<>();
+        for (int i = 0; i < counterNames.size() && i < counters.length; i++) {
+            values.put(counterNames.get(i), counters[i]);
+        }
+
+        // All the kinds share the same reference type, so the references can't tell apart the entities of different
+        // kinds having the same id.
+        Map<String, NumberedEntityKind> idKinds = new HashMap<>();
+        List<Block> entityBlocks = numberedBlocks.getEntityBlocks();
+        for (int i = 0; i < entityBlocks.size(); i++) {
+            Block entityBlock = entityBlocks.get(i);
+            NumberedEntityKind kind = numberedBlocks.getEntityKind(i);
+            int[] number = new int[] { values.merge(kind.getCounter(), 1, Integer::sum) };
+            kind.insertNumber(entityBlock, number);
+            index.addBlockNumber(number, false);
+
+            // Save in the index the ids representing this entity, i.e. all id macros defined inside the block.
+            for (IdBlock idBlock : numberedBlocks.getIdBlocks(entityBlock)) {
+                NumberedEntityKind idKind = idKinds.putIfAbsent(idBlock.getName(), kind);
+                if (idKind != null && idKind != kind) {
+                    throw new TransformationException(String.format(
+                        "The id [%s] is used by numbered entities of different kinds (counted as [%s] and [%s])",
+                        idBlock.getName(), idKind.getCounter(), kind.getCounter()));
+                }
+                index.put(ReferenceType.ENTITY, idBlock.getName(), number);
+            }
+        }
+
+        int[] endCounters = new int[counterNames.size()];
+        for (int i = 0; i < endCounters.length; i++) {
+            endCounters[i] = values.getOrDefault(counterNames.get(i), 0);
+        }
+        return endCounters;
+    }
+
+    @Override
+    protected boolean apply(NumberedBlocks numberedBlocks, NumberingIndex index, NumberingStatistics statistics)
+    {
+        // The index has been computed for the same content so it has a number for each entity, in document order.
+        List<Block> entityBlocks = numberedBlocks.getEntityBlocks();
+        List<int[]> entityNumbers = index.getBlockNumbers();
+        if (entityNumbers.size() != entityBlocks.size()) {
+            return false;
+        }
+        for (int i = 0; i < entityBlocks.size(); i++) {
+            numberedBlocks.getEntityKind(i).insertNumber(entityBlocks.get(i), entityNumbers.get(i));
+        }
+
+        return true;
+    }
+
+    @Override
+    protected boolean replay(NumberedBlocks numberedBlocks, CachedNumbering cachedNumbering,
+        NumberingStatistics statistics)
+    {
+        // The kinds decide what they insert so there are no inserted blocks to copy: insert the cached numbers
+        // instead, which still avoids counting.
+        return apply(numberedBlocks, cachedNumbering.getIndex(), statistics);
+    }
+
+    @Override
+    protected List<Block> getInsertedBlocks(NumberedBlocks numberedBlocks)
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    protected List<? extends Block> getNumberedBlocks(NumberedBlocks numberedBlocks)
+    {
+        return numberedBlocks.getEntityBlocks();
+    }
+
+    @Override
+    protected List<String> getIds(Block block, NumberedBlocks numberedBlocks)
+    {
+        List<String> ids = new ArrayList<>();
+        for (IdBlock idBlock : numberedBlocks.getIdBlocks(block)) {
+            ids.add(idBlock.getName());
+        }
+        return ids;
+    }
+
+    @Override
+    protected int[] getInitialCounters()
+    {
+        // One counter per counter name, added when the first entity is counted since the counter names depend on the
+        // registered kinds.
+        return new int[0];
+    }
+
+    @Override
+    protected int[] nextCounters(NumberingState state, int[] counters, Block block, boolean isTable)
+    {
+        List<String> counterNames = NumberedEntityKinds.getCounters(state.getKinds());
+        int[] nextCounters = Arrays.copyOf(counters, Math.max(counters.length, counterNames.size()));
+        int position = getCounterPosition(block, state.getKinds(), counterNames);
+        if (position >= 0 && position < nextCounters.length) {
+            nextCounters[position]++;
+        }
+        return nextCounters;
+    }
+
+    @Override
+    protected int[] getNumber(NumberingState state, int[] counters, Block block, boolean isTable)
+    {
+        List<String> counterNames = NumberedEntityKinds.getCounters(state.getKinds());
+        int position = getCounterPosition(block, state.getKinds(), counterNames);
+        return new int[] { position >= 0 && position < counters.length ? counters[position] : 0 };
+    }
+
+    @Override
+    protected void insertNumber(NumberingState state, Block block, int[] number, boolean isTable)
+    {
+        NumberedEntityKind kind = NumberedEntityKinds.getKind(block, state.getKinds());
+        if (kind != null) {
+            kind.insertNumber(block, number);
+        }
+    }
+
+    @Override
+    protected List<Block> serializeNumber(int[] number)
+    {
+        return Collections.singletonList(NumberBlocks.getNumberBlock(number[0]));
+    }
+
+    private int getCounterPosition(Block block, List<NumberedEntityKind> kinds, List<String> counterNames)
+    {
+        NumberedEntityKind kind = NumberedEntityKinds.getKind(block, kinds);
+        return kind != null ? Collections.binarySearch(counterNames, kind.getCounter()) : -1;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.rendering.block.Block;
+
+/**
+ * Looks up the registered {@link NumberedEntityKind}s. They're looked up each time they're needed since they can be
+ * contributed by extensions installed after the numbering components have been initialized.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberedEntityKinds.class)
+@Singleton
+public class NumberedEntityKinds
+{
+    @Inject
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @return the registered numbered entity kinds
+     */
+    public List<NumberedEntityKind> getKinds()
+    {
+        try {
+            return this.componentManagerProvider.get().getInstanceList(NumberedEntityKind.class);
+        } catch (ComponentLookupException e) {
+            this.logger.warn("Failed to look up the numbered entity kinds: {}", e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param block the block to match
+     * @param kinds the kinds to try
+     * @return the first of the passed kinds matching the passed block, {@code null} if none matches
+     */
+    public static NumberedEntityKind getKind(Block block, List<NumberedEntityKind> kinds)
+    {
+        for (NumberedEntityKind kind : kinds) {
+            if (kind.match(block)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param kinds the kinds for which to return the counters
+     * @return the names of the counters used by the passed kinds, sorted and without duplicate, so that each counter
+     *         has a stable position in the counters of the {@link NumberedEntitiesTransformation}
+     */
+    public static List<String> getCounters(List<NumberedEntityKind> kinds)
+    {
+        TreeSet<String> counters = new TreeSet<>();
+        for (NumberedEntityKind kind : kinds) {
+            counters.add(kind.getCounter());
+        }
+        return new ArrayList<>(counters);
+    }
+}
@@ -22,32 +22,33 @@ package org.xwiki.contrib.numberedreferences.internal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.function.IntConsumer;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.localization.ContextualLocalizationManager;
-import org.xwiki.localization.Translation;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.localization.LocalizationContext;
 import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.BulletedListBlock;
 import org.xwiki.rendering.block.FigureBlock;
 import org.xwiki.rendering.block.FigureCaptionBlock;
 import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.HeaderBlock;
 import org.xwiki.rendering.block.IdBlock;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.ListItemBlock;
 import org.xwiki.rendering.block.MacroMarkerBlock;
 import org.xwiki.rendering.block.MetaDataBlock;
-import org.xwiki.rendering.block.SpaceBlock;
-import org.xwiki.rendering.block.WordBlock;
-import org.xwiki.rendering.block.match.BlockMatcher;
 import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.listener.Format;
-import org.xwiki.rendering.macro.figure.FigureTypeRecognizer;
-import org.xwiki.rendering.transformation.TransformationContext;
-import org.xwiki.rendering.transformation.TransformationException;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
 
 /**
  * Find all figures, create numbers in their captions and replace Reference macro blocks with a link block linking to
@@ -57,11 +58,16 @@ import org.xwiki.rendering.transformation.TransformationException;
  * @since 1.2
  */
 @Component
-@Named("numberedfigures")
+@Named(NumberedFiguresTransformation.HINT)
 @Singleton
 public class NumberedFiguresTransformation extends AbstractNumberedTransformation
 {
-    private static final BlockMatcher FIGUREBLOCK_MATCHER = new ClassBlockMatcher(FigureBlock.class);
+    /**
+     * The hint of this transformation.
+     *
+     * @since 1.5
+     */
+    public static final String HINT = "numberedfigures";
 
     private static final String CLASS = "class";
 
@@ -69,71 +75,469 @@ public class NumberedFiguresTransformation extends AbstractNumberedTransformatio
 
     private static final String TABLE_CLASS_VALUE = "wikigeneratedtablenumber";
 
+    private static final String PREFIX_PARAMETER = "data-xwiki-caption-prefix";
+
+    private static final String FIGURE_LIST_CLASS_VALUE = "wikigeneratedlistoffigures";
+
+    private static final String TABLE_LIST_CLASS_VALUE = "wikigeneratedlistoftables";
+
     private static final String FIGURE_TRANSLATION_KEY = "transformation.numberedReferences.figurePrefix";
 
     private static final String TABLE_TRANSLATION_KEY = "transformation.numberedReferences.tablePrefix";
 
     @Inject
-    private ContextualLocalizationManager localizationManager;
+    private CaptionPrefixTemplates captionPrefixTemplates;
+
+    @Inject
+    private LocalizationContext localizationContext;
 
     @Inject
-    private FigureTypeRecognizer figureTypeRecognizer;
+    private NumberingEngine numberingEngine;
+
+    @Override
+    protected String getHint()
+    {
+        return HINT;
+    }
+
+    @Override
+    protected ReferenceType getReferenceType()
+    {
+        return ReferenceType.FIGURE;
+    }
 
     @Override
-    public void transform(Block block, TransformationContext context) throws TransformationException
+    protected int[] number(NumberedBlocks numberedBlocks, NumberingIndex index, int[] counters,
+        NumberingStatistics statistics)
     {
         // Àlgorithm:
-        // - Find all FigureBlock (except those in protected data such as inside code macro)
-        // - For each FigureBlock, compute the figure number, cache it, and insert it in the associated
-        //   FigureCaptionBlock (if any)
-        Map<String, List<Block>> figureNumbers = new HashMap<>();
-        int figureNumber = 0;
-        int tableNumber = 0;
-        List<FigureBlock> figureBlocks = block.getBlocks(FIGUREBLOCK_MATCHER, Block.Axes.DESCENDANT);
-        for (FigureBlock figureBlock : figureBlocks) {
+        // - For each FigureBlock (except those in protected data such as inside code macro), compute the figure
+        //   number, record it in the index, and insert it in the associated FigureCaptionBlock (if any)
 
-            if (figureBlock.getChildren().isEmpty() || isInsProtectedBlock(figureBlock)) {
-                continue;
+        // The figures have been classified when they were collected. Updating the captions is independent for each
+        // figure so it's executed in parallel for large documents, once the figures and tables are counted.
+        List<FigureBlock> figureBlocks = numberedBlocks.getFigureBlocks();
+        int[][] numbers = new int[figureBlocks.size()][];
+        // The counters are the number of the current chapter, when the figures are numbered per chapter, followed by
+        // the figure and table numbers. The headings collected before each figure are counted the same way the
+        // headings transformation does, so that the chapter of each figure is known without looking for its
+        // enclosing section in the XDOM.
+        int chapterLevel = counters.length - 2;
+        int[] chapter = Arrays.copyOf(counters, chapterLevel);
+        int figureNumber = counters[chapterLevel];
+        int tableNumber = counters[chapterLevel + 1];
+        List<HeaderBlock> headerBlocks = numberedBlocks.getHeaderBlocks();
+        int headerCount = 0;
+        for (int i = 0; i < figureBlocks.size(); i++) {
+            if (chapterLevel > 0) {
+                int figureHeaderCount = numberedBlocks.getFigureHeaderCount(i);
+                int[] nextChapter = nextChapter(chapter, headerBlocks.subList(headerCount, figureHeaderCount));
+                headerCount = figureHeaderCount;
+                if (!Arrays.equals(nextChapter, chapter)) {
+                    // A new chapter starts.
+                    chapter = nextChapter;
+                    figureNumber = 0;
+                    tableNumber = 0;
+                }
+            }
+            int[] number = Arrays.copyOf(chapter, chapterLevel + 1);
+            number[chapterLevel] = numberedBlocks.isTable(i) ? ++tableNumber : ++figureNumber;
+            numbers[i] = number;
+        }
+        // The figures of the next documents of a numbering session continue the chapter of the last heading.
+        int[] endCounters = Arrays.copyOf(chapter, chapterLevel + 2);
+        if (chapterLevel > 0) {
+            int[] nextChapter = nextChapter(chapter, headerBlocks.subList(headerCount, headerBlocks.size()));
+            if (!Arrays.equals(nextChapter, chapter)) {
+                endCounters = Arrays.copyOf(nextChapter, chapterLevel + 2);
+                figureNumber = 0;
+                tableNumber = 0;
             }
+        }
+        endCounters[chapterLevel] = figureNumber;
+        endCounters[chapterLevel + 1] = tableNumber;
 
-            boolean isTable = this.figureTypeRecognizer.isTable(figureBlock);
-            int number;
+        // Update the FigureCaptionBlock (if any). The caption prefix templates are resolved in the current thread
+        // since they depend on the execution context (for the current locale).
+        CaptionPrefixTemplate figureTemplate = this.captionPrefixTemplates.getTemplate(getTranslationKey(false));
+        CaptionPrefixTemplate tableTemplate = this.captionPrefixTemplates.getTemplate(getTranslationKey(true));
+        boolean clientSide = isClientSideNumbering();
+        IntConsumer insertCaptionNumber = i -> {
+            boolean isTable = numberedBlocks.isTable(i);
+            insertFigureCaptionNumber(figureBlocks.get(i), numbers[i], isTable,
+                isTable ? tableTemplate : figureTemplate, clientSide);
+        };
+        if (isParallel(numberedBlocks)) {
+            forEachInParallel(figureBlocks.size(), insertCaptionNumber);
+        } else {
+            for (int i = 0; i < figureBlocks.size(); i++) {
+                insertCaptionNumber.accept(i);
+            }
+        }
+
+        int tableCount = 0;
+        for (int i = 0; i < figureBlocks.size(); i++) {
+            FigureBlock figureBlock = figureBlocks.get(i);
+            boolean isTable = numberedBlocks.isTable(i);
+            index.addBlockNumber(numbers[i], isTable);
             if (isTable) {
-                tableNumber++;
-                number = tableNumber;
+                tableCount++;
+            }
+
+            // Save in the index the ids representing this figure, i.e. all id macros defined inside the FigureBlock.
+            // We only save the number itself since the label blocks are only needed for the referenced ids.
+            for (IdBlock idBlock : numberedBlocks.getIdBlocks(figureBlock)) {
+                index.put(ReferenceType.FIGURE, idBlock.getName(), numbers[i]);
+            }
+        }
+
+        statistics.setFigureCount(figureBlocks.size() - tableCount);
+        statistics.setTableCount(tableCount);
+
+        return endCounters;
+    }
+
+    private static int[] nextChapter(int[] chapter, List<HeaderBlock> headerBlocks)
+    {
+        if (headerBlocks.isEmpty()) {
+            return chapter;
+        }
+        // The chapter is the heading number truncated to the chapter level, the missing levels being 0. The levels
+        // below the chapter level don't change the number of the following chapters.
+        int depth = chapter.length;
+        while (depth > 0 && chapter[depth - 1] == 0) {
+            depth--;
+        }
+        HeadingCounter headingCounter = new HeadingCounter(Arrays.copyOf(chapter, depth));
+        for (HeaderBlock headerBlock : headerBlocks) {
+            headingCounter.next(headerBlock.getLevel());
+        }
+        return Arrays.copyOf(headingCounter.toArray(), chapter.length);
+    }
+
+    private List<HeaderBlock> getPreviousHeaderBlocks(FigureBlock figureBlock)
+    {
+        // Walk back in document order from the figure to the previous figure, since the counters before a figure are
+        // the ones after the previous figure.
+        List<HeaderBlock> headerBlocks = new ArrayList<>();
+        Block currentBlock = figureBlock;
+        while (currentBlock != null) {
+            Block previousBlock = currentBlock.getPreviousSibling();
+            if (previousBlock != null) {
+                if (collectPreviousHeaderBlocks(previousBlock, headerBlocks)) {
+                    break;
+                }
+                currentBlock = previousBlock;
             } else {
-                figureNumber++;
-                number = figureNumber;
+                currentBlock = currentBlock.getParent();
+                if (currentBlock instanceof FigureBlock) {
+                    break;
+                } else if (currentBlock instanceof HeaderBlock) {
+                    headerBlocks.add((HeaderBlock) currentBlock);
+                }
+            }
+        }
+        Collections.reverse(headerBlocks);
+        return headerBlocks;
+    }
+
+    private boolean collectPreviousHeaderBlocks(Block block, List<HeaderBlock> headerBlocks)
+    {
+        // The headings and figures located in protected content are not numbered.
+        if (this.numberingEngine.isProtected(block)) {
+            return false;
+        }
+        List<Block> children = block.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (collectPreviousHeaderBlocks(children.get(i), headerBlocks)) {
+                return true;
+            }
+        }
+        if (block instanceof FigureBlock) {
+            return true;
+        } else if (block instanceof HeaderBlock) {
+            headerBlocks.add((HeaderBlock) block);
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean apply(NumberedBlocks numberedBlocks, NumberingIndex index, NumberingStatistics statistics)
+    {
+        // The index has been computed for the same content so it has a number for each figure, in document order,
+        // and we don't need to find out again which figures are tables.
+        List<FigureBlock> figureBlocks = numberedBlocks.getFigureBlocks();
+        List<int[]> figureNumbers = index.getBlockNumbers();
+        if (figureNumbers.size() != figureBlocks.size()) {
+            return false;
+        }
+        // The stored index may have been computed before the chapter level was configured.
+        if (!figureNumbers.isEmpty() && figureNumbers.get(0).length != getFigureChapterLevel() + 1) {
+            return false;
+        }
+        int tableCount = 0;
+        boolean clientSide = isClientSideNumbering();
+        for (int i = 0; i < figureBlocks.size(); i++) {
+            boolean isTable = index.isTable(i);
+            insertFigureCaptionNumber(figureBlocks.get(i), figureNumbers.get(i), isTable, clientSide);
+            if (isTable) {
+                tableCount++;
+            }
+        }
+
+        statistics.setFigureCount(figureBlocks.size() - tableCount);
+        statistics.setTableCount(tableCount);
+
+        return true;
+    }
+
+    @Override
+    protected boolean replay(NumberedBlocks numberedBlocks, CachedNumbering cachedNumbering,
+        NumberingStatistics statistics)
+    {
+        List<FigureBlock> figureBlocks = numberedBlocks.getFigureBlocks();
+        if (cachedNumbering.getInsertedBlockCount() != figureBlocks.size()) {
+            return false;
+        }
+        NumberingIndex index = cachedNumbering.getIndex();
+        int tableCount = 0;
+        for (int i = 0; i < figureBlocks.size(); i++) {
+            boolean isTable = index.isTable(i);
+            FigureCaptionBlock figureCaptionBlock = getFigureCaptionBlock(figureBlocks.get(i));
+            Block numberBlock = cachedNumbering.getInsertedBlock(i);
+            if (figureCaptionBlock != null && numberBlock != null) {
+                insertFigureCaptionNumber(figureCaptionBlock, numberBlock, isTable);
+            }
+            if (isTable) {
+                tableCount++;
+            }
+        }
+
+        statistics.setFigureCount(figureBlocks.size() - tableCount);
+        statistics.setTableCount(tableCount);
+
+        return true;
+    }
+
+    @Override
+    protected void afterNumbering(NumberedBlocks numberedBlocks, NumberingIndex index)
+    {
+        // Fill the lists of figures and tables from the figures collected and numbered in this pass, whatever the
+        // way their numbers have been obtained, so that the content doesn't have to be traversed again.
+        List<FigureBlock> figureBlocks = numberedBlocks.getFigureBlocks();
+        List<int[]> figureNumbers = index.getBlockNumbers();
+        for (FigureListBlock figureListBlock : numberedBlocks.getFigureListBlocks()) {
+            boolean isTable = figureListBlock.isTableList();
+            CaptionPrefixTemplate template = this.captionPrefixTemplates.getTemplate(getTranslationKey(isTable));
+            List<Block> itemBlocks = new ArrayList<>();
+            for (int i = 0; i < figureBlocks.size() && i < figureNumbers.size(); i++) {
+                if (numberedBlocks.isTable(i) == isTable) {
+                    itemBlocks.add(createFigureListItem(figureBlocks.get(i), figureNumbers.get(i), isTable, template,
+                        numberedBlocks));
+                }
+            }
+            figureListBlock.setChildren(Collections.singletonList(new BulletedListBlock(itemBlocks,
+                Collections.singletonMap(CLASS, isTable ? TABLE_LIST_CLASS_VALUE : FIGURE_LIST_CLASS_VALUE))));
+        }
+    }
+
+    private Block createFigureListItem(FigureBlock figureBlock, int[] number, boolean isTable,
+        CaptionPrefixTemplate template, NumberedBlocks numberedBlocks)
+    {
+        List<Block> label = renderPrefix(template, number);
+        List<Block> itemContent = new ArrayList<>();
+        // Link to the figure when it has an id.
+        List<IdBlock> idBlocks = numberedBlocks.getIdBlocks(figureBlock);
+        if (idBlocks.isEmpty()) {
+            itemContent.addAll(label);
+        } else {
+            DocumentResourceReference resourceReference = new DocumentResourceReference("");
+            resourceReference.setAnchor(idBlocks.get(0).getName());
+            itemContent.add(new LinkBlock(label, resourceReference, false));
+        }
+        FigureCaptionBlock figureCaptionBlock = getFigureCaptionBlock(figureBlock);
+        if (figureCaptionBlock != null) {
+            itemContent.add(NumberBlocks.getSpaceBlock());
+            itemContent.addAll(getCaptionContent(figureCaptionBlock, isTable, numberedBlocks));
+        }
+        return new ListItemBlock(itemContent);
+    }
+
+    private List<Block> getCaptionContent(FigureCaptionBlock figureCaptionBlock, boolean isTable,
+        NumberedBlocks numberedBlocks)
+    {
+        // Copy the caption without the inserted number and without the ids, which must stay unique in the page.
+        List<Block> content = new ArrayList<>();
+        for (Block childBlock : figureCaptionBlock.getChildren()) {
+            if (!(childBlock instanceof IdBlock) && !isGeneratedNumberBlock(childBlock, isTable)) {
+                Block copy = childBlock.clone();
+                for (Block idBlock : copy.getBlocks(new ClassBlockMatcher(IdBlock.class), Block.Axes.DESCENDANT)) {
+                    idBlock.getParent().removeBlock(idBlock);
+                }
+                // The numbered transformations have the same priority so they can be executed in any order. The
+                // references resolved by the transformations executed before this one are copied as links. The copied
+                // references that aren't resolved yet are resolved along with the collected ones, and the other
+                // transformations, executed after this one, collect the references located in the lists.
+                for (Block referenceBlock : copy.getBlocks(new ClassBlockMatcher(ReferenceBlock.class),
+                    Block.Axes.DESCENDANT_OR_SELF)) {
+                    numberedBlocks.getReferenceBlocks().add((ReferenceBlock) referenceBlock);
+                }
+                content.add(copy);
             }
+        }
+        return content;
+    }
 
-            // Update the FigureCaptionBlock (if any)
+    @Override
+    protected List<Block> getInsertedBlocks(NumberedBlocks numberedBlocks)
+    {
+        List<Block> insertedBlocks = new ArrayList<>(numberedBlocks.getFigureBlocks().size());
+        for (FigureBlock figureBlock : numberedBlocks.getFigureBlocks()) {
             FigureCaptionBlock figureCaptionBlock = getFigureCaptionBlock(figureBlock);
-            if (figureCaptionBlock != null) {
-                insertFigureCaptionNumber(figureCaptionBlock, number, isTable);
+            insertedBlocks.add(figureCaptionBlock != null ? figureCaptionBlock.getChildren().get(0) : null);
+        }
+        return insertedBlocks;
+    }
+
+    @Override
+    protected List<? extends Block> getNumberedBlocks(NumberedBlocks numberedBlocks)
+    {
+        return numberedBlocks.getFigureBlocks();
+    }
+
+    @Override
+    protected List<String> getIds(Block block, NumberedBlocks numberedBlocks)
+    {
+        List<String> ids = new ArrayList<>();
+        for (IdBlock idBlock : numberedBlocks.getIdBlocks(block)) {
+            ids.add(idBlock.getName());
+        }
+        return ids;
+    }
+
+    @Override
+    protected boolean isTable(NumberedBlocks numberedBlocks, int position)
+    {
+        return numberedBlocks.isTable(position);
+    }
+
+    @Override
+    protected int[] getInitialCounters()
+    {
+        // The figures and the tables are counted separately, after the number of their chapter if any.
+        return new int[getFigureChapterLevel() + 2];
+    }
+
+    @Override
+    protected int[] getSessionCounters(NumberingSession session, String documentId)
+    {
+        int[] counters = super.getSessionCounters(session, documentId);
+        int chapterLevel = counters.length - 2;
+        if (chapterLevel > 0) {
+            // The chapters continue the heading numbering of the session, whether the headings of the document have
+            // already been numbered or not.
+            int[] sectionCounters = session.getCounters(ReferenceType.SECTION, documentId, new int[0]);
+            int[] chapter = Arrays.copyOf(sectionCounters, chapterLevel);
+            if (sectionCounters.length > 0 && !Arrays.equals(chapter, Arrays.copyOf(counters, chapterLevel))) {
+                counters = Arrays.copyOf(chapter, chapterLevel + 2);
+            }
+        }
+        return counters;
+    }
+
+    @Override
+    protected boolean isNumberedPerSection()
+    {
+        return getFigureChapterLevel() > 0;
+    }
+
+    @Override
+    protected int[] nextCounters(NumberingState state, int[] counters, Block block, boolean isTable)
+    {
+        int chapterLevel = counters.length - 2;
+        int[] nextCounters = counters.clone();
+        if (chapterLevel > 0) {
+            int[] chapter = Arrays.copyOf(counters, chapterLevel);
+            int[] nextChapter = nextChapter(chapter, getPreviousHeaderBlocks((FigureBlock) block));
+            if (!Arrays.equals(nextChapter, chapter)) {
+                nextCounters = Arrays.copyOf(nextChapter, chapterLevel + 2);
             }
+        }
+        nextCounters[chapterLevel + (isTable ? 1 : 0)]++;
+        return nextCounters;
+    }
+
+    @Override
+    protected int[] getNumber(NumberingState state, int[] counters, Block block, boolean isTable)
+    {
+        int chapterLevel = counters.length - 2;
+        int[] number = Arrays.copyOf(counters, chapterLevel + 1);
+        number[chapterLevel] = counters[chapterLevel + (isTable ? 1 : 0)];
+        return number;
+    }
 
-            // Save in our cache the ids representing this figure by looking for all id macros defined inside the
-            // FigureBlock
-            List<Block> idBlocks = figureBlock.getBlocks(new ClassBlockMatcher(IdBlock.class), Block.Axes.DESCENDANT);
-            for (Block idBlock : idBlocks) {
-                figureNumbers.put(((IdBlock) idBlock).getName(), Arrays.asList(serializeNumber(number)));
+    @Override
+    protected void insertNumber(NumberingState state, Block block, int[] number, boolean isTable)
+    {
+        insertFigureCaptionNumber((FigureBlock) block, number, isTable, isClientSideNumbering());
+    }
+
+    @Override
+    protected Locale getLocale()
+    {
+        // The caption prefixes are localized.
+        return this.localizationContext.getCurrentLocale();
+    }
+
+    @Override
+    protected String getWiki()
+    {
+        // The translations of the caption prefixes can be defined per wiki.
+        return this.captionPrefixTemplates.getCurrentWiki();
+    }
+
+    private void insertFigureCaptionNumber(FigureBlock figureBlock, int[] number, boolean isTable,
+        boolean clientSide)
+    {
+        insertFigureCaptionNumber(figureBlock, number, isTable,
+            this.captionPrefixTemplates.getTemplate(getTranslationKey(isTable)), clientSide);
+    }
+
+    private void insertFigureCaptionNumber(FigureBlock figureBlock, int[] number, boolean isTable,
+        CaptionPrefixTemplate template, boolean clientSide)
+    {
+        FigureCaptionBlock figureCaptionBlock = getFigureCaptionBlock(figureBlock);
+        if (figureCaptionBlock != null) {
+            if (clientSide) {
+                // Only annotate the caption, the prefix being displayed by the client side numbering stylesheet.
+                figureCaptionBlock.setParameter(PREFIX_PARAMETER,
+                    template != null ? template.renderPlain(number) : StringUtils.join(number, '.'));
+            } else {
+                insertFigureCaptionNumber(figureCaptionBlock, formatNumber(renderPrefix(template, number), isTable),
+                    isTable);
             }
         }
+    }
 
-        // Replace the ReferenceBlock with links
-        replaceReferenceBlocks(block, figureNumbers);
+    private List<Block> renderPrefix(CaptionPrefixTemplate template, int[] number)
+    {
+        // The caption prefix translation can be missing (e.g. removed by a wiki administrator), in which case only the
+        // number is displayed.
+        Block prefixBlock = template != null ? template.render(number) : null;
+        return prefixBlock != null ? Collections.singletonList(prefixBlock) : serializeNumber(number);
     }
 
-    private void insertFigureCaptionNumber(FigureCaptionBlock figureCaptionBlock, int number, boolean isTable)
+    private void insertFigureCaptionNumber(FigureCaptionBlock figureCaptionBlock, Block numberBlock,
+        boolean isTable)
     {
         // If there's already a number inserted, replace it. This can have been done by a macro that has executed
         // transformations (such as the display macro or the context macro).
         Block firstBlock = figureCaptionBlock.getChildren().get(0);
         if (isGeneratedNumberBlock(firstBlock, isTable)) {
             // Replace the content of the Format Block
-            figureCaptionBlock.replaceChild(serializeAndFormatNumber(number, isTable), firstBlock);
+            figureCaptionBlock.replaceChild(numberBlock, firstBlock);
         } else {
-            figureCaptionBlock.insertChildBefore(serializeAndFormatNumber(number, isTable), firstBlock);
+            figureCaptionBlock.insertChildBefore(numberBlock, firstBlock);
         }
     }
 
@@ -149,24 +553,41 @@ public class NumberedFiguresTransformation extends AbstractNumberedTransformatio
         return generated;
     }
 
-    private Block serializeAndFormatNumber(int number, boolean isTable)
+    /**
+     * @param numberBlocks the localized figure or table number (e.g. "Figure 1:"), or only the number when the caption
+     *            prefix translation is missing
+     * @param isTable whether the figure is a table
+     * @return the block to insert at the beginning of the figure caption
+     */
+    static Block formatNumber(List<Block> numberBlocks, boolean isTable)
     {
-        String key = isTable ? TABLE_TRANSLATION_KEY : FIGURE_TRANSLATION_KEY;
-        Translation translation = this.localizationManager.getTranslation(key);
-        List<Block> blocks = new ArrayList<>();
-        blocks.add(translation.render(number));
-        blocks.add(new SpaceBlock());
+        List<Block> blocks = new ArrayList<>(numberBlocks);
+        blocks.add(NumberBlocks.getSpaceBlock());
         return new FormatBlock(blocks, Format.NONE, Collections.singletonMap(CLASS, getClassValue(isTable)));
     }
 
-    private String getClassValue(boolean isTable)
+    /**
+     * @param isTable whether the figure is a table
+     * @return the translation key of the figure or table caption prefix
+     */
+    static String getTranslationKey(boolean isTable)
+    {
+        return isTable ? TABLE_TRANSLATION_KEY : FIGURE_TRANSLATION_KEY;
+    }
+
+    private static String getClassValue(boolean isTable)
     {
         return isTable ? TABLE_CLASS_VALUE : FIGURE_CLASS_VALUE;
     }
 
-    private Block serializeNumber(int number)
+    @Override
+    protected List<Block> serializeNumber(int[] number)
     {
-        return new WordBlock(String.valueOf(number));
+        if (number.length > 1) {
+            // Figure number prefixed with its chapter number
+            return NumberedHeadingsTransformation.serializeSectionNumber(number, isCompactLabels());
+        }
+        return Collections.singletonList(NumberBlocks.getNumberBlock(number[0]));
     }
 
     private FigureCaptionBlock getFigureCaptionBlock(FigureBlock block)
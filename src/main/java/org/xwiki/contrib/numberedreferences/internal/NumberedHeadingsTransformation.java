@@ -21,28 +21,21 @@ package org.xwiki.contrib.numberedreferences.internal;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Stack;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.FormatBlock;
 import org.xwiki.rendering.block.HeaderBlock;
 import org.xwiki.rendering.block.IdBlock;
-import org.xwiki.rendering.block.SpaceBlock;
-import org.xwiki.rendering.block.SpecialSymbolBlock;
 import org.xwiki.rendering.block.WordBlock;
-import org.xwiki.rendering.block.match.BlockMatcher;
-import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.listener.Format;
-import org.xwiki.rendering.transformation.TransformationContext;
-import org.xwiki.rendering.transformation.TransformationException;
+import org.xwiki.rendering.listener.HeaderLevel;
 
 /**
  * Find all headings, create numbers (and support nested numbering with the dot notation, e.g. {@code 1.1.1.1}) for
@@ -52,87 +45,272 @@ import org.xwiki.rendering.transformation.TransformationException;
  * @since 1.0
  */
 @Component
-@Named("numberedheadings")
+@Named(NumberedHeadingsTransformation.HINT)
 @Singleton
 public class NumberedHeadingsTransformation extends AbstractNumberedTransformation
 {
+    /**
+     * The hint of this transformation.
+     *
+     * @since 1.5
+     */
+    public static final String HINT = "numberedheadings";
+
     private static final String CLASS = "class";
 
     private static final String CLASS_VALUE = "wikigeneratedheadingnumber";
 
-    private static final BlockMatcher HEADINGBLOCK_MATCHER = new ClassBlockMatcher(HeaderBlock.class);
+    private static final String NUMBER_PARAMETER = "data-xwiki-heading-number";
+
+    private static final char DOT = '.';
+
+    /**
+     * How the heading numbers are output.
+     */
+    private enum NumberOutput
+    {
+        /**
+         * One word per number level, separated by dot symbols, inserted in front of the heading label.
+         */
+        BLOCKS,
+
+        /**
+         * A single word inserted in front of the heading label.
+         */
+        COMPACT,
+
+        /**
+         * The header is only annotated with its number, displayed by the client.
+         */
+        CLIENT_SIDE
+    }
+
+    @Override
+    protected String getHint()
+    {
+        return HINT;
+    }
 
-    private static final SpecialSymbolBlock DOT_BLOCK = new SpecialSymbolBlock('.');
+    @Override
+    protected ReferenceType getReferenceType()
+    {
+        return ReferenceType.SECTION;
+    }
 
     @Override
-    public void transform(Block block, TransformationContext context) throws TransformationException
+    protected int[] number(NumberedBlocks numberedBlocks, NumberingIndex index, int[] counters,
+        NumberingStatistics statistics)
     {
         // Algorithm:
-        // - Find all HeaderBlock (except those in protected data such as inside code macro)
-        // - For each HeaderBlock, compute the heading number and cache it for later use for resolving the
-        //   ReferenceBlock (generated by the Reference Macro). Then update the HeaderBlock children content by
-        //   adding the number in front of the heading text.
-        // - Also find all the IdBlock blocks inside HeaderBlock children and associate the ids with the numbers, so
+        // - For each HeaderBlock (except those in protected data such as inside code macro), compute the heading
+        //   number and record it in the index for later use for resolving the ReferenceBlock (generated by the
+        //   Reference Macro). Then update the HeaderBlock children content by adding the number in front of the
+        //   heading text.
+        // - Also associate the ids of the IdBlock blocks found inside HeaderBlock children with the numbers, so
         //   that the Reference Macro can use not only the generated header id but also any id contributed by the id
         //   macro.
-        // - Find all the ReferenceBlock blocks and replace them with LinkBlock bocks to create links to numbered
-        //   sections, using the number as the link label.
-
-        Map<String, List<Block>> headingNumbers = new HashMap<>();
-        Stack<Integer> number = new Stack<>();
-        List<HeaderBlock> headerBlocks = block.getBlocks(HEADINGBLOCK_MATCHER, Block.Axes.DESCENDANT);
-        for (HeaderBlock headerBlock : headerBlocks) {
+        // Note that the headers, ids and references are all collected by the NumberingEngine in a single traversal
+        // and that the ReferenceBlock blocks are then replaced with links to the numbered sections, using the number
+        // as the link label.
 
-            if (headerBlock.getChildren().isEmpty() || isInsProtectedBlock(headerBlock)) {
-                continue;
-            }
-
-            // Step 1: Update the number stack to compute the new number
-            int currentHeaderLevel = headerBlock.getLevel().getAsInt();
-            if (number.size() < currentHeaderLevel) {
-                int size = number.size();
-                for (int i = 0; i < currentHeaderLevel - size; i++) {
-                    number.push(1);
-                }
-            } else if (number.size() == currentHeaderLevel) {
-                number.push(number.pop() + 1);
-            } else {
-                int size = number.size();
-                for (int i = 0; i < size - currentHeaderLevel; i++) {
-                    number.pop();
-                }
-                number.push(number.pop() + 1);
-            }
+        // Steps 1 and 2 only depend on the number of the previous header so they're executed in parallel for each top
+        // level section of large documents.
+        List<HeaderBlock> headerBlocks = numberedBlocks.getHeaderBlocks();
+        int[][] headerNumbers = new int[headerBlocks.size()][];
+        NumberOutput output = getNumberOutput();
+        if (isParallel(numberedBlocks)) {
+            numberInParallel(headerBlocks, headerNumbers, counters, output);
+        } else {
+            number(headerBlocks, 0, headerBlocks.size(), new HeadingCounter(counters), headerNumbers, output);
+        }
 
-            // Step 2: Insert the number in the header
-            insertHeaderNumber(headerBlock, number);
+        for (int i = 0; i < headerBlocks.size(); i++) {
+            HeaderBlock headerBlock = headerBlocks.get(i);
+            int[] headerNumber = headerNumbers[i];
+            index.addBlockNumber(headerNumber, false);
 
-            // Step 3: Save in our cache the ids representing this section. We save the following keys in the cache:
+            // Step 3: Save in the index the ids representing this section:
             // - the header block id
             // - all the IdBlock found as children Blocks of the header block
+            // We only save the number itself since the label blocks are only needed for the referenced ids.
             if (headerBlock.getId() != null) {
-                headingNumbers.put(headerBlock.getId(), serializeNumber(number));
+                index.put(ReferenceType.SECTION, headerBlock.getId(), headerNumber);
+            }
+            for (IdBlock idBlock : numberedBlocks.getIdBlocks(headerBlock)) {
+                index.put(ReferenceType.SECTION, idBlock.getName(), headerNumber);
             }
-            List<Block> idBlocks = headerBlock.getBlocks(new ClassBlockMatcher(IdBlock.class), Block.Axes.DESCENDANT);
-            for (Block idBlock : idBlocks) {
-                headingNumbers.put(((IdBlock) idBlock).getName(), serializeNumber(number));
+        }
+
+        statistics.setHeaderCount(numberedBlocks.getHeaderBlocks().size());
+
+        // The counters are the number of the last header.
+        return headerNumbers.length > 0 ? headerNumbers[headerNumbers.length - 1] : counters;
+    }
+
+    private void number(List<HeaderBlock> headerBlocks, int start, int end, HeadingCounter number,
+        int[][] headerNumbers, NumberOutput output)
+    {
+        for (int i = start; i < end; i++) {
+            HeaderBlock headerBlock = headerBlocks.get(i);
+
+            // Step 1: Update the counter to compute the new number
+            number.next(headerBlock.getLevel());
+            headerNumbers[i] = number.toArray();
+
+            // Step 2: Insert the number in the header
+            insertHeaderNumber(headerBlock, headerNumbers[i], output);
+        }
+    }
+
+    private void numberInParallel(List<HeaderBlock> headerBlocks, int[][] headerNumbers, int[] counters,
+        NumberOutput output)
+    {
+        // First pass: find the level 1 headers, which start the top level sections, and the first level of the number
+        // before each of them, which is all the next level 1 number depends on. The headers located before the first
+        // level 1 header form a section too.
+        List<Integer> sectionStarts = new ArrayList<>();
+        List<int[]> sectionNumbers = new ArrayList<>();
+        sectionStarts.add(0);
+        sectionNumbers.add(counters);
+        int topNumber = counters.length > 0 ? counters[0] : 0;
+        for (int i = 0; i < headerBlocks.size(); i++) {
+            if (headerBlocks.get(i).getLevel() == HeaderLevel.LEVEL1) {
+                if (i > 0) {
+                    sectionStarts.add(i);
+                    sectionNumbers.add(topNumber > 0 ? new int[] { topNumber } : new int[0]);
+                }
+                topNumber++;
+            } else if (topNumber == 0) {
+                // Missing levels start at 1
+                topNumber = 1;
             }
         }
+        sectionStarts.add(headerBlocks.size());
+
+        // Then number each section in parallel, starting from the number before it.
+        forEachInParallel(sectionNumbers.size(),
+            section -> number(headerBlocks, sectionStarts.get(section), sectionStarts.get(section + 1),
+                new HeadingCounter(sectionNumbers.get(section)), headerNumbers, output));
+    }
+
+    @Override
+    protected boolean apply(NumberedBlocks numberedBlocks, NumberingIndex index, NumberingStatistics statistics)
+    {
+        // The index has been computed for the same content so it has a number for each header, in document order.
+        List<HeaderBlock> headerBlocks = numberedBlocks.getHeaderBlocks();
+        List<int[]> headerNumbers = index.getBlockNumbers();
+        if (headerNumbers.size() != headerBlocks.size()) {
+            return false;
+        }
+        NumberOutput output = getNumberOutput();
+        for (int i = 0; i < headerBlocks.size(); i++) {
+            insertHeaderNumber(headerBlocks.get(i), headerNumbers.get(i), output);
+        }
+
+        statistics.setHeaderCount(headerBlocks.size());
+
+        return true;
+    }
+
+    @Override
+    protected boolean replay(NumberedBlocks numberedBlocks, CachedNumbering cachedNumbering,
+        NumberingStatistics statistics)
+    {
+        List<HeaderBlock> headerBlocks = numberedBlocks.getHeaderBlocks();
+        if (cachedNumbering.getInsertedBlockCount() != headerBlocks.size()) {
+            return false;
+        }
+        for (int i = 0; i < headerBlocks.size(); i++) {
+            insertHeaderNumber(headerBlocks.get(i), cachedNumbering.getInsertedBlock(i));
+        }
+
+        statistics.setHeaderCount(headerBlocks.size());
+
+        return true;
+    }
+
+    @Override
+    protected List<Block> getInsertedBlocks(NumberedBlocks numberedBlocks)
+    {
+        List<Block> insertedBlocks = new ArrayList<>(numberedBlocks.getHeaderBlocks().size());
+        for (HeaderBlock headerBlock : numberedBlocks.getHeaderBlocks()) {
+            insertedBlocks.add(headerBlock.getChildren().get(0));
+        }
+        return insertedBlocks;
+    }
+
+    @Override
+    protected List<? extends Block> getNumberedBlocks(NumberedBlocks numberedBlocks)
+    {
+        return numberedBlocks.getHeaderBlocks();
+    }
+
+    @Override
+    protected List<String> getIds(Block block, NumberedBlocks numberedBlocks)
+    {
+        HeaderBlock headerBlock = (HeaderBlock) block;
+        List<String> ids = new ArrayList<>();
+        if (headerBlock.getId() != null) {
+            ids.add(headerBlock.getId());
+        }
+        for (IdBlock idBlock : numberedBlocks.getIdBlocks(headerBlock)) {
+            ids.add(idBlock.getName());
+        }
+        return ids;
+    }
+
+    @Override
+    protected int[] getInitialCounters()
+    {
+        return new int[0];
+    }
+
+    @Override
+    protected int[] nextCounters(NumberingState state, int[] counters, Block block, boolean isTable)
+    {
+        // The counters are the heading number.
+        HeadingCounter number = new HeadingCounter(counters);
+        number.next(((HeaderBlock) block).getLevel());
+        return number.toArray();
+    }
+
+    @Override
+    protected void insertNumber(NumberingState state, Block block, int[] number, boolean isTable)
+    {
+        insertHeaderNumber((HeaderBlock) block, number, getNumberOutput());
+    }
+
+    private NumberOutput getNumberOutput()
+    {
+        NumberOutput output = NumberOutput.BLOCKS;
+        if (isClientSideNumbering()) {
+            output = NumberOutput.CLIENT_SIDE;
+        } else if (isCompactLabels()) {
+            output = NumberOutput.COMPACT;
+        }
+        return output;
+    }
 
-        // Step 4: Replace the ReferenceBlock with links
-        replaceReferenceBlocks(block, headingNumbers);
+    private void insertHeaderNumber(HeaderBlock headerBlock, int[] number, NumberOutput output)
+    {
+        if (output == NumberOutput.CLIENT_SIDE) {
+            // Only annotate the header, the number being displayed by the client side numbering stylesheet.
+            headerBlock.setParameter(NUMBER_PARAMETER, StringUtils.join(number, DOT));
+        } else {
+            insertHeaderNumber(headerBlock, serializeAndFormatNumber(number, output == NumberOutput.COMPACT));
+        }
     }
 
-    private void insertHeaderNumber(HeaderBlock headerBlock, Stack<Integer> number)
+    private void insertHeaderNumber(HeaderBlock headerBlock, Block numberBlock)
     {
         // If there's already a number inserted, replace it. This can have been done by a macro that has executed
         // transformations (such as the display macro or the context macro).
         Block firstBlock = headerBlock.getChildren().get(0);
         if (isGeneratedNumberBlock(firstBlock)) {
             // Replace the content of the Format Block
-            headerBlock.replaceChild(serializeAndFormatNumber(number), firstBlock);
+            headerBlock.replaceChild(numberBlock, firstBlock);
         } else {
-            headerBlock.insertChildBefore(serializeAndFormatNumber(number), firstBlock);
+            headerBlock.insertChildBefore(numberBlock, firstBlock);
         }
     }
 
@@ -148,24 +326,46 @@ public class NumberedHeadingsTransformation extends AbstractNumberedTransformati
         return generated;
     }
 
-    private List<Block> serializeNumber(Stack<Integer> number)
+    @Override
+    protected List<Block> serializeNumber(int[] number)
+    {
+        return serializeSectionNumber(number, isCompactLabels());
+    }
+
+    /**
+     * @param number the section number to serialize
+     * @param compact {@code true} to serialize the number as a single word, {@code false} to use one word per number
+     *            level
+     * @return the blocks representing the passed section number using the dot notation
+     */
+    static List<Block> serializeSectionNumber(int[] number, boolean compact)
     {
-        List<Block> valueBlocks = new ArrayList<>();
-        Iterator<Integer> iterator = number.iterator();
-        while (iterator.hasNext()) {
-            valueBlocks.add(new WordBlock(String.valueOf(iterator.next())));
-            if (iterator.hasNext()) {
-                valueBlocks.add(DOT_BLOCK);
+        if (compact) {
+            // The list is modifiable since a space is appended to the numbers inserted in the headings.
+            List<Block> valueBlocks = new ArrayList<>(2);
+            valueBlocks.add(new WordBlock(StringUtils.join(number, DOT)));
+            return valueBlocks;
+        }
+
+        List<Block> valueBlocks = new ArrayList<>(2 * number.length + 1);
+        for (int i = 0; i < number.length; i++) {
+            if (i > 0) {
+                valueBlocks.add(NumberBlocks.getDotBlock());
             }
+            valueBlocks.add(NumberBlocks.getNumberBlock(number[i]));
         }
         return valueBlocks;
     }
 
-    private Block serializeAndFormatNumber(Stack<Integer> number)
+    /**
+     * @param number the heading number
+     * @param compact {@code true} to serialize the number as a single word
+     * @return the block to insert in front of the heading label
+     */
+    static Block serializeAndFormatNumber(int[] number, boolean compact)
     {
-        List<Block> blocks = new ArrayList<>();
-        blocks.addAll(serializeNumber(number));
-        blocks.add(new SpaceBlock());
+        List<Block> blocks = serializeSectionNumber(number, compact);
+        blocks.add(NumberBlocks.getSpaceBlock());
         return new FormatBlock(blocks, Format.NONE, Collections.singletonMap(CLASS, CLASS_VALUE));
     }
 }
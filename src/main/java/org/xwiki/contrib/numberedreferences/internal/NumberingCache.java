@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+/**
+ * Bounded, least recently used, cache of the numbering results, keyed by reference type, content hash (see
+ * {@link NumberingEngine#collect(org.xwiki.rendering.block.Block)}), wiki and locale (the inserted blocks can be
+ * localized with the translations of the current wiki), so that identical content rendered
+ * again (typically hot documents) is numbered by copying the cached blocks, without recounting nor calling the
+ * localization. A hit still costs a traversal of the content, to compute its hash and locate the numbered blocks,
+ * and a copy of each cached block inserted in them, since the inserted blocks end up in the rendered XDOM. The hit,
+ * miss and eviction counters are exposed through JMX.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingCache.class)
+@Singleton
+public class NumberingCache implements NumberingCacheMBean, Initializable
+{
+    private static final int DEFAULT_CAPACITY = 1000;
+
+    private static final char KEY_SEPARATOR = ':';
+
+    @Inject
+    private NumberingMetrics numberingMetrics;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    private volatile int capacity = DEFAULT_CAPACITY;
+
+    private final Map<String, CachedNumbering> entries = new LinkedHashMap<String, CachedNumbering>(16, 0.75F, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedNumbering> eldest)
+        {
+            boolean evict = size() > NumberingCache.this.capacity;
+            if (evict) {
+                NumberingCache.this.evictionCount.increment();
+            }
+            return evict;
+        }
+    };
+
+    @Override
+    public void initialize()
+    {
+        this.numberingMetrics.registerMBean("NumberingCache", this);
+    }
+
+    /**
+     * @param type the type of the numbered blocks
+     * @param contentHash the hash of the numbered content
+     * @param wiki the wiki whose translations are used for the numbering, {@code null} if it doesn't depend on the
+     *            wiki
+     * @param locale the locale used for the numbering, {@code null} if it doesn't depend on the locale
+     * @return the cached numbering, or {@code null} if there's none
+     */
+    public CachedNumbering get(ReferenceType type, long contentHash, String wiki, Locale locale)
+    {
+        CachedNumbering cachedNumbering;
+        synchronized (this.entries) {
+            cachedNumbering = this.entries.get(getKey(type, contentHash, wiki, locale));
+        }
+        if (cachedNumbering != null) {
+            this.hitCount.increment();
+        } else {
+            this.missCount.increment();
+        }
+        return cachedNumbering;
+    }
+
+    /**
+     * @param type the type of the numbered blocks
+     * @param contentHash the hash of the numbered content
+     * @param wiki the wiki whose translations are used for the numbering, {@code null} if it doesn't depend on the
+     *            wiki
+     * @param locale the locale used for the numbering, {@code null} if it doesn't depend on the locale
+     * @param cachedNumbering the numbering to cache
+     */
+    public void put(ReferenceType type, long contentHash, String wiki, Locale locale, CachedNumbering cachedNumbering)
+    {
+        synchronized (this.entries) {
+            this.entries.put(getKey(type, contentHash, wiki, locale), cachedNumbering);
+        }
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return this.hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return this.missCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        return this.evictionCount.sum();
+    }
+
+    @Override
+    public int getSize()
+    {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    @Override
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    @Override
+    public void setCapacity(int capacity)
+    {
+        synchronized (this.entries) {
+            this.capacity = capacity;
+            // Evict the least recently used entries that don't fit anymore.
+            Iterator<String> iterator = this.entries.keySet().iterator();
+            while (this.entries.size() > capacity && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                this.evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Forget the cached numberings, because the blocks they insert may have changed (e.g. the translations of the
+     * caption prefixes), without resetting the counters.
+     */
+    public void invalidate()
+    {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+        this.hitCount.reset();
+        this.missCount.reset();
+        this.evictionCount.reset();
+    }
+
+    private String getKey(ReferenceType type, long contentHash, String wiki, Locale locale)
+    {
+        return type.name() + KEY_SEPARATOR + Long.toHexString(contentHash) + KEY_SEPARATOR + wiki + KEY_SEPARATOR
+            + locale;
+    }
+}
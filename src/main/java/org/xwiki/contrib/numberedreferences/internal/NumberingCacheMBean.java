@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+/**
+ * JMX interface of the {@link NumberingCache}.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public interface NumberingCacheMBean
+{
+    /**
+     * @return the number of lookups that found a cached numbering
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that didn't find a cached numbering
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of cached numberings removed to make room for new ones
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of cached numberings
+     */
+    int getSize();
+
+    /**
+     * @return the maximum number of cached numberings
+     */
+    int getCapacity();
+
+    /**
+     * @param capacity the maximum number of cached numberings
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * Remove all the cached numberings and reset the counters.
+     */
+    void clear();
+}
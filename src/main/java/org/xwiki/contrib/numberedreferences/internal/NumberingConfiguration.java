@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * The configuration of the numbered transformations, read from the {@code xwiki.properties} file when it's available
+ * (properties prefixed with {@code numberedreferences.}).
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingConfiguration.class)
+@Singleton
+public class NumberingConfiguration
+{
+    private static final String PREFIX = "numberedreferences.";
+
+    private static final String CONFIGURATION_SOURCE_HINT = "xwikiproperties";
+
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
+
+    private static final int DEFAULT_INDEX_CACHE_CAPACITY = 1000;
+
+    private static final int DEFAULT_MAX_HELD_EVENTS = 100000;
+
+    @Inject
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @return the number of blocks of the transformed content above which the numbered blocks are numbered in
+     *         parallel, 0 or less to never number in parallel
+     */
+    public int getParallelThreshold()
+    {
+        return getProperty("parallelThreshold", DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @return {@code true} if the numbered blocks are only annotated with their number (the
+     *         {@code data-xwiki-heading-number} parameter of the headers and the {@code data-xwiki-caption-prefix}
+     *         parameter of the figure captions) and the numbers are displayed by the client using the
+     *         {@code numberedreferences/numbering.css} stylesheet (included through the skin), {@code false} (the
+     *         default) if the numbers are inserted in the content; the numbers are always inserted when the output
+     *         syntax isn't HTML
+     */
+    public boolean isClientSideNumbering()
+    {
+        return getProperty("clientSideNumbering", Boolean.FALSE);
+    }
+
+    /**
+     * @return {@code true} if the heading numbers are output as a single word (e.g. {@code 1.2.3}) instead of one word
+     *         per number level separated by dot symbols, which reduces the number of blocks inserted in the headings
+     *         and in the reference labels, {@code false} (the default) otherwise
+     */
+    public boolean isCompactLabels()
+    {
+        return getProperty("compactLabels", Boolean.FALSE);
+    }
+
+    /**
+     * @return the maximum number of events held back by the streaming {@link NumberingListener} because of forward
+     *         references, after which the pending references are left unresolved so that the memory used stays
+     *         bounded
+     */
+    public int getMaxHeldEvents()
+    {
+        return getProperty("maxHeldEvents", DEFAULT_MAX_HELD_EVENTS);
+    }
+
+    /**
+     * @return the maximum number of document numbering indexes kept in memory (see {@link NumberingIndexManager}),
+     *         the other ones being loaded from the {@link NumberingIndexStore} when needed
+     */
+    public int getIndexCacheCapacity()
+    {
+        return getProperty("indexCacheCapacity", DEFAULT_INDEX_CACHE_CAPACITY);
+    }
+
+    /**
+     * @return the heading level up to which the figure and table numbers are prefixed with the number of their
+     *         enclosing section (e.g. 1 for {@code Figure 3.7}, the 7th figure of the 3rd chapter), the figures and
+     *         tables being counted again from 1 in each section of that level, 0 (the default) to number the figures
+     *         and tables continuously across the document
+     */
+    public int getFigureChapterLevel()
+    {
+        return getProperty("figureChapterLevel", 0);
+    }
+
+    private <T> T getProperty(String key, T defaultValue)
+    {
+        T value = null;
+        ConfigurationSource configurationSource = getConfigurationSource();
+        if (configurationSource != null) {
+            value = configurationSource.getProperty(PREFIX + key, defaultValue);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    private ConfigurationSource getConfigurationSource()
+    {
+        // The xwiki.properties configuration source is not available outside of XWiki (e.g. in the rendering
+        // standalone), in which case the default values are used.
+        ConfigurationSource configurationSource = null;
+        ComponentManager componentManager = this.componentManagerProvider.get();
+        if (componentManager.hasComponent(ConfigurationSource.class, CONFIGURATION_SOURCE_HINT)) {
+            try {
+                configurationSource =
+                    componentManager.getInstance(ConfigurationSource.class, CONFIGURATION_SOURCE_HINT);
+            } catch (ComponentLookupException e) {
+                this.logger.debug("Failed to get the xwiki.properties configuration source: {}", e.getMessage());
+            }
+        }
+        return configurationSource;
+    }
+}
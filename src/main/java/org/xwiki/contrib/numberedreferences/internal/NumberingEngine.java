@@ -0,0 +1,417 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FigureBlock;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.IdBlock;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+
+/**
+ * Shared engine for the numbered transformations. Collects all the headings, figures, entities (the blocks matched by
+ * the registered {@link NumberedEntityKind}s), ids and references in a single depth-first traversal of the XDOM so
+ * that the transformations don't each have to walk the whole tree several times, and replaces the resolved
+ * references with links.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingEngine.class)
+@Singleton
+public class NumberingEngine
+{
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    @Inject
+    private NumberingIndexManager numberingIndexManager;
+
+    @Inject
+    private NumberedEntityKinds numberedEntityKinds;
+
+    /**
+     * Collect the blocks to number. Macros such as the include, display or context macros execute the transformations
+     * on their content before it's inserted in the including XDOM, which is then transformed too, so the same blocks
+     * can be collected several times during a render. They're not remembered between the traversals since the content
+     * may have been modified in between, at any depth, and checking that it hasn't would cost as much as collecting
+     * it again.
+     * <p>
+     * A hash of the content that matters for the numbering (the structure of the XDOM, the block parameters, the
+     * header levels and ids, the id names and the macro ids) is computed during the same traversal so that the
+     * numbering can be reused for identical content. The figures are also classified (as tables or not) from the
+     * children visited by the same traversal (see {@link FigureContent}).
+     *
+     * @param block the block to traverse (not included in the traversal)
+     * @return the blocks to number and the references to resolve, found among the descendants of the passed block
+     */
+    public NumberedBlocks collect(Block block)
+    {
+        return collect(block, this.numberedEntityKinds.getKinds());
+    }
+
+    /**
+     * Collect the blocks to number (see {@link #collect(Block)}), matching the entities against kinds that have
+     * already been looked up.
+     *
+     * @param block the block to traverse (not included in the traversal)
+     * @param kinds the registered kinds of entity
+     * @return the blocks to number and the references to resolve, found among the descendants of the passed block
+     */
+    public NumberedBlocks collect(Block block, List<NumberedEntityKind> kinds)
+    {
+        NumberedBlocks numberedBlocks = new NumberedBlocks();
+        numberedBlocks.setKinds(kinds);
+        // The passed block can be located inside protected content (e.g. when a macro executes the transformations on
+        // its content). This is the only place where we look at the ancestors since protected subtrees are then
+        // pruned during the traversal.
+        if (!isInsProtectedBlock(block)) {
+            long contentHash = 0;
+            for (Block childBlock : block.getChildren()) {
+                contentHash = combineHash(contentHash,
+                    collect(childBlock, null, null, null, null, numberedBlocks, kinds));
+            }
+            numberedBlocks.setContentHash(contentHash);
+        }
+        return numberedBlocks;
+    }
+
+    /**
+     * Collect the blocks to number located in an edited subtree, without reusing the blocks collected by previous
+     * traversals. The references are always collected.
+     *
+     * @param block the block to traverse (included in the traversal)
+     * @param kinds the registered kinds of entity
+     * @return the blocks to number and the references to resolve, found in the passed block subtree
+     */
+    public NumberedBlocks collectSubtree(Block block, List<NumberedEntityKind> kinds)
+    {
+        NumberedBlocks numberedBlocks = new NumberedBlocks();
+        numberedBlocks.setKinds(kinds);
+        if (!isInsProtectedBlock(block)) {
+            numberedBlocks.setContentHash(collect(block, null, null, null, null, numberedBlocks, kinds));
+        }
+        return numberedBlocks;
+    }
+
+    /**
+     * Replace the {@link ReferenceBlock} blocks of the passed type (or without type) located in the passed block with
+     * a {@link LinkBlock}, if we can find a matching number. Otherwise don't do anything since another transformation
+     * might be a match. The link labels are only created for the references that are resolved.
+     *
+     * @param block the transformed block
+     * @param numberedBlocks the blocks collected from the transformed block
+     * @param type the type of references to resolve
+     * @param numbers the numbers, indexed by id
+     * @param serializer the function creating the link label blocks from a number
+     * @param statistics the statistics in which to count the resolved and unresolved references
+     */
+    public void replaceReferenceBlocks(Block block, NumberedBlocks numberedBlocks, ReferenceType type,
+        Map<String, int[]> numbers, Function<int[], List<Block>> serializer, NumberingStatistics statistics)
+    {
+        replaceReferenceBlocks(block, numberedBlocks, type, numbers, serializer, statistics, null);
+    }
+
+    /**
+     * Same as {@link #replaceReferenceBlocks(Block, NumberedBlocks, ReferenceType, Map, Function,
+     * NumberingStatistics)} but also records the references in the passed numbering state, so that they can be
+     * updated when the block is renumbered.
+     *
+     * @param block the transformed block
+     * @param numberedBlocks the blocks collected from the transformed block
+     * @param type the type of references to resolve
+     * @param numbers the numbers, indexed by id
+     * @param serializer the function creating the link label blocks from a number
+     * @param statistics the statistics in which to count the resolved and unresolved references
+     * @param state the numbering state in which to record the references, {@code null} if there's none
+     */
+    public void replaceReferenceBlocks(Block block, NumberedBlocks numberedBlocks, ReferenceType type,
+        Map<String, int[]> numbers, Function<int[], List<Block>> serializer, NumberingStatistics statistics,
+        NumberingState state)
+    {
+        Object event = NumberingEvents.beginReferenceResolution();
+        int resolvedReferenceCount = statistics.getResolvedReferenceCount();
+        int unresolvedReferenceCount = statistics.getUnresolvedReferenceCount();
+
+        // The references have been collected with the other blocks, so there's nothing to do when there are none.
+        ReferenceBlocks referenceBlocks = numberedBlocks.getReferenceBlocks();
+        if (!referenceBlocks.isEmpty()) {
+            for (ReferenceType referenceType : Arrays.asList(type, null)) {
+                for (ReferenceBlock referenceBlock : referenceBlocks.get(referenceType)) {
+                    if (isAttached(referenceBlock)) {
+                        resolve(referenceBlock, type, numbers, serializer, statistics, state);
+                    }
+                }
+            }
+        }
+
+        NumberingEvents.commitReferenceResolution(event, type,
+            statistics.getResolvedReferenceCount() - resolvedReferenceCount,
+            statistics.getUnresolvedReferenceCount() - unresolvedReferenceCount);
+    }
+
+    /**
+     * Replace the content of the block containing a reference with a link to the passed id.
+     *
+     * @param ownerBlock the block containing the reference (or the link replacing it)
+     * @param id the referenced id
+     * @param label the link label
+     */
+    public void link(Block ownerBlock, String id, List<Block> label)
+    {
+        link(ownerBlock, null, id, label);
+    }
+
+    private void link(Block ownerBlock, String documentId, String id, List<Block> label)
+    {
+        DocumentResourceReference resourceReference =
+            new DocumentResourceReference(documentId != null ? documentId : "");
+        resourceReference.setAnchor(id);
+        LinkBlock linkBlock = new LinkBlock(label, resourceReference, false);
+        ownerBlock.setChildren(Arrays.asList(linkBlock));
+    }
+
+    private void resolve(ReferenceBlock referenceBlock, ReferenceType type, Map<String, int[]> numbers,
+        Function<int[], List<Block>> serializer, NumberingStatistics statistics, NumberingState state)
+    {
+        Block ownerBlock = referenceBlock.getParent();
+        String documentId = referenceBlock.getDocumentId();
+        String id = referenceBlock.getId();
+        int[] number;
+        boolean unknownNumber = false;
+        if (documentId != null) {
+            // The number of a block located in another document is taken from the last index computed for that
+            // document, so that it doesn't have to be loaded and transformed.
+            NumberingIndex index = this.numberingIndexManager.getIndex(documentId, type);
+            number = index != null ? index.get(type, id) : null;
+            // When the document has never been numbered (e.g. not viewed since the extension was installed), the
+            // reference is displayed as an unknown number rather than as an empty label.
+            unknownNumber = index == null && (referenceBlock.getType() != null || !isIndexed(documentId));
+        } else {
+            number = numbers.get(id);
+        }
+        boolean resolved = false;
+        if (number != null) {
+            // Add the LinkBlock
+            link(ownerBlock, documentId, id, serializer.apply(number));
+            statistics.incrementResolvedReferenceCount();
+            resolved = true;
+        } else if (referenceBlock.getType() != null || (unknownNumber && !referenceBlock.isUnknownNumber())) {
+            // References without type may be resolved by another transformation, unless their document has never
+            // been numbered, in which case they're only counted by the first transformation.
+            statistics.incrementUnresolvedReferenceCount();
+        }
+        if (unknownNumber) {
+            referenceBlock.setUnknownNumber(true);
+        }
+        // The references to other documents don't depend on the numbering of the current document.
+        if (state != null && documentId == null) {
+            state.addReference(referenceBlock, ownerBlock, resolved);
+        }
+    }
+
+    private boolean isIndexed(String documentId)
+    {
+        for (ReferenceType type : ReferenceType.values()) {
+            if (this.numberingIndexManager.getIndex(documentId, type) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the hash of the passed block subtree
+     */
+    private long collect(Block block, Block currentHeaderBlock, Block currentFigureBlock, Block currentEntityBlock,
+        FigureContent currentFigureContent, NumberedBlocks numberedBlocks, List<NumberedEntityKind> kinds)
+    {
+        long contentHash = hash(block);
+        boolean isProtected = isProtectedBlock(block);
+
+        // The blocks located at the top level of a figure are classified with the same rule as the streaming listener.
+        FigureContent figureContent = null;
+        if (currentFigureContent != null) {
+            if (!isProtected && FigureContent.isTransparent(block)) {
+                figureContent = currentFigureContent;
+            } else {
+                currentFigureContent.add(block);
+            }
+        }
+
+        // Don't number anything (and don't resolve any reference) inside protected content such as the code macro
+        if (isProtected) {
+            return contentHash;
+        }
+
+        numberedBlocks.incrementBlockCount();
+        Block headerBlock = currentHeaderBlock;
+        Block figureBlock = currentFigureBlock;
+        Block entityBlock = currentEntityBlock;
+        int figurePosition = -1;
+        // The kinds are matched first so that they can number some headers or figures (e.g. the figures holding a code
+        // listing) instead of the headings and figures transformations. The blocks handled by the engine itself are
+        // never matched.
+        NumberedEntityKind kind = block instanceof IdBlock || block instanceof ReferenceBlock
+            || block instanceof FigureListBlock ? null : NumberedEntityKinds.getKind(block, kinds);
+        if (kind != null) {
+            numberedBlocks.addEntityBlock(block, kind);
+            entityBlock = block;
+        } else if (block instanceof HeaderBlock) {
+            if (!block.getChildren().isEmpty()) {
+                numberedBlocks.addHeaderBlock((HeaderBlock) block);
+                headerBlock = block;
+            }
+        } else if (block instanceof FigureBlock) {
+            if (!block.getChildren().isEmpty()) {
+                figurePosition = numberedBlocks.getFigureBlocks().size();
+                numberedBlocks.addFigureBlock((FigureBlock) block);
+                figureBlock = block;
+                figureContent = new FigureContent();
+            }
+        } else if (block instanceof IdBlock) {
+            // Associate the id with the closest enclosing numbered header, figure and entity so that the Reference
+            // Macro can use ids contributed by the id macro.
+            for (Block ownerBlock : Arrays.asList(headerBlock, figureBlock, entityBlock)) {
+                if (ownerBlock != null) {
+                    numberedBlocks.addIdBlock(ownerBlock, (IdBlock) block);
+                }
+            }
+        } else if (block instanceof ReferenceBlock) {
+            // The references are collected wherever they come from (the Reference Macro, a copy or code building the
+            // XDOM), so that they're all resolved.
+            numberedBlocks.getReferenceBlocks().add((ReferenceBlock) block);
+        } else if (block instanceof FigureListBlock) {
+            // The content of the list is generated from the figures so there's nothing to number inside, but the
+            // copied captions can contain references that the transformation filling the list couldn't resolve.
+            numberedBlocks.addFigureListBlock((FigureListBlock) block);
+            for (Block referenceBlock : block.getBlocks(new ClassBlockMatcher(ReferenceBlock.class),
+                Block.Axes.DESCENDANT)) {
+                numberedBlocks.getReferenceBlocks().add((ReferenceBlock) referenceBlock);
+            }
+            return contentHash;
+        }
+
+        for (Block childBlock : block.getChildren()) {
+            contentHash = combineHash(contentHash,
+                collect(childBlock, headerBlock, figureBlock, entityBlock, figureContent, numberedBlocks, kinds));
+        }
+        if (figurePosition >= 0) {
+            numberedBlocks.setTable(figurePosition, figureContent.isTable());
+        }
+        // Mark the end of the children so that the hash depends on the structure.
+        return combineHash(contentHash, -1L);
+    }
+
+    private long hash(Block block)
+    {
+        long hash = combineHash(block.getClass().getName().hashCode(), block.getParameters().hashCode());
+        if (block instanceof HeaderBlock) {
+            HeaderBlock headerBlock = (HeaderBlock) block;
+            hash = combineHash(hash, headerBlock.getLevel().getAsInt());
+            hash = combineHash(hash, Objects.hashCode(headerBlock.getId()));
+        } else if (block instanceof IdBlock) {
+            hash = combineHash(hash, Objects.hashCode(((IdBlock) block).getName()));
+        } else if (block instanceof MacroMarkerBlock) {
+            hash = combineHash(hash, Objects.hashCode(((MacroMarkerBlock) block).getId()));
+        }
+        return hash;
+    }
+
+    private static long combineHash(long hash, long value)
+    {
+        return (hash ^ value) * HASH_PRIME;
+    }
+
+    /**
+     * @param referenceBlock a collected reference
+     * @return {@code true} if the reference is still part of the transformed block, i.e. it hasn't been replaced by a
+     *         link yet
+     */
+    public boolean isAttached(ReferenceBlock referenceBlock)
+    {
+        // The reference may have been replaced by a link since it has been collected, in which case it's not a child
+        // of its parent anymore. Note that we can't use List#contains() since blocks implement a content-based
+        // equals().
+        Block parentBlock = referenceBlock.getParent();
+        if (parentBlock != null) {
+            for (Block childBlock : parentBlock.getChildren()) {
+                if (childBlock == referenceBlock) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // TODO: Remove this when https://jira.xwiki.org/browse/XWIKI-15093 is implemented
+    private boolean isInsProtectedBlock(Block block)
+    {
+        Block currentBlock = block;
+        while (currentBlock != null) {
+            if (isProtectedBlock(currentBlock)) {
+                return true;
+            }
+            currentBlock = currentBlock.getParent();
+        }
+        return false;
+    }
+
+    /**
+     * @param block a block of the XDOM
+     * @return {@code true} if nothing is numbered inside the passed block (e.g. the code macro)
+     */
+    public boolean isProtected(Block block)
+    {
+        return isProtectedBlock(block);
+    }
+
+    private boolean isProtectedBlock(Block block)
+    {
+        // A protected block is either:
+        // - a code macro block
+        // - a block having a "data-xwiki-rendering-protected" parameter with value "true"
+        boolean isProtected = false;
+        if ((block instanceof MacroMarkerBlock) && "code".equals(((MacroMarkerBlock) block).getId())) {
+            isProtected = true;
+        } else {
+            String parameterValue = block.getParameter("data-xwiki-rendering-protected");
+            if (!StringUtils.isEmpty(parameterValue) && Boolean.valueOf(parameterValue)) {
+                isProtected = true;
+            }
+        }
+        return isProtected;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.contrib.numberedreferences.internal.FlightRecorderEventType.Field;
+
+/**
+ * Emits the Java Flight Recorder events of the numbered transformations. The event types are defined at runtime (see
+ * {@link FlightRecorderEventType}) so nothing is emitted when the JFR API is not available. When no recording enables
+ * them, no event is created and their field values are not even gathered.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public final class NumberingEvents
+{
+    private static final String NAME_PREFIX = "org.xwiki.contrib.numberedreferences.";
+
+    private static final FlightRecorderEventType NUMBERING = FlightRecorderEventType.create(NAME_PREFIX + "Numbering",
+        "Numbering", "Execution of a numbered transformation",
+        new Field(String.class, "transformation", "Transformation", null, false),
+        new Field(String.class, "source", "Source",
+            "The identifier of the transformed content (e.g. the document reference)", false),
+        new Field(int.class, "blockCount", "Block Count", "The number of blocks visited to collect the numbered blocks",
+            false),
+        new Field(int.class, "headerCount", "Header Count", null, false),
+        new Field(int.class, "figureCount", "Figure Count", null, false),
+        new Field(int.class, "tableCount", "Table Count", null, false),
+        new Field(int.class, "idCount", "Id Count", null, false),
+        new Field(long.class, "collectDuration", "Collect Duration", null, true),
+        new Field(long.class, "numberDuration", "Number Duration", null, true),
+        new Field(long.class, "resolveDuration", "Resolve Duration", null, true));
+
+    private static final FlightRecorderEventType REFERENCE_RESOLUTION = FlightRecorderEventType.create(
+        NAME_PREFIX + "ReferenceResolution", "Reference Resolution",
+        "Replacement of the references by links to the numbered blocks",
+        new Field(String.class, "referenceType", "Reference Type", null, false),
+        new Field(int.class, "resolvedReferenceCount", "Resolved Reference Count", null, false),
+        new Field(int.class, "unresolvedReferenceCount", "Unresolved Reference Count", null, false));
+
+    private NumberingEvents()
+    {
+        // Utility class
+    }
+
+    /**
+     * @return {@code true} if the JFR API is available, and thus the events are emitted
+     */
+    public static boolean isAvailable()
+    {
+        return NUMBERING != null && REFERENCE_RESOLUTION != null;
+    }
+
+    /**
+     * Start timing the execution of a numbered transformation.
+     *
+     * @return the started event, or {@code null} if JFR is not available or no recording enables the event
+     */
+    public static Object beginNumbering()
+    {
+        return NUMBERING != null ? NUMBERING.begin() : null;
+    }
+
+    /**
+     * Stop timing the execution of a numbered transformation and commit the event, if a recording is in progress.
+     *
+     * @param event the event returned by {@link #beginNumbering()}
+     * @param transformation the hint of the numbered transformation
+     * @param source the identifier of the transformed content, if any
+     * @param statistics the statistics of the execution
+     */
+    public static void commitNumbering(Object event, String transformation, String source,
+        NumberingStatistics statistics)
+    {
+        if (NUMBERING != null && NUMBERING.end(event)) {
+            NUMBERING.commit(event, transformation, source, statistics.getBlockCount(), statistics.getHeaderCount(),
+                statistics.getFigureCount(), statistics.getTableCount(), statistics.getIdCount(),
+                statistics.getCollectDuration(), statistics.getNumberDuration(), statistics.getResolveDuration());
+        }
+    }
+
+    /**
+     * Start timing the resolution of the references.
+     *
+     * @return the started event, or {@code null} if JFR is not available or no recording enables the event
+     */
+    public static Object beginReferenceResolution()
+    {
+        return REFERENCE_RESOLUTION != null ? REFERENCE_RESOLUTION.begin() : null;
+    }
+
+    /**
+     * Stop timing the resolution of the references and commit the event, if a recording is in progress.
+     *
+     * @param event the event returned by {@link #beginReferenceResolution()}
+     * @param type the type of the resolved references
+     * @param resolvedReferenceCount the number of references replaced by a link
+     * @param unresolvedReferenceCount the number of references that couldn't be resolved
+     */
+    public static void commitReferenceResolution(Object event, ReferenceType type, int resolvedReferenceCount,
+        int unresolvedReferenceCount)
+    {
+        if (REFERENCE_RESOLUTION != null && REFERENCE_RESOLUTION.end(event)) {
+            REFERENCE_RESOLUTION.commit(event, String.valueOf(type), resolvedReferenceCount,
+                unresolvedReferenceCount);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+/**
+ * Executes the parallel parts of the numbering of large documents (see
+ * {@link NumberingConfiguration#getParallelThreshold()}) in a dedicated pool of at most {@value #MAX_PARALLELISM}
+ * threads, so that they neither compete with nor get starved by the other users of the common fork join pool of the
+ * server. The pool is only created when a document is large enough to be numbered in parallel.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingExecutor.class)
+@Singleton
+public class NumberingExecutor implements Disposable
+{
+    private static final int MAX_PARALLELISM = 4;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Call the passed action for each index between 0 (included) and the passed size (excluded), in parallel, and
+     * wait for all the calls to be done. The action must not depend on the execution context of the calling thread.
+     *
+     * @param size the number of indexes
+     * @param action the action to call for each index, from any thread of the pool
+     */
+    public void forEach(int size, IntConsumer action)
+    {
+        // The parallel stream is executed in the pool from which it's started.
+        getPool().invoke(ForkJoinTask.adapt(() -> IntStream.range(0, size).parallel().forEach(action)));
+    }
+
+    private synchronized ForkJoinPool getPool()
+    {
+        if (this.pool == null) {
+            int parallelism = Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM);
+            this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("Numbering worker " + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return this.pool;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+/**
+ * The numbers of the numbered blocks of a document, indexed by type and id, along with the numbers of the headers or
+ * figures in document order (their positions among the blocks collected by the {@link NumberingEngine}) so that
+ * they can be inserted again without recounting, as long as the content hash doesn't change.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class NumberingIndex
+{
+    private final Map<ReferenceType, Map<String, int[]>> numbers = new EnumMap<>(ReferenceType.class);
+
+    private final List<int[]> blockNumbers = new ArrayList<>();
+
+    private final BitSet tables = new BitSet();
+
+    private long contentHash;
+
+    /**
+     * @param contentHash the hash of the content from which the index has been computed
+     */
+    public void setContentHash(long contentHash)
+    {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the hash of the content from which the index has been computed
+     */
+    public long getContentHash()
+    {
+        return this.contentHash;
+    }
+
+    /**
+     * @param number the number of the next numbered block (header or figure), in document order
+     * @param table {@code true} if the numbered block is a table, in which case the number is the table ordinal
+     */
+    public void addBlockNumber(int[] number, boolean table)
+    {
+        this.tables.set(this.blockNumbers.size(), table);
+        this.blockNumbers.add(number);
+    }
+
+    /**
+     * @return the numbers of the numbered blocks (headers or figures), in document order
+     */
+    public List<int[]> getBlockNumbers()
+    {
+        return Collections.unmodifiableList(this.blockNumbers);
+    }
+
+    /**
+     * @param position the position of the numbered block, in document order
+     * @return {@code true} if the numbered block at the passed position is a table
+     */
+    public boolean isTable(int position)
+    {
+        return this.tables.get(position);
+    }
+
+    /**
+     * @return the types for which numbers are indexed by id
+     */
+    public Set<ReferenceType> getTypes()
+    {
+        return this.numbers.keySet();
+    }
+
+    /**
+     * @param type the type of the numbered block
+     * @param id the id associated with the numbered block
+     * @param number the number of the block
+     */
+    public void put(ReferenceType type, String id, int[] number)
+    {
+        this.numbers.computeIfAbsent(type, key -> new HashMap<>()).put(id, number);
+    }
+
+    /**
+     * @param type the type of the numbered block
+     * @param id the id associated with the numbered block
+     * @return the number of the block, or {@code null} if no block of the passed type is associated with the id
+     */
+    public int[] get(ReferenceType type, String id)
+    {
+        Map<String, int[]> typeNumbers = this.numbers.get(type);
+        return typeNumbers != null ? typeNumbers.get(id) : null;
+    }
+
+    /**
+     * @param type the type of the numbered blocks
+     * @return the numbers of the blocks of the passed type, indexed by id
+     */
+    public Map<String, int[]> getNumbers(ReferenceType type)
+    {
+        Map<String, int[]> typeNumbers = this.numbers.get(type);
+        return typeNumbers != null ? Collections.unmodifiableMap(typeNumbers) : Collections.emptyMap();
+    }
+
+    /**
+     * @return {@code true} if no number has been indexed
+     */
+    public boolean isEmpty()
+    {
+        for (Map<String, int[]> typeNumbers : this.numbers.values()) {
+            if (!typeNumbers.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
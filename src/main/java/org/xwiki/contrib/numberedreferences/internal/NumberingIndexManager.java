@@ -0,0 +1,278 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+/**
+ * Gives access to the {@link NumberingIndex} stored for the transformed documents, as long as their content hash
+ * didn't change. The content without identifier (e.g. transformed outside of any document) and the fragments of a
+ * document transformed on their own (e.g. nested content) are not indexed.
+ * <p>
+ * The last index of each document is also used to resolve the references to that document from other documents,
+ * without having to transform it. The most recently used indexes are kept in memory, the other ones being loaded
+ * from the {@link NumberingIndexStore} when needed. The documents without stored index are remembered too, so that
+ * the store isn't read again each time they're rendered.
+ * <p>
+ * The indexes are written to the store by a background thread so that the rendering doesn't wait for the I/O. When a
+ * document is rendered again before its previous index is written, only its last index is written.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingIndexManager.class)
+@Singleton
+public class NumberingIndexManager implements Initializable, Disposable
+{
+    private static final class PendingSave
+    {
+        private final NumberingIndexStore store;
+
+        private final NumberingIndex index;
+
+        private final String documentId;
+
+        PendingSave(NumberingIndexStore store, NumberingIndex index, String documentId)
+        {
+            this.store = store;
+            this.index = index;
+            this.documentId = documentId;
+        }
+    }
+
+    /**
+     * Marks the documents without stored index.
+     */
+    private static final NumberingIndex NO_INDEX = new NumberingIndex();
+
+    @Inject
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private NumberingConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private int capacity;
+
+    /**
+     * The indexes waiting to be written, with the store to write them to, by key.
+     */
+    private final Map<String, PendingSave> pendingSaves = new HashMap<>();
+
+    private ExecutorService writer;
+
+    private final Map<String, NumberingIndex> indexes = new LinkedHashMap<String, NumberingIndex>(16, 0.75F, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, NumberingIndex> eldest)
+        {
+            return size() > NumberingIndexManager.this.capacity;
+        }
+    };
+
+    @Override
+    public void initialize()
+    {
+        this.capacity = this.configuration.getIndexCacheCapacity();
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Numbering index writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        // Write the pending indexes before stopping.
+        this.writer.shutdown();
+    }
+
+    /**
+     * @param documentId the identifier of the transformed content (e.g. the document reference), can be {@code null}
+     * @param type the type of the numbered blocks
+     * @param contentHash the hash of the transformed content
+     * @return the index computed for the same content, or {@code null} if there's none
+     */
+    public NumberingIndex getIndex(String documentId, ReferenceType type, long contentHash)
+    {
+        NumberingIndex index = getIndex(documentId, type);
+        // The index is invalidated as soon as the content changes.
+        if (index != null && index.getContentHash() != contentHash) {
+            index = null;
+        }
+        return index;
+    }
+
+    /**
+     * @param documentId the identifier of the document (e.g. the document reference), can be {@code null}
+     * @param type the type of the numbered blocks
+     * @return the index computed the last time the document content was transformed, or {@code null} if there's
+     *         none
+     */
+    public NumberingIndex getIndex(String documentId, ReferenceType type)
+    {
+        NumberingIndex index = null;
+        if (documentId != null) {
+            String key = getKey(documentId, type);
+            synchronized (this.indexes) {
+                index = this.indexes.get(key);
+            }
+            if (index == null) {
+                index = load(documentId, key);
+                synchronized (this.indexes) {
+                    this.indexes.put(key, index != null ? index : NO_INDEX);
+                }
+            }
+        }
+        return index != NO_INDEX ? index : null;
+    }
+
+    /**
+     * Keep the passed index in memory and write it to the store in the background (see {@link #flush()}).
+     *
+     * @param documentId the identifier of the transformed content (e.g. the document reference), can be {@code null}
+     * @param type the type of the numbered blocks
+     * @param index the index computed for the current content
+     */
+    public void saveIndex(String documentId, ReferenceType type, NumberingIndex index)
+    {
+        if (documentId != null) {
+            String key = getKey(documentId, type);
+            synchronized (this.indexes) {
+                this.indexes.put(key, index);
+            }
+            // The store is looked up in the rendering thread, which has the context of the document.
+            NumberingIndexStore store = getStore(documentId);
+            if (store != null) {
+                boolean scheduled;
+                synchronized (this.pendingSaves) {
+                    scheduled = this.pendingSaves.put(key, new PendingSave(store, index, documentId)) != null;
+                }
+                if (!scheduled) {
+                    this.writer.execute(() -> write(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the indexes saved so far to be written to the store.
+     */
+    public void flush()
+    {
+        try {
+            this.writer.submit(() -> null).get();
+        } catch (ExecutionException e) {
+            // The empty task doesn't fail.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(String key)
+    {
+        PendingSave pendingSave;
+        synchronized (this.pendingSaves) {
+            pendingSave = this.pendingSaves.remove(key);
+        }
+        try {
+            pendingSave.store.save(key, pendingSave.index);
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the numbering index of [{}]: {}", pendingSave.documentId,
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Forget the indexes kept in memory, so that they're loaded again from the {@link NumberingIndexStore}.
+     */
+    public void clear()
+    {
+        synchronized (this.indexes) {
+            this.indexes.clear();
+        }
+    }
+
+    private NumberingIndex load(String documentId, String key)
+    {
+        // The index may have been forgotten before being written.
+        synchronized (this.pendingSaves) {
+            PendingSave pendingSave = this.pendingSaves.get(key);
+            if (pendingSave != null) {
+                return pendingSave.index;
+            }
+        }
+        NumberingIndex index = null;
+        NumberingIndexStore store = getStore(documentId);
+        if (store != null) {
+            try {
+                index = store.load(key);
+            } catch (IOException e) {
+                this.logger.warn("Failed to load the numbering index of [{}]: {}", documentId, e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private NumberingIndexStore getStore(String documentId)
+    {
+        NumberingIndexStore store = null;
+        if (documentId != null) {
+            ComponentManager componentManager = this.componentManagerProvider.get();
+            if (componentManager.hasComponent(NumberingIndexStore.class)) {
+                try {
+                    store = componentManager.getInstance(NumberingIndexStore.class);
+                } catch (ComponentLookupException e) {
+                    // The store can't be used (e.g. there's no permanent directory), just don't index.
+                    this.logger.debug("Failed to get the numbering index store: {}", e.getMessage());
+                }
+            }
+        }
+        return store;
+    }
+
+    private String getKey(String documentId, ReferenceType type)
+    {
+        return documentId + '/' + type;
+    }
+}
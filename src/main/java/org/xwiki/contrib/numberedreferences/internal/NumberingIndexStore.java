@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.io.IOException;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Persists the {@link NumberingIndex} computed for the documents so that their numbering doesn't have to be
+ * recomputed as long as their content doesn't change. Implement this role (and override the default
+ * implementation) to store the indexes elsewhere than in the permanent directory.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Role
+public interface NumberingIndexStore
+{
+    /**
+     * @param key the identifier of the index
+     * @return the stored index, or {@code null} if there's none
+     * @throws IOException if the index can't be read
+     */
+    NumberingIndex load(String key) throws IOException;
+
+    /**
+     * @param key the identifier of the index
+     * @param index the index to store, replacing any index previously stored with the same identifier
+     * @throws IOException if the index can't be written
+     */
+    void save(String key, NumberingIndex index) throws IOException;
+}
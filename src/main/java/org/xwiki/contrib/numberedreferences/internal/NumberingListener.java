@@ -0,0 +1,840 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.Translation;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.listener.Format;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.ListType;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.listener.QueueListener;
+import org.xwiki.rendering.listener.WrappingListener;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+
+/**
+ * Streaming alternative to the numbered transformations, for documents too large to be loaded as a XDOM (e.g. office
+ * imports). Numbers the headings and figures as their events pass and replaces the (non executed) Reference Macro
+ * events with links to the numbered blocks, producing the same events as the numbered transformations.
+ * <p>
+ * Only the content of the header or figure being numbered is buffered (a heading is only numbered when not empty and
+ * the type of a figure depends on its content). A reference to a block that hasn't been numbered yet can't be
+ * resolved when it passes though, so the events following it are held back until its target is numbered. The number
+ * of held events is bounded (see {@link #setMaxHeldEvents(int)}): when it's reached, the pending references are left
+ * unresolved and the held events are released, so that a reference to a missing id doesn't hold back the rest of the
+ * document. To resolve all the references without holding anything back, the events can be streamed twice: a first
+ * pass with an empty {@link NumberingIndex} fills the index, and a second pass with the filled index resolves all the
+ * references as they pass.
+ * <p>
+ * As with the transformations, nothing is numbered and no reference is resolved inside protected content, i.e. the
+ * code macro and any header, figure or other container having a {@code data-xwiki-rendering-protected} parameter.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class NumberingListener extends WrappingListener
+{
+    private static final String REFERENCE_MACRO = "reference";
+
+    private static final String ID_MACRO = "id";
+
+    private static final String ID_MACRO_NAME = "name";
+
+    private final Listener listener;
+
+    private final ContextualLocalizationManager localizationManager;
+
+    private final NumberingIndex index;
+
+    private final boolean indexProvided;
+
+    private final HeadingCounter headingCounter = new HeadingCounter();
+
+    private boolean compactLabels;
+
+    private int figureChapterLevel;
+
+    private int[] figureChapter = new int[0];
+
+    private int figureNumber;
+
+    private int tableNumber;
+
+    /**
+     * The header or figure whose content is being buffered, if any.
+     */
+    private BufferedBlock bufferedBlock;
+
+    private int[] currentHeaderNumber;
+
+    private int[] currentFigureNumber;
+
+    private boolean currentFigureTable;
+
+    private boolean currentFigureCaptionNumbered;
+
+    private int protectedDepth;
+
+    private int documentDepth;
+
+    /**
+     * The events held back because of forward references: {@link QueueListener} segments separated by the
+     * {@link PendingReference} that couldn't be resolved yet.
+     */
+    private final List<Object> heldEvents = new ArrayList<>();
+
+    private QueueListener heldQueue;
+
+    private int heldEventCount;
+
+    private int maxHeldEvents = Integer.MAX_VALUE;
+
+    private final Map<String, List<PendingReference>> unresolvedReferences = new HashMap<>();
+
+    private int unresolvedReferenceCount;
+
+    /**
+     * @param listener the listener to which the numbered events are sent
+     * @param localizationManager used to get the figure and table caption prefixes
+     * @param index the numbers to use to resolve the references, or {@code null} to hold the events back when
+     *            encountering a forward reference; when provided, the index is updated with the numbered blocks
+     */
+    public NumberingListener(Listener listener, ContextualLocalizationManager localizationManager,
+        NumberingIndex index)
+    {
+        this.listener = listener;
+        this.localizationManager = localizationManager;
+        this.indexProvided = index != null;
+        this.index = this.indexProvided ? index : new NumberingIndex();
+        setWrappedListener(listener);
+    }
+
+    /**
+     * @param compactLabels {@code true} to output the heading numbers as a single word (e.g. {@code 1.2.3}) instead of
+     *            one word per number level (see {@link NumberingConfiguration#isCompactLabels()})
+     */
+    public void setCompactLabels(boolean compactLabels)
+    {
+        this.compactLabels = compactLabels;
+    }
+
+    /**
+     * @param figureChapterLevel the heading level of the sections whose number prefixes the figure numbers, 0 to
+     *            number the figures continuously (see {@link NumberingConfiguration#getFigureChapterLevel()})
+     */
+    public void setFigureChapterLevel(int figureChapterLevel)
+    {
+        this.figureChapterLevel = figureChapterLevel;
+        this.figureChapter = Arrays.copyOf(this.headingCounter.toArray(), figureChapterLevel);
+    }
+
+    /**
+     * @param maxHeldEvents the maximum number of events held back because of forward references, after which the
+     *            pending references are left unresolved and the held events are released (see
+     *            {@link NumberingConfiguration#getMaxHeldEvents()})
+     */
+    public void setMaxHeldEvents(int maxHeldEvents)
+    {
+        this.maxHeldEvents = maxHeldEvents;
+    }
+
+    /**
+     * @return the numbers of the blocks numbered so far, indexed by type and id
+     */
+    public NumberingIndex getIndex()
+    {
+        return this.index;
+    }
+
+    @Override
+    public void beginDocument(MetaData metadata)
+    {
+        if (this.bufferedBlock == null) {
+            this.documentDepth++;
+        }
+        super.beginDocument(metadata);
+    }
+
+    @Override
+    public void endDocument(MetaData metadata)
+    {
+        if (this.bufferedBlock == null && --this.documentDepth == 0) {
+            // The remaining forward references can't be resolved anymore.
+            super.endDocument(metadata);
+            releaseHeldEvents();
+        } else {
+            super.endDocument(metadata);
+        }
+    }
+
+    @Override
+    public void beginHeader(HeaderLevel level, String id, Map<String, String> parameters)
+    {
+        if (this.bufferedBlock == null && this.protectedDepth == 0 && !isProtected(null, parameters)) {
+            startBuffering(new BufferedBlock(true, level, id, parameters));
+        } else {
+            beginContainer(parameters);
+            super.beginHeader(level, id, parameters);
+        }
+    }
+
+    @Override
+    public void endHeader(HeaderLevel level, String id, Map<String, String> parameters)
+    {
+        if (this.bufferedBlock != null && this.bufferedBlock.header) {
+            numberHeader(stopBuffering());
+        } else {
+            super.endHeader(level, id, parameters);
+            endContainer(parameters);
+        }
+    }
+
+    @Override
+    public void beginFigure(Map<String, String> parameters)
+    {
+        if (this.bufferedBlock == null && this.protectedDepth == 0 && !isProtected(null, parameters)) {
+            startBuffering(new BufferedBlock(false, null, null, parameters));
+        } else {
+            if (this.bufferedBlock != null && !this.bufferedBlock.header) {
+                this.bufferedBlock.depth++;
+            }
+            beginContainer(parameters);
+            super.beginFigure(parameters);
+        }
+    }
+
+    @Override
+    public void endFigure(Map<String, String> parameters)
+    {
+        if (this.bufferedBlock != null && !this.bufferedBlock.header && this.bufferedBlock.depth-- == 0) {
+            numberFigure(stopBuffering());
+        } else {
+            super.endFigure(parameters);
+            endContainer(parameters);
+        }
+    }
+
+    @Override
+    public void beginFigureCaption(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginFigureCaption(parameters);
+        if (this.bufferedBlock == null && this.currentFigureNumber != null && !this.currentFigureCaptionNumbered) {
+            this.currentFigureCaptionNumbered = true;
+            String key = NumberedFiguresTransformation.getTranslationKey(this.currentFigureTable);
+            // Keep the number formatting of the translation for the figure numbers without chapter.
+            Object number = this.currentFigureNumber.length == 1 ? (Object) this.currentFigureNumber[0]
+                : StringUtils.join(this.currentFigureNumber, '.');
+            Translation translation = this.localizationManager.getTranslation(key);
+            Block numberBlock = translation != null ? translation.render(number) : null;
+            // Same as the transformation, only the number is displayed when the caption prefix translation is missing.
+            List<Block> numberBlocks = numberBlock != null ? Collections.singletonList(numberBlock)
+                : serializeNumber(this.currentFigureNumber, false);
+            NumberedFiguresTransformation.formatNumber(numberBlocks, this.currentFigureTable)
+                .traverse(getWrappedListener());
+        }
+    }
+
+    @Override
+    public void endFigureCaption(Map<String, String> parameters)
+    {
+        super.endFigureCaption(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginMacroMarker(String name, Map<String, String> parameters, String content, boolean isInline)
+    {
+        if (this.bufferedBlock == null && isProtected(name, parameters)) {
+            this.protectedDepth++;
+        }
+        super.beginMacroMarker(name, parameters, content, isInline);
+    }
+
+    @Override
+    public void endMacroMarker(String name, Map<String, String> parameters, String content, boolean isInline)
+    {
+        super.endMacroMarker(name, parameters, content, isInline);
+        if (this.bufferedBlock == null && isProtected(name, parameters)) {
+            this.protectedDepth--;
+        }
+    }
+
+    @Override
+    public void beginGroup(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginGroup(parameters);
+    }
+
+    @Override
+    public void endGroup(Map<String, String> parameters)
+    {
+        super.endGroup(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginSection(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginSection(parameters);
+    }
+
+    @Override
+    public void endSection(Map<String, String> parameters)
+    {
+        super.endSection(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginParagraph(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginParagraph(parameters);
+    }
+
+    @Override
+    public void endParagraph(Map<String, String> parameters)
+    {
+        super.endParagraph(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginFormat(Format format, Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginFormat(format, parameters);
+    }
+
+    @Override
+    public void endFormat(Format format, Map<String, String> parameters)
+    {
+        super.endFormat(format, parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginLink(ResourceReference reference, boolean freestanding, Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginLink(reference, freestanding, parameters);
+    }
+
+    @Override
+    public void endLink(ResourceReference reference, boolean freestanding, Map<String, String> parameters)
+    {
+        super.endLink(reference, freestanding, parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginList(ListType type, Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginList(type, parameters);
+    }
+
+    @Override
+    public void endList(ListType type, Map<String, String> parameters)
+    {
+        super.endList(type, parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginListItem(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginListItem(parameters);
+    }
+
+    @Override
+    public void endListItem(Map<String, String> parameters)
+    {
+        super.endListItem(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginDefinitionList(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginDefinitionList(parameters);
+    }
+
+    @Override
+    public void endDefinitionList(Map<String, String> parameters)
+    {
+        super.endDefinitionList(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginQuotation(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginQuotation(parameters);
+    }
+
+    @Override
+    public void endQuotation(Map<String, String> parameters)
+    {
+        super.endQuotation(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginTable(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginTable(parameters);
+    }
+
+    @Override
+    public void endTable(Map<String, String> parameters)
+    {
+        super.endTable(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginTableRow(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginTableRow(parameters);
+    }
+
+    @Override
+    public void endTableRow(Map<String, String> parameters)
+    {
+        super.endTableRow(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginTableCell(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginTableCell(parameters);
+    }
+
+    @Override
+    public void endTableCell(Map<String, String> parameters)
+    {
+        super.endTableCell(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void beginTableHeadCell(Map<String, String> parameters)
+    {
+        beginContainer(parameters);
+        super.beginTableHeadCell(parameters);
+    }
+
+    @Override
+    public void endTableHeadCell(Map<String, String> parameters)
+    {
+        super.endTableHeadCell(parameters);
+        endContainer(parameters);
+    }
+
+    @Override
+    public void onId(String name)
+    {
+        super.onId(name);
+        if (this.bufferedBlock == null && this.protectedDepth == 0) {
+            numberId(name);
+        }
+    }
+
+    @Override
+    public void onMacro(String id, Map<String, String> parameters, String content, boolean isInline)
+    {
+        if (this.bufferedBlock != null || this.protectedDepth > 0) {
+            super.onMacro(id, parameters, content, isInline);
+        } else if (REFERENCE_MACRO.equals(id) && parameters.get("document") == null) {
+            // Only the references to the current document are resolved here. The references to other documents are
+            // left to the Reference Macro since they're resolved from the numbering index of the target document.
+            onReference(new PendingReference(id, parameters, content, isInline));
+        } else {
+            super.onMacro(id, parameters, content, isInline);
+            // The id macro is not executed but the id it contributes can still be referenced.
+            if (ID_MACRO.equals(id) && parameters.get(ID_MACRO_NAME) != null) {
+                numberId(parameters.get(ID_MACRO_NAME));
+            }
+        }
+    }
+
+    private void startBuffering(BufferedBlock block)
+    {
+        this.bufferedBlock = block;
+        setWrappedListener(block.events);
+    }
+
+    private BufferedBlock stopBuffering()
+    {
+        BufferedBlock block = this.bufferedBlock;
+        this.bufferedBlock = null;
+        setWrappedListener(this.heldQueue != null ? this.heldQueue : this.listener);
+        return block;
+    }
+
+    private void numberHeader(BufferedBlock header)
+    {
+        super.beginHeader(header.level, header.id, header.parameters);
+        // Empty headers are not numbered.
+        if (!header.events.isEmpty()) {
+            this.headingCounter.next(header.level);
+            int[] previousHeaderNumber = this.currentHeaderNumber;
+            this.currentHeaderNumber = this.headingCounter.toArray();
+            int[] chapter = Arrays.copyOf(this.currentHeaderNumber, this.figureChapterLevel);
+            if (!Arrays.equals(chapter, this.figureChapter)) {
+                // The figures and tables are counted again from 1 in each chapter.
+                this.figureChapter = chapter;
+                this.figureNumber = 0;
+                this.tableNumber = 0;
+            }
+            NumberedHeadingsTransformation.serializeAndFormatNumber(this.currentHeaderNumber, this.compactLabels)
+                .traverse(getWrappedListener());
+            if (header.id != null) {
+                putNumber(ReferenceType.SECTION, header.id, this.currentHeaderNumber);
+            }
+            header.events.consumeEvents(this);
+            this.currentHeaderNumber = previousHeaderNumber;
+        }
+        super.endHeader(header.level, header.id, header.parameters);
+    }
+
+    private void numberFigure(BufferedBlock figure)
+    {
+        super.beginFigure(figure.parameters);
+        // Empty figures are not numbered.
+        if (!figure.events.isEmpty()) {
+            int[] previousFigureNumber = this.currentFigureNumber;
+            boolean previousFigureTable = this.currentFigureTable;
+            boolean previousFigureCaptionNumbered = this.currentFigureCaptionNumbered;
+
+            this.currentFigureTable = isTable(figure);
+            int number = this.currentFigureTable ? ++this.tableNumber : ++this.figureNumber;
+            this.currentFigureNumber = Arrays.copyOf(this.figureChapter, this.figureChapterLevel + 1);
+            this.currentFigureNumber[this.figureChapterLevel] = number;
+            this.currentFigureCaptionNumbered = false;
+            figure.events.consumeEvents(this);
+
+            this.currentFigureNumber = previousFigureNumber;
+            this.currentFigureTable = previousFigureTable;
+            this.currentFigureCaptionNumbered = previousFigureCaptionNumbered;
+        }
+        super.endFigure(figure.parameters);
+    }
+
+    private boolean isTable(BufferedBlock figure)
+    {
+        // The figure is classified from its buffered events, without building its blocks, with the same rule as the
+        // NumberingEngine.
+        FigureContentCounter counter = new FigureContentCounter();
+        Listener counterListener = (Listener) Proxy.newProxyInstance(Listener.class.getClassLoader(),
+            new Class<?>[] { Listener.class }, counter);
+        for (QueueListener.Event event : figure.events) {
+            event.eventType.fireEvent(counterListener, event.eventParameters);
+        }
+        return counter.content.isTable();
+    }
+
+    private void numberId(String name)
+    {
+        // Associate the id with the closest enclosing numbered header and figure.
+        if (this.currentHeaderNumber != null) {
+            putNumber(ReferenceType.SECTION, name, this.currentHeaderNumber);
+        }
+        if (this.currentFigureNumber != null) {
+            putNumber(ReferenceType.FIGURE, name, this.currentFigureNumber);
+        }
+    }
+
+    private void putNumber(ReferenceType type, String id, int[] number)
+    {
+        this.index.put(type, id, number);
+
+        List<PendingReference> references = this.unresolvedReferences.get(id);
+        if (references != null) {
+            Iterator<PendingReference> iterator = references.iterator();
+            while (iterator.hasNext()) {
+                PendingReference reference = iterator.next();
+                if (reference.type == null || reference.type == type) {
+                    reference.resolvedType = type;
+                    reference.number = number;
+                    iterator.remove();
+                    this.unresolvedReferenceCount--;
+                }
+            }
+            if (references.isEmpty()) {
+                this.unresolvedReferences.remove(id);
+            }
+            if (this.unresolvedReferenceCount == 0) {
+                releaseHeldEvents();
+            }
+        }
+    }
+
+    private void onReference(PendingReference reference)
+    {
+        if (reference.id == null) {
+            emitReference(reference, getWrappedListener());
+            return;
+        }
+
+        for (ReferenceType type : reference.type != null ? Collections.singletonList(reference.type)
+            : Arrays.asList(ReferenceType.values())) {
+            int[] number = this.index.get(type, reference.id);
+            if (number != null) {
+                reference.resolvedType = type;
+                reference.number = number;
+                break;
+            }
+        }
+
+        if (reference.number != null || this.indexProvided) {
+            emitReference(reference, getWrappedListener());
+        } else {
+            // Forward reference: hold back the following events until it's resolved.
+            this.heldEvents.add(reference);
+            this.unresolvedReferences.computeIfAbsent(reference.id, key -> new ArrayList<>()).add(reference);
+            this.unresolvedReferenceCount++;
+            this.heldQueue = new HeldEventQueue();
+            this.heldEvents.add(this.heldQueue);
+            setWrappedListener(this.heldQueue);
+        }
+    }
+
+    private void releaseHeldEvents()
+    {
+        for (Object heldEvent : this.heldEvents) {
+            if (heldEvent instanceof QueueListener) {
+                ((QueueListener) heldEvent).consumeEvents(this.listener);
+            } else {
+                emitReference((PendingReference) heldEvent, this.listener);
+            }
+        }
+        this.heldEvents.clear();
+        this.unresolvedReferences.clear();
+        this.unresolvedReferenceCount = 0;
+        this.heldQueue = null;
+        this.heldEventCount = 0;
+        setWrappedListener(this.bufferedBlock != null ? this.bufferedBlock.events : this.listener);
+    }
+
+    private void emitReference(PendingReference reference, Listener target)
+    {
+        if (reference.number != null) {
+            // Produce the same events as the Reference Macro once executed and resolved.
+            DocumentResourceReference resourceReference = new DocumentResourceReference("");
+            resourceReference.setAnchor(reference.id);
+            List<Block> label = serializeNumber(reference.number, reference.resolvedType == ReferenceType.SECTION);
+            new MacroMarkerBlock(reference.macroId, reference.parameters, reference.content,
+                Collections.singletonList(new LinkBlock(label, resourceReference, false)), reference.inline)
+                    .traverse(target);
+        } else {
+            target.onMacro(reference.macroId, reference.parameters, reference.content, reference.inline);
+        }
+    }
+
+    private List<Block> serializeNumber(int[] number, boolean section)
+    {
+        return section || number.length > 1
+            ? NumberedHeadingsTransformation.serializeSectionNumber(number, this.compactLabels)
+            : Collections.singletonList(NumberBlocks.getNumberBlock(number[0]));
+    }
+
+    private void beginContainer(Map<String, String> parameters)
+    {
+        // The events of a buffered block are checked when they're replayed.
+        if (this.bufferedBlock == null && isProtected(null, parameters)) {
+            this.protectedDepth++;
+        }
+    }
+
+    private void endContainer(Map<String, String> parameters)
+    {
+        if (this.bufferedBlock == null && isProtected(null, parameters)) {
+            this.protectedDepth--;
+        }
+    }
+
+    private static boolean isProtected(String macroId, Map<String, String> parameters)
+    {
+        // Same rules as the NumberingEngine: the code macro and any block explicitly marked as protected.
+        return "code".equals(macroId) || Boolean.parseBoolean(parameters.get("data-xwiki-rendering-protected"));
+    }
+
+    /**
+     * Holds back the events following a forward reference and releases all the held events, leaving the pending
+     * references unresolved, once there are too many of them.
+     */
+    private final class HeldEventQueue extends QueueListener
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean add(QueueListener.Event event)
+        {
+            // LinkedList#offer() calls this method too.
+            boolean added = super.add(event);
+            if (++NumberingListener.this.heldEventCount > NumberingListener.this.maxHeldEvents) {
+                releaseHeldEvents();
+            }
+            return added;
+        }
+    }
+
+    /**
+     * Classifies a figure from its top level content events.
+     */
+    private static final class FigureContentCounter implements InvocationHandler
+    {
+        private final FigureContent content = new FigureContent();
+
+        private int depth;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            // Same as the NumberingEngine, a protected macro marker counts as content.
+            if (this.depth == 0 && FigureContent.isTransparent(name)
+                && !(name.endsWith("MacroMarker") && isProtected((String) args[0], (Map<String, String>) args[1]))) {
+                return null;
+            }
+            if (name.startsWith("begin")) {
+                if (this.depth++ == 0) {
+                    this.content.add(name);
+                }
+            } else if (name.startsWith("end")) {
+                this.depth--;
+            } else if (this.depth == 0) {
+                this.content.add(name);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A header or figure whose content is being buffered until it ends.
+     */
+    private static final class BufferedBlock
+    {
+        private final boolean header;
+
+        private final HeaderLevel level;
+
+        private final String id;
+
+        private final Map<String, String> parameters;
+
+        private final QueueListener events = new QueueListener();
+
+        /**
+         * The number of nested figures being buffered.
+         */
+        private int depth;
+
+        BufferedBlock(boolean header, HeaderLevel level, String id, Map<String, String> parameters)
+        {
+            this.header = header;
+            this.level = level;
+            this.id = id;
+            this.parameters = parameters;
+        }
+    }
+
+    /**
+     * A Reference Macro event, along with its number once resolved.
+     */
+    private static final class PendingReference
+    {
+        private final String macroId;
+
+        private final Map<String, String> parameters;
+
+        private final String content;
+
+        private final boolean inline;
+
+        private final String id;
+
+        private final ReferenceType type;
+
+        private ReferenceType resolvedType;
+
+        private int[] number;
+
+        PendingReference(String macroId, Map<String, String> parameters, String content, boolean inline)
+        {
+            this.macroId = macroId;
+            this.parameters = parameters;
+            this.content = content;
+            this.inline = inline;
+
+            // Same parameters as the ReferenceMacroParameters bean.
+            String referenceId = parameters.get("id");
+            ReferenceType referenceType = null;
+            if (parameters.get("section") != null) {
+                referenceId = parameters.get("section");
+                referenceType = ReferenceType.SECTION;
+            } else if (parameters.get("figure") != null) {
+                referenceId = parameters.get("figure");
+                referenceType = ReferenceType.FIGURE;
+            } else if (parameters.get("type") != null) {
+                try {
+                    referenceType = ReferenceType.valueOf(parameters.get("type").toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    // Unknown type: the macro would fail so leave it unresolved.
+                    referenceId = null;
+                }
+            }
+            this.id = referenceId;
+            this.type = referenceType;
+        }
+    }
+}
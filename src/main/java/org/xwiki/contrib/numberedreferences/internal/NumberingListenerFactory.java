@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.rendering.listener.Listener;
+
+/**
+ * Creates the {@link NumberingListener} filters used to number headings and figures while streaming rendering events,
+ * without building the XDOM.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingListenerFactory.class)
+@Singleton
+public class NumberingListenerFactory
+{
+    @Inject
+    private ContextualLocalizationManager localizationManager;
+
+    @Inject
+    private NumberingConfiguration configuration;
+
+    /**
+     * @param listener the listener to which the numbered events are sent
+     * @return a filter numbering the events in a single pass, holding back the events that follow a forward reference
+     *         until it's resolved or until too many events are held back
+     */
+    public NumberingListener createListener(Listener listener)
+    {
+        return configure(new NumberingListener(listener, this.localizationManager, null));
+    }
+
+    /**
+     * @param listener the listener to which the numbered events are sent
+     * @param index the numbers to use to resolve the references (e.g. computed by a first pass over the same events
+     *            with an empty index), updated with the numbered blocks
+     * @return a filter numbering the events without holding back any event
+     */
+    public NumberingListener createListener(Listener listener, NumberingIndex index)
+    {
+        return configure(new NumberingListener(listener, this.localizationManager, index));
+    }
+
+    private NumberingListener configure(NumberingListener numberingListener)
+    {
+        numberingListener.setCompactLabels(this.configuration.isCompactLabels());
+        numberingListener.setFigureChapterLevel(this.configuration.getFigureChapterLevel());
+        numberingListener.setMaxHeldEvents(this.configuration.getMaxHeldEvents());
+        return numberingListener;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+/**
+ * Aggregates the statistics of the numbered transformations and exposes them as MBeans named
+ * {@code org.xwiki.contrib.numberedreferences:type=NumberingMetrics,name=<transformation hint>} so that they can be
+ * monitored with any JMX client. Other MBeans of the extension (e.g. the {@link NumberingCache}) are registered
+ * through this component too.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingMetrics.class)
+@Singleton
+public class NumberingMetrics implements Disposable
+{
+    private static final String DOMAIN = "org.xwiki.contrib.numberedreferences";
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, TransformationMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final Set<ObjectName> objectNames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param transformationHint the hint of the numbered transformation
+     * @return the metrics of the passed transformation, registered in the platform MBean server on first access
+     */
+    public TransformationMetrics getMetrics(String transformationHint)
+    {
+        return this.metrics.computeIfAbsent(transformationHint, this::createMetrics);
+    }
+
+    /**
+     * @param transformationHint the hint of the executed numbered transformation
+     * @param statistics the statistics of the execution
+     */
+    public void record(String transformationHint, NumberingStatistics statistics)
+    {
+        getMetrics(transformationHint).record(statistics);
+    }
+
+    /**
+     * Register a MBean named {@code org.xwiki.contrib.numberedreferences:type=<type>} in the platform MBean server,
+     * replacing any MBean previously registered with the same name (e.g. before an extension upgrade). Failures are
+     * only logged since the monitoring is not essential.
+     *
+     * @param type the type of the MBean
+     * @param mbean the MBean to register
+     */
+    public void registerMBean(String type, Object mbean)
+    {
+        try {
+            registerMBean(new ObjectName(DOMAIN + ":type=" + type), mbean);
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the [{}] MBean: {}", type, e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : this.objectNames) {
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                this.logger.warn("Failed to unregister the [{}] MBean: {}", objectName, e.getMessage());
+            }
+        }
+        this.objectNames.clear();
+        this.metrics.clear();
+    }
+
+    private TransformationMetrics createMetrics(String transformationHint)
+    {
+        TransformationMetrics transformationMetrics = new TransformationMetrics(transformationHint);
+        try {
+            registerMBean(new ObjectName(
+                DOMAIN + ":type=NumberingMetrics,name=" + ObjectName.quote(transformationHint)), transformationMetrics);
+        } catch (JMException e) {
+            // The metrics are still aggregated, they're just not exposed.
+            this.logger.warn("Failed to register the numbering metrics MBean for [{}]: {}", transformationHint,
+                e.getMessage());
+        }
+        return transformationMetrics;
+    }
+
+    private void registerMBean(ObjectName objectName, Object mbean) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        // Replace the MBean registered by a previous instance of this component (e.g. after an extension upgrade).
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(mbean, objectName);
+        this.objectNames.add(objectName);
+    }
+}
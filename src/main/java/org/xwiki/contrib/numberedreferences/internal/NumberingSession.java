@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+/**
+ * Numbering shared by the documents of a multi-document export (e.g. a book), so that the headings, figures and
+ * tables are numbered continuously from one document to the next instead of restarting in each document, and that
+ * the references between documents are resolved. The documents are transformed one at a time and only their counters
+ * and numbers (indexed by id) are kept, so the memory used doesn't depend on the size of the exported documents.
+ * <p>
+ * A reference to a block located in a following document can't be resolved when its document is transformed. Once
+ * all the documents have been transformed, call {@link #beginFixUp()} and transform again the documents returned by
+ * {@link #getDocumentsToFixUp()}: they're numbered again with the same numbers and their references are resolved
+ * using the numbers of all the documents.
+ * <p>
+ * The same id can be used in several documents, so the numbers are also kept per document: the references of a
+ * document are resolved against the ids of that document first, then against the ids of the other documents.
+ *
+ * @version $Id$
+ * @since 1.5
+ * @see NumberingSessionManager
+ */
+public class NumberingSession
+{
+    /**
+     * The numbers of a document, completed with the numbers of the other documents for the ids it doesn't use.
+     */
+    private static final class DocumentNumbers extends AbstractMap<String, int[]>
+    {
+        private final Map<String, int[]> documentNumbers;
+
+        private final Map<String, int[]> otherNumbers;
+
+        DocumentNumbers(Map<String, int[]> documentNumbers, Map<String, int[]> otherNumbers)
+        {
+            this.documentNumbers = documentNumbers;
+            this.otherNumbers = otherNumbers;
+        }
+
+        @Override
+        public int[] get(Object key)
+        {
+            int[] number = this.documentNumbers.get(key);
+            return number != null ? number : this.otherNumbers.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return this.documentNumbers.containsKey(key) || this.otherNumbers.containsKey(key);
+        }
+
+        @Override
+        public Set<Map.Entry<String, int[]>> entrySet()
+        {
+            Map<String, int[]> numbers = new HashMap<>(this.otherNumbers);
+            numbers.putAll(this.documentNumbers);
+            return Collections.unmodifiableMap(numbers).entrySet();
+        }
+    }
+
+    private final Map<ReferenceType, int[]> counters = new EnumMap<>(ReferenceType.class);
+
+    private final Map<ReferenceType, String> lastDocumentIds = new EnumMap<>(ReferenceType.class);
+
+    private final NumberingIndex index = new NumberingIndex();
+
+    private final Map<String, Map<ReferenceType, Map<String, int[]>>> documentNumbers = new HashMap<>();
+
+    private final Map<String, Map<ReferenceType, int[]>> documentCounters = new HashMap<>();
+
+    private final Map<String, Set<String>> unresolvedReferences = new LinkedHashMap<>();
+
+    private final Map<String, Set<String>> resolvedReferences = new HashMap<>();
+
+    private boolean fixUp;
+
+    /**
+     * Start the fix-up pass: the documents transformed from now on are numbered as they were the first time they were
+     * transformed, instead of continuing the numbering.
+     */
+    public void beginFixUp()
+    {
+        this.fixUp = true;
+    }
+
+    /**
+     * @return the identifiers of the documents containing references that couldn't be resolved when they were
+     *         transformed (typically references to blocks located in the following documents), in transformation
+     *         order
+     */
+    public Set<String> getDocumentsToFixUp()
+    {
+        Set<String> documentsToFixUp = new LinkedHashSet<>();
+        for (Map.Entry<String, Set<String>> entry : this.unresolvedReferences.entrySet()) {
+            // The references without type are unresolved only if no transformation resolved them.
+            Set<String> documentResolvedReferences = this.resolvedReferences.get(entry.getKey());
+            if (documentResolvedReferences == null || !documentResolvedReferences.containsAll(entry.getValue())) {
+                documentsToFixUp.add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableSet(documentsToFixUp);
+    }
+
+    /**
+     * @param type the type of the numbered blocks
+     * @param documentId the identifier of the transformed document, can be {@code null}
+     * @param initialCounters the counters to use for the first document
+     * @return the counters from which to number the blocks of the transformed document
+     */
+    int[] getCounters(ReferenceType type, String documentId, int[] initialCounters)
+    {
+        // A document transformed again (e.g. during the fix-up pass, or because it's displayed several times) is
+        // numbered from the same counters as the first time.
+        Map<ReferenceType, int[]> startCounters = documentId != null ? this.documentCounters.get(documentId) : null;
+        int[] typeCounters = startCounters != null ? startCounters.get(type) : null;
+        if (typeCounters == null && !this.fixUp) {
+            typeCounters = this.counters.get(type);
+        }
+        return (typeCounters != null ? typeCounters : initialCounters).clone();
+    }
+
+    /**
+     * Add the numbers of a transformed document. The numbering of the session advances only once per document: the
+     * numbers of a document transformed again replace its previous ones.
+     *
+     * @param type the type of the numbered blocks
+     * @param documentId the identifier of the transformed document, can be {@code null}
+     * @param startCounters the counters from which the blocks of the transformed document have been numbered
+     * @param endCounters the counters after the last numbered block of the transformed document
+     * @param numbers the numbers of the blocks of the transformed document, indexed by id
+     */
+    void addNumbers(ReferenceType type, String documentId, int[] startCounters, int[] endCounters,
+        Map<String, int[]> numbers)
+    {
+        if (!this.fixUp) {
+            if (documentId == null) {
+                this.lastDocumentIds.remove(type);
+                this.counters.put(type, endCounters);
+            } else {
+                Map<ReferenceType, int[]> documentStartCounters =
+                    this.documentCounters.computeIfAbsent(documentId, key -> new EnumMap<>(ReferenceType.class));
+                if (!documentStartCounters.containsKey(type)) {
+                    // Remember where the document numbering starts, in case it has to be fixed up.
+                    documentStartCounters.put(type, startCounters);
+                    this.lastDocumentIds.put(type, documentId);
+                }
+                // The following documents continue from the end of the last one.
+                if (documentId.equals(this.lastDocumentIds.get(type))) {
+                    this.counters.put(type, endCounters);
+                }
+            }
+        }
+        addNumbers(type, documentId, numbers, true);
+    }
+
+    /**
+     * Add the numbers of a transformed fragment (e.g. some included content transformed before the document
+     * including it). The fragment is numbered again with the whole document, so it doesn't advance the numbering.
+     *
+     * @param type the type of the numbered blocks
+     * @param documentId the identifier of the document for which the fragment is transformed
+     * @param numbers the numbers of the blocks of the transformed fragment, indexed by id
+     */
+    void addNumbers(ReferenceType type, String documentId, Map<String, int[]> numbers)
+    {
+        addNumbers(type, documentId, numbers, false);
+    }
+
+    private void addNumbers(ReferenceType type, String documentId, Map<String, int[]> numbers, boolean replace)
+    {
+        for (Map.Entry<String, int[]> number : numbers.entrySet()) {
+            this.index.put(type, number.getKey(), number.getValue());
+        }
+        if (documentId != null) {
+            Map<String, int[]> typeNumbers = this.documentNumbers
+                .computeIfAbsent(documentId, key -> new EnumMap<>(ReferenceType.class))
+                .computeIfAbsent(type, key -> new HashMap<>());
+            if (replace) {
+                typeNumbers.clear();
+            }
+            typeNumbers.putAll(numbers);
+        }
+    }
+
+    /**
+     * @param type the type of the numbered blocks
+     * @param documentId the identifier of the transformed document, can be {@code null}
+     * @return the numbers of the blocks of all the documents transformed so far, indexed by id, the ids of the passed
+     *         document taking precedence over the same ids in the other documents
+     */
+    Map<String, int[]> getNumbers(ReferenceType type, String documentId)
+    {
+        Map<String, int[]> numbers = this.index.getNumbers(type);
+        Map<ReferenceType, Map<String, int[]>> documentTypeNumbers =
+            documentId != null ? this.documentNumbers.get(documentId) : null;
+        Map<String, int[]> typeNumbers = documentTypeNumbers != null ? documentTypeNumbers.get(type) : null;
+        return typeNumbers == null || typeNumbers.isEmpty() ? numbers : new DocumentNumbers(typeNumbers, numbers);
+    }
+
+    /**
+     * Record a reference found in a transformed document. This doesn't rely on the numbering statistics since the
+     * references without type that a transformation can't resolve aren't counted as unresolved there: another
+     * transformation may resolve them.
+     *
+     * @param documentId the identifier of the transformed document, can be {@code null}
+     * @param referenceBlock the reference
+     * @param resolved whether the reference has been resolved
+     */
+    void addReference(String documentId, ReferenceBlock referenceBlock, boolean resolved)
+    {
+        if (documentId != null && !this.fixUp) {
+            String reference =
+                referenceBlock.getType() + ":" + referenceBlock.getDocumentId() + ":" + referenceBlock.getId();
+            (resolved ? this.resolvedReferences : this.unresolvedReferences)
+                .computeIfAbsent(documentId, key -> new HashSet<>()).add(reference);
+        }
+    }
+}
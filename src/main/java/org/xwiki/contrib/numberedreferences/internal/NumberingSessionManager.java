@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+/**
+ * Starts and ends the {@link NumberingSession} used to number continuously the documents transformed during the
+ * current execution (e.g. a multi-document export). For example:
+ *
+ * <pre>
+ * NumberingSession session = numberingSessionManager.beginSession();
+ * try {
+ *     // Transform each document of the book, in order.
+ *     session.beginFixUp();
+ *     // Transform again the documents returned by session.getDocumentsToFixUp().
+ * } finally {
+ *     numberingSessionManager.endSession();
+ * }
+ * </pre>
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+@Component(roles = NumberingSessionManager.class)
+@Singleton
+public class NumberingSessionManager
+{
+    private static final String SESSION_PROPERTY = "numberedreferences.session";
+
+    @Inject
+    private Execution execution;
+
+    /**
+     * Start a new session for the current execution, replacing the current one, if any.
+     *
+     * @return the new session
+     * @throws IllegalStateException if there's no execution context
+     */
+    public NumberingSession beginSession()
+    {
+        ExecutionContext executionContext = this.execution.getContext();
+        if (executionContext == null) {
+            throw new IllegalStateException("A numbering session requires an execution context");
+        }
+        NumberingSession session = new NumberingSession();
+        executionContext.setProperty(SESSION_PROPERTY, session);
+        return session;
+    }
+
+    /**
+     * @return the session of the current execution, or {@code null} if there's none
+     */
+    public NumberingSession getSession()
+    {
+        ExecutionContext executionContext = this.execution.getContext();
+        return executionContext != null ? (NumberingSession) executionContext.getProperty(SESSION_PROPERTY) : null;
+    }
+
+    /**
+     * End the session of the current execution, if any: the documents transformed from now on are numbered
+     * independently.
+     */
+    public void endSession()
+    {
+        ExecutionContext executionContext = this.execution.getContext();
+        if (executionContext != null) {
+            executionContext.removeProperty(SESSION_PROPERTY);
+        }
+    }
+}
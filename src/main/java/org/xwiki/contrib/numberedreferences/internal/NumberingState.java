@@ -0,0 +1,446 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.rendering.block.Block;
+
+/**
+ * The numbering of a transformed block, kept after the transformation so that the block can be renumbered
+ * incrementally when it's edited (see {@link AbstractNumberedTransformation#renumber(NumberingState, Block, Block)}):
+ * the numbered blocks in document order with their numbers and ids, and the references to them.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class NumberingState
+{
+    /**
+     * A numbered block with the counters after it and its number.
+     */
+    static final class Entry
+    {
+        private final Block block;
+
+        private final boolean table;
+
+        private final List<String> ids;
+
+        private int[] counters;
+
+        private int[] number;
+
+        /**
+         * The position of the entry in the document order, only up to date when it's before the
+         * {@link NumberingState#indexedSize}.
+         */
+        private int position;
+
+        Entry(Block block, boolean table, List<String> ids)
+        {
+            this.block = block;
+            this.table = table;
+            this.ids = ids;
+        }
+
+        Block getBlock()
+        {
+            return this.block;
+        }
+
+        boolean isTable()
+        {
+            return this.table;
+        }
+
+        List<String> getIds()
+        {
+            return this.ids;
+        }
+
+        int[] getCounters()
+        {
+            return this.counters;
+        }
+
+        void setCounters(int[] counters)
+        {
+            this.counters = counters;
+        }
+
+        int[] getNumber()
+        {
+            return this.number;
+        }
+
+        void setNumber(int[] number)
+        {
+            this.number = number;
+        }
+    }
+
+    /**
+     * A reference with the block that contains either the reference itself, when it's not resolved, or the link
+     * replacing it.
+     */
+    static final class Reference
+    {
+        private final ReferenceBlock referenceBlock;
+
+        private final Block ownerBlock;
+
+        private boolean resolved;
+
+        Reference(ReferenceBlock referenceBlock, Block ownerBlock, boolean resolved)
+        {
+            this.referenceBlock = referenceBlock;
+            this.ownerBlock = ownerBlock;
+            this.resolved = resolved;
+        }
+
+        ReferenceBlock getReferenceBlock()
+        {
+            return this.referenceBlock;
+        }
+
+        Block getOwnerBlock()
+        {
+            return this.ownerBlock;
+        }
+
+        boolean isResolved()
+        {
+            return this.resolved;
+        }
+
+        void setResolved(boolean resolved)
+        {
+            this.resolved = resolved;
+        }
+    }
+
+    private final Block rootBlock;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Blocks implement a content-based {@code equals()} so we need to use identity here.
+     */
+    private final Map<Block, Entry> entriesByBlock = new IdentityHashMap<>();
+
+    /**
+     * The number of entries, from the first one, whose position is up to date. The positions of the following ones
+     * are updated lazily, when they're looked up, since an edit shifts all the entries following it.
+     */
+    private int indexedSize;
+
+    private final Map<String, int[]> numbers = new HashMap<>();
+
+    private final Map<String, List<Reference>> references = new HashMap<>();
+
+    private List<NumberedEntityKind> kinds = Collections.emptyList();
+
+    /**
+     * @param rootBlock the transformed block
+     */
+    public NumberingState(Block rootBlock)
+    {
+        this.rootBlock = rootBlock;
+    }
+
+    /**
+     * @return the transformed block
+     */
+    public Block getRootBlock()
+    {
+        return this.rootBlock;
+    }
+
+    /**
+     * @return the kinds of entity looked up when the block was transformed, used to renumber it
+     */
+    public List<NumberedEntityKind> getKinds()
+    {
+        return this.kinds;
+    }
+
+    /**
+     * @param kinds the kinds of entity looked up when the block is transformed
+     */
+    public void setKinds(List<NumberedEntityKind> kinds)
+    {
+        this.kinds = kinds;
+    }
+
+    /**
+     * @return the numbers, indexed by id
+     */
+    public Map<String, int[]> getNumbers()
+    {
+        return Collections.unmodifiableMap(this.numbers);
+    }
+
+    /**
+     * @param block a numbered block
+     * @return the number of the passed block, {@code null} if the block is not numbered
+     */
+    public int[] getNumber(Block block)
+    {
+        Entry entry = this.entriesByBlock.get(block);
+        return entry != null ? entry.getNumber() : null;
+    }
+
+    /**
+     * @return the number of numbered blocks
+     */
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    Entry getEntry(int position)
+    {
+        return this.entries.get(position);
+    }
+
+    void addEntry(int position, Entry entry)
+    {
+        this.entries.add(position, entry);
+        this.entriesByBlock.put(entry.getBlock(), entry);
+        this.indexedSize = Math.min(this.indexedSize, position);
+    }
+
+    /**
+     * Remove the entries of the passed blocks, which are consecutive in document order. The first entry is looked up
+     * through the identity index of the entries since the removed blocks are not part of the XDOM anymore.
+     *
+     * @param blocks the removed numbered blocks, in document order
+     * @param removedEntries the list in which to add the removed entries
+     * @return the position of the first removed entry, -1 if the passed blocks are not numbered
+     */
+    int removeEntries(List<? extends Block> blocks, List<Entry> removedEntries)
+    {
+        int position = -1;
+        Entry firstEntry = blocks.isEmpty() ? null : this.entriesByBlock.get(blocks.get(0));
+        if (firstEntry != null) {
+            position = getPosition(firstEntry);
+            int end = position;
+            while (end < this.entries.size() && end - position < blocks.size()
+                && this.entries.get(end).getBlock() == blocks.get(end - position)) {
+                removedEntries.add(this.entriesByBlock.remove(this.entries.get(end).getBlock()));
+                end++;
+            }
+            this.entries.subList(position, end).clear();
+            this.indexedSize = Math.min(this.indexedSize, position);
+        }
+        return position;
+    }
+
+    private int getPosition(Entry entry)
+    {
+        if (entry.position < this.indexedSize && this.entries.get(entry.position) == entry) {
+            return entry.position;
+        }
+        // Update the positions up to the passed entry, which is located after the up to date ones.
+        while (this.indexedSize < this.entries.size()) {
+            Entry currentEntry = this.entries.get(this.indexedSize);
+            currentEntry.position = this.indexedSize++;
+            if (currentEntry == entry) {
+                return entry.position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param block a block of the XDOM
+     * @return the closest numbered block containing the passed block (or the block itself), {@code null} if there's
+     *         none
+     */
+    Block getEnclosingNumberedBlock(Block block)
+    {
+        Block currentBlock = block;
+        while (currentBlock != null && currentBlock != this.rootBlock) {
+            if (this.entriesByBlock.containsKey(currentBlock)) {
+                return currentBlock;
+            }
+            currentBlock = currentBlock.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * @param block a block of the XDOM
+     * @return the position at which the numbered blocks located in the passed block must be inserted, found with a
+     *         binary search on the document order
+     */
+    int getInsertPosition(Block block)
+    {
+        int low = 0;
+        int high = this.entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareDocumentOrder(this.entries.get(middle).getBlock(), block) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param block a block of the XDOM
+     * @return the position of the first numbered block located after the passed block and its descendants, found with
+     *         a binary search on the document order
+     */
+    int getEndPosition(Block block)
+    {
+        int low = 0;
+        int high = this.entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            Block middleBlock = this.entries.get(middle).getBlock();
+            if (compareDocumentOrder(middleBlock, block) < 0 || isDescendant(middleBlock, block)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    void putNumber(String id, int[] number)
+    {
+        this.numbers.put(id, number);
+    }
+
+    void removeNumber(String id, int[] number)
+    {
+        // Another block may use the same id.
+        if (Arrays.equals(this.numbers.get(id), number)) {
+            this.numbers.remove(id);
+        }
+    }
+
+    /**
+     * @param referenceBlock a reference to a block numbered by the transformation
+     * @param ownerBlock the block containing the reference before it's resolved
+     * @param resolved whether the reference has been replaced by a link
+     */
+    void addReference(ReferenceBlock referenceBlock, Block ownerBlock, boolean resolved)
+    {
+        List<Reference> idReferences = this.references.computeIfAbsent(referenceBlock.getId(), k -> new ArrayList<>());
+        for (Reference reference : idReferences) {
+            if (reference.getReferenceBlock() == referenceBlock) {
+                return;
+            }
+        }
+        idReferences.add(new Reference(referenceBlock, ownerBlock, resolved));
+    }
+
+    /**
+     * @param id an id
+     * @return the references to the passed id that are still part of the XDOM, the others being forgotten
+     */
+    List<Reference> getReferences(String id)
+    {
+        List<Reference> idReferences = this.references.get(id);
+        if (idReferences == null) {
+            return Collections.emptyList();
+        }
+        idReferences.removeIf(reference -> !isAttached(reference.getOwnerBlock()));
+        return idReferences;
+    }
+
+    private boolean isAttached(Block block)
+    {
+        // Removed blocks may still point to their former parent so we need to check the children too.
+        Block currentBlock = block;
+        while (currentBlock != this.rootBlock) {
+            Block parentBlock = currentBlock.getParent();
+            if (parentBlock == null || indexOfChild(parentBlock, currentBlock) < 0) {
+                return false;
+            }
+            currentBlock = parentBlock;
+        }
+        return true;
+    }
+
+    private static int compareDocumentOrder(Block block1, Block block2)
+    {
+        List<Block> path1 = getPath(block1);
+        List<Block> path2 = getPath(block2);
+        int i = 0;
+        while (i < path1.size() && i < path2.size() && path1.get(i) == path2.get(i)) {
+            i++;
+        }
+        if (i == 0) {
+            // Not in the same tree.
+            return 0;
+        } else if (i == path1.size()) {
+            // The first block contains the second one.
+            return i == path2.size() ? 0 : -1;
+        } else if (i == path2.size()) {
+            return 1;
+        }
+        Block parentBlock = path1.get(i - 1);
+        return Integer.compare(indexOfChild(parentBlock, path1.get(i)), indexOfChild(parentBlock, path2.get(i)));
+    }
+
+    private static boolean isDescendant(Block block, Block ancestorBlock)
+    {
+        for (Block currentBlock = block; currentBlock != null; currentBlock = currentBlock.getParent()) {
+            if (currentBlock == ancestorBlock) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Block> getPath(Block block)
+    {
+        List<Block> path = new ArrayList<>();
+        for (Block currentBlock = block; currentBlock != null; currentBlock = currentBlock.getParent()) {
+            path.add(currentBlock);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static int indexOfChild(Block parentBlock, Block childBlock)
+    {
+        List<Block> children = parentBlock.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i) == childBlock) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+/**
+ * What a single execution of a numbered transformation has done and how long each of its phases took.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class NumberingStatistics
+{
+    private int blockCount;
+
+    private int headerCount;
+
+    private int figureCount;
+
+    private int tableCount;
+
+    private int idCount;
+
+    private int resolvedReferenceCount;
+
+    private int unresolvedReferenceCount;
+
+    private long collectDuration;
+
+    private long numberDuration;
+
+    private long resolveDuration;
+
+    /**
+     * @param blockCount the number of blocks visited to collect the numbered blocks
+     */
+    public void setBlockCount(int blockCount)
+    {
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * @return the number of blocks visited to collect the numbered blocks
+     */
+    public int getBlockCount()
+    {
+        return this.blockCount;
+    }
+
+    /**
+     * @param headerCount the number of headers that have been numbered
+     */
+    public void setHeaderCount(int headerCount)
+    {
+        this.headerCount = headerCount;
+    }
+
+    /**
+     * @return the number of headers that have been numbered
+     */
+    public int getHeaderCount()
+    {
+        return this.headerCount;
+    }
+
+    /**
+     * @param figureCount the number of figures (which are not tables) that have been numbered
+     */
+    public void setFigureCount(int figureCount)
+    {
+        this.figureCount = figureCount;
+    }
+
+    /**
+     * @return the number of figures (which are not tables) that have been numbered
+     */
+    public int getFigureCount()
+    {
+        return this.figureCount;
+    }
+
+    /**
+     * @param tableCount the number of tables that have been numbered
+     */
+    public void setTableCount(int tableCount)
+    {
+        this.tableCount = tableCount;
+    }
+
+    /**
+     * @return the number of tables that have been numbered
+     */
+    public int getTableCount()
+    {
+        return this.tableCount;
+    }
+
+    /**
+     * @param idCount the number of ids associated with a number
+     */
+    public void setIdCount(int idCount)
+    {
+        this.idCount = idCount;
+    }
+
+    /**
+     * @return the number of ids associated with a number
+     */
+    public int getIdCount()
+    {
+        return this.idCount;
+    }
+
+    /**
+     * Count a reference that has been replaced by a link.
+     */
+    public void incrementResolvedReferenceCount()
+    {
+        this.resolvedReferenceCount++;
+    }
+
+    /**
+     * @return the number of references that have been replaced by a link
+     */
+    public int getResolvedReferenceCount()
+    {
+        return this.resolvedReferenceCount;
+    }
+
+    /**
+     * Count a reference of the type handled by the transformation that couldn't be resolved.
+     */
+    public void incrementUnresolvedReferenceCount()
+    {
+        this.unresolvedReferenceCount++;
+    }
+
+    /**
+     * @return the number of references of the type handled by the transformation that couldn't be resolved
+     */
+    public int getUnresolvedReferenceCount()
+    {
+        return this.unresolvedReferenceCount;
+    }
+
+    /**
+     * @param collectDuration the time spent collecting the blocks, in nanoseconds
+     */
+    public void setCollectDuration(long collectDuration)
+    {
+        this.collectDuration = collectDuration;
+    }
+
+    /**
+     * @return the time spent collecting the blocks, in nanoseconds
+     */
+    public long getCollectDuration()
+    {
+        return this.collectDuration;
+    }
+
+    /**
+     * @param numberDuration the time spent numbering the blocks, in nanoseconds
+     */
+    public void setNumberDuration(long numberDuration)
+    {
+        this.numberDuration = numberDuration;
+    }
+
+    /**
+     * @return the time spent numbering the blocks, in nanoseconds
+     */
+    public long getNumberDuration()
+    {
+        return this.numberDuration;
+    }
+
+    /**
+     * @param resolveDuration the time spent resolving the references, in nanoseconds
+     */
+    public void setResolveDuration(long resolveDuration)
+    {
+        this.resolveDuration = resolveDuration;
+    }
+
+    /**
+     * @return the time spent resolving the references, in nanoseconds
+     */
+    public long getResolveDuration()
+    {
+        return this.resolveDuration;
+    }
+}
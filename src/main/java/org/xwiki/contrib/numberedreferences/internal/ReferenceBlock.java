@@ -19,9 +19,14 @@
  */
 package org.xwiki.contrib.numberedreferences.internal;
 
+import java.util.Collections;
+import java.util.Map;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
 import org.xwiki.rendering.block.AbstractBlock;
+import org.xwiki.rendering.listener.Format;
 import org.xwiki.rendering.listener.Listener;
 
 /**
@@ -33,6 +38,9 @@ import org.xwiki.rendering.listener.Listener;
  */
 public class ReferenceBlock extends AbstractBlock
 {
+    private static final Map<String, String> UNKNOWN_NUMBER_PARAMETERS =
+        Collections.singletonMap("class", "wikigeneratedunknownreferencenumber");
+
     /**
      * The unique id for the reference/location.
      */
@@ -40,14 +48,37 @@ public class ReferenceBlock extends AbstractBlock
 
     private ReferenceType type;
 
+    /**
+     * The identifier of the document containing the reference/location, {@code null} for the current document.
+     */
+    private String documentId;
+
+    /**
+     * Whether the referenced document has never been numbered, so that the number is unknown.
+     */
+    private boolean unknownNumber;
+
     /**
      * @param id the unique id for the reference/location
      * @param type the type of id (section, figure, etc)
      */
     public ReferenceBlock(String id, ReferenceType type)
+    {
+        this(id, type, null);
+    }
+
+    /**
+     * @param id the unique id for the reference/location
+     * @param type the type of id (section, figure, etc)
+     * @param documentId the identifier of the document containing the reference/location (as used to index its
+     *            numbers, see {@link NumberingIndexManager}), {@code null} for the current document
+     * @since 1.5
+     */
+    public ReferenceBlock(String id, ReferenceType type, String documentId)
     {
         this.id = id;
         this.type = type;
+        this.documentId = documentId;
     }
 
     /**
@@ -66,10 +97,45 @@ public class ReferenceBlock extends AbstractBlock
         return this.type;
     }
 
+    /**
+     * @return the identifier of the document containing the reference/location, {@code null} for the current
+     *         document
+     * @since 1.5
+     */
+    public String getDocumentId()
+    {
+        return this.documentId;
+    }
+
+    /**
+     * @return {@code true} if the reference targets a document that has never been numbered, in which case it's
+     *         displayed as an unknown number
+     * @since 1.5
+     */
+    public boolean isUnknownNumber()
+    {
+        return this.unknownNumber;
+    }
+
+    /**
+     * @param unknownNumber {@code true} if the reference targets a document that has never been numbered
+     * @since 1.5
+     */
+    public void setUnknownNumber(boolean unknownNumber)
+    {
+        this.unknownNumber = unknownNumber;
+    }
+
     @Override
     public void traverse(Listener listener)
     {
-        // Don't do anything, this block is not supposed to be rendered anyway
+        // This block is replaced when the reference is resolved, so it's only rendered when the number is unknown.
+        if (this.unknownNumber) {
+            listener.beginFormat(Format.NONE, UNKNOWN_NUMBER_PARAMETERS);
+            listener.onSpecialSymbol('?');
+            listener.onSpecialSymbol('?');
+            listener.endFormat(Format.NONE, UNKNOWN_NUMBER_PARAMETERS);
+        }
     }
 
     @Override
@@ -84,6 +150,7 @@ public class ReferenceBlock extends AbstractBlock
 
             builder.appendSuper(super.equals(obj));
             builder.append(getId(), ((ReferenceBlock) obj).getId());
+            builder.append(getDocumentId(), ((ReferenceBlock) obj).getDocumentId());
 
             return builder.isEquals();
         }
@@ -98,6 +165,7 @@ public class ReferenceBlock extends AbstractBlock
 
         builder.appendSuper(super.hashCode());
         builder.append(getId());
+        builder.append(getDocumentId());
 
         return builder.toHashCode();
     }
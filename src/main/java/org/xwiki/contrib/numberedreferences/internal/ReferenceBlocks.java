@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+/**
+ * {@link ReferenceBlock} blocks indexed by {@link ReferenceType}, so that each numbered transformation only looks at
+ * the references it can resolve. References without a type can target any type of numbered block.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class ReferenceBlocks
+{
+    private final Map<ReferenceType, List<ReferenceBlock>> typedReferenceBlocks = new EnumMap<>(ReferenceType.class);
+
+    private final List<ReferenceBlock> untypedReferenceBlocks = new ArrayList<>();
+
+    /**
+     * @param referenceBlock the reference block to add
+     */
+    public void add(ReferenceBlock referenceBlock)
+    {
+        getList(referenceBlock.getType()).add(referenceBlock);
+    }
+
+    /**
+     * @param type the type of the reference blocks to return, {@code null} for the ones without type
+     * @return the reference blocks of the passed type, in the order in which they were added (the returned list can
+     *         be modified, e.g. to remove the resolved references)
+     */
+    public List<ReferenceBlock> get(ReferenceType type)
+    {
+        return getList(type);
+    }
+
+    /**
+     * @return {@code true} if there's no reference block at all
+     */
+    public boolean isEmpty()
+    {
+        if (!this.untypedReferenceBlocks.isEmpty()) {
+            return false;
+        }
+        for (List<ReferenceBlock> referenceBlocks : this.typedReferenceBlocks.values()) {
+            if (!referenceBlocks.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<ReferenceBlock> getList(ReferenceType type)
+    {
+        if (type == null) {
+            return this.untypedReferenceBlocks;
+        }
+        return this.typedReferenceBlocks.computeIfAbsent(type, key -> new ArrayList<>());
+    }
+}
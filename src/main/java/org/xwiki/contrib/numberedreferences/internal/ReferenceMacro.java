@@ -22,10 +22,17 @@ package org.xwiki.contrib.numberedreferences.internal;
 import java.util.Collections;
 import java.util.List;
 
+import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.macro.AbstractMacro;
 import org.xwiki.rendering.transformation.MacroTransformationContext;
@@ -47,6 +54,14 @@ public class ReferenceMacro extends AbstractMacro<ReferenceMacroParameters>
     private static final String DESCRIPTION =
         "Create a link to a section id, displaying the section number as the link label.";
 
+    private static final String CURRENT_HINT = "current";
+
+    @Inject
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private Logger logger;
+
     /**
      * Create and initialize the descriptor of the macro.
      */
@@ -69,7 +84,33 @@ public class ReferenceMacro extends AbstractMacro<ReferenceMacroParameters>
         // It'll be the "numberedheadings" and "numberedfigures" transformations's goals to modify the XDOM for the
         // macro when it executes, thus computing the section/figure number and replacing the ReferenceBlock with a
         // LinkBlock.
-        ReferenceBlock block = new ReferenceBlock(parameters.getId(), parameters.getType());
+        // The references to other documents are resolved from the numbering index of the target document.
+        ReferenceBlock block =
+            new ReferenceBlock(parameters.getId(), parameters.getType(), getDocumentId(parameters.getDocument()));
         return Collections.singletonList(block);
     }
+
+    private String getDocumentId(String document)
+    {
+        // The documents are identified by their serialized absolute reference when they're transformed, so resolve
+        // the (possibly relative) passed reference the same way, when the model is available (i.e. not in the
+        // rendering standalone).
+        String documentId = document;
+        if (document != null) {
+            ComponentManager componentManager = this.componentManagerProvider.get();
+            if (componentManager.hasComponent(DocumentReferenceResolver.TYPE_STRING, CURRENT_HINT)) {
+                try {
+                    DocumentReferenceResolver<String> resolver =
+                        componentManager.getInstance(DocumentReferenceResolver.TYPE_STRING, CURRENT_HINT);
+                    EntityReferenceSerializer<String> serializer =
+                        componentManager.getInstance(EntityReferenceSerializer.TYPE_STRING);
+                    documentId = serializer.serialize(resolver.resolve(document));
+                } catch (ComponentLookupException e) {
+                    this.logger.debug("Failed to resolve the referenced document [{}]: {}", document,
+                        e.getMessage());
+                }
+            }
+        }
+        return documentId;
+    }
 }
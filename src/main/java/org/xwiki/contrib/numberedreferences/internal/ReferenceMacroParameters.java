@@ -19,10 +19,11 @@
  */
 package org.xwiki.contrib.numberedreferences.internal;
 
+import org.xwiki.contrib.numberedreferences.ReferenceType;
 import org.xwiki.properties.annotation.PropertyDescription;
 
-import static org.xwiki.contrib.numberedreferences.internal.ReferenceType.FIGURE;
-import static org.xwiki.contrib.numberedreferences.internal.ReferenceType.SECTION;
+import static org.xwiki.contrib.numberedreferences.ReferenceType.FIGURE;
+import static org.xwiki.contrib.numberedreferences.ReferenceType.SECTION;
 
 /**
  * Parameters for the {@link ReferenceMacro} Macro.
@@ -42,6 +43,11 @@ public class ReferenceMacroParameters
      */
     private ReferenceType type;
 
+    /**
+     * The document containing the id to link to.
+     */
+    private String document;
+
     /**
      * @param section the id of the section to link to
      */
@@ -80,6 +86,16 @@ public class ReferenceMacroParameters
         this.type = type;
     }
 
+    /**
+     * @param document the reference of the document containing the id to link to
+     * @since 1.5
+     */
+    @PropertyDescription("Reference of the document containing the id to link to (the current document by default)")
+    public void setDocument(String document)
+    {
+        this.document = document;
+    }
+
     /**
      * @return the id to link to
      */
@@ -111,4 +127,13 @@ public class ReferenceMacroParameters
     {
         return this.type;
     }
+
+    /**
+     * @return the reference of the document containing the id to link to, {@code null} for the current document
+     * @since 1.5
+     */
+    public String getDocument()
+    {
+        return this.document;
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics aggregated over all the executions of a numbered transformation.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public class TransformationMetrics implements TransformationMetricsMBean
+{
+    private final String transformationHint;
+
+    private final LongAdder invocationCount = new LongAdder();
+
+    private final LongAdder headerCount = new LongAdder();
+
+    private final LongAdder figureCount = new LongAdder();
+
+    private final LongAdder tableCount = new LongAdder();
+
+    private final LongAdder idCount = new LongAdder();
+
+    private final LongAdder resolvedReferenceCount = new LongAdder();
+
+    private final LongAdder unresolvedReferenceCount = new LongAdder();
+
+    private final LatencyHistogram collectLatency = new LatencyHistogram();
+
+    private final LatencyHistogram numberLatency = new LatencyHistogram();
+
+    private final LatencyHistogram resolveLatency = new LatencyHistogram();
+
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    /**
+     * @param transformationHint the hint of the transformation for which the metrics are aggregated
+     */
+    public TransformationMetrics(String transformationHint)
+    {
+        this.transformationHint = transformationHint;
+    }
+
+    /**
+     * @return the hint of the transformation for which the metrics are aggregated
+     */
+    public String getTransformationHint()
+    {
+        return this.transformationHint;
+    }
+
+    /**
+     * @param statistics the statistics of an execution of the transformation
+     */
+    public void record(NumberingStatistics statistics)
+    {
+        this.invocationCount.increment();
+        this.headerCount.add(statistics.getHeaderCount());
+        this.figureCount.add(statistics.getFigureCount());
+        this.tableCount.add(statistics.getTableCount());
+        this.idCount.add(statistics.getIdCount());
+        this.resolvedReferenceCount.add(statistics.getResolvedReferenceCount());
+        this.unresolvedReferenceCount.add(statistics.getUnresolvedReferenceCount());
+        this.collectLatency.record(statistics.getCollectDuration());
+        this.numberLatency.record(statistics.getNumberDuration());
+        this.resolveLatency.record(statistics.getResolveDuration());
+        this.totalLatency.record(
+            statistics.getCollectDuration() + statistics.getNumberDuration() + statistics.getResolveDuration());
+    }
+
+    @Override
+    public long getInvocationCount()
+    {
+        return this.invocationCount.sum();
+    }
+
+    @Override
+    public long getHeaderCount()
+    {
+        return this.headerCount.sum();
+    }
+
+    @Override
+    public long getFigureCount()
+    {
+        return this.figureCount.sum();
+    }
+
+    @Override
+    public long getTableCount()
+    {
+        return this.tableCount.sum();
+    }
+
+    @Override
+    public long getIdCount()
+    {
+        return this.idCount.sum();
+    }
+
+    @Override
+    public long getResolvedReferenceCount()
+    {
+        return this.resolvedReferenceCount.sum();
+    }
+
+    @Override
+    public long getUnresolvedReferenceCount()
+    {
+        return this.unresolvedReferenceCount.sum();
+    }
+
+    @Override
+    public long[] getLatencyBucketBounds()
+    {
+        return LatencyHistogram.getBucketBounds();
+    }
+
+    @Override
+    public long[] getCollectLatencyHistogram()
+    {
+        return this.collectLatency.getBucketCounts();
+    }
+
+    @Override
+    public long[] getNumberLatencyHistogram()
+    {
+        return this.numberLatency.getBucketCounts();
+    }
+
+    @Override
+    public long[] getResolveLatencyHistogram()
+    {
+        return this.resolveLatency.getBucketCounts();
+    }
+
+    @Override
+    public long[] getTotalLatencyHistogram()
+    {
+        return this.totalLatency.getBucketCounts();
+    }
+
+    @Override
+    public double getMeanTotalLatency()
+    {
+        return this.totalLatency.getMean();
+    }
+
+    @Override
+    public long getMaxTotalLatency()
+    {
+        return this.totalLatency.getMax();
+    }
+
+    @Override
+    public void reset()
+    {
+        this.invocationCount.reset();
+        this.headerCount.reset();
+        this.figureCount.reset();
+        this.tableCount.reset();
+        this.idCount.reset();
+        this.resolvedReferenceCount.reset();
+        this.unresolvedReferenceCount.reset();
+        this.collectLatency.reset();
+        this.numberLatency.reset();
+        this.resolveLatency.reset();
+        this.totalLatency.reset();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+/**
+ * JMX interface exposing the {@link TransformationMetrics} of a numbered transformation. Durations are in
+ * microseconds and the histogram bucket counts match the {@link #getLatencyBucketBounds() bucket bounds}, plus a last
+ * bucket for the longer durations.
+ *
+ * @version $Id$
+ * @since 1.5
+ */
+public interface TransformationMetricsMBean
+{
+    /**
+     * @return the number of times the transformation has been executed
+     */
+    long getInvocationCount();
+
+    /**
+     * @return the number of numbered headers
+     */
+    long getHeaderCount();
+
+    /**
+     * @return the number of numbered figures (which are not tables)
+     */
+    long getFigureCount();
+
+    /**
+     * @return the number of numbered tables
+     */
+    long getTableCount();
+
+    /**
+     * @return the number of ids associated with a number
+     */
+    long getIdCount();
+
+    /**
+     * @return the number of references replaced by a link
+     */
+    long getResolvedReferenceCount();
+
+    /**
+     * @return the number of references of the type handled by the transformation that couldn't be resolved
+     */
+    long getUnresolvedReferenceCount();
+
+    /**
+     * @return the upper bounds (exclusive) of the latency histogram buckets, in microseconds
+     */
+    long[] getLatencyBucketBounds();
+
+    /**
+     * @return the latency histogram of the collect phase
+     */
+    long[] getCollectLatencyHistogram();
+
+    /**
+     * @return the latency histogram of the number phase
+     */
+    long[] getNumberLatencyHistogram();
+
+    /**
+     * @return the latency histogram of the resolve phase
+     */
+    long[] getResolveLatencyHistogram();
+
+    /**
+     * @return the latency histogram of the whole transformation
+     */
+    long[] getTotalLatencyHistogram();
+
+    /**
+     * @return the average duration of the whole transformation, in microseconds
+     */
+    double getMeanTotalLatency();
+
+    /**
+     * @return the longest duration of the whole transformation, in microseconds
+     */
+    long getMaxTotalLatency();
+
+    /**
+     * Reset all the metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.extension.event.ExtensionInstalledEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CaptionPrefixTemplatesInvalidator}.
+ *
+ * @version $Id$
+ */
+public class CaptionPrefixTemplatesInvalidatorTest
+{
+    private static final DocumentReference TRANSLATION_CLASS =
+        new DocumentReference("wiki", "XWiki", "TranslationDocumentClass");
+
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<>(CaptionPrefixTemplatesInvalidator.class);
+
+    private CaptionPrefixTemplates captionPrefixTemplates;
+
+    private NumberingCache numberingCache;
+
+    private DocumentAccessBridge documentAccessBridge;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.captionPrefixTemplates = this.mocker.getInstance(CaptionPrefixTemplates.class);
+        this.numberingCache = this.mocker.getInstance(NumberingCache.class);
+        this.documentAccessBridge = this.mocker.getInstance(DocumentAccessBridge.class);
+    }
+
+    @Test
+    public void onEvent() throws Exception
+    {
+        DocumentReference pageReference = new DocumentReference("wiki", "Space", "Page");
+        DocumentReference translationsReference = new DocumentReference("wiki", "Space", "Translations");
+        when(this.documentAccessBridge.getProperty(translationsReference, TRANSLATION_CLASS, "scope"))
+            .thenReturn("WIKI");
+
+        // Saving a document without translations doesn't invalidate anything.
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), createDocument(pageReference), null);
+        verify(this.captionPrefixTemplates, never()).invalidate();
+        verify(this.numberingCache, never()).invalidate();
+
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(),
+            createDocument(translationsReference), null);
+        verify(this.captionPrefixTemplates, times(1)).invalidate();
+        verify(this.numberingCache, times(1)).invalidate();
+
+        this.mocker.getComponentUnderTest().onEvent(new DocumentDeletedEvent(), createDocument(pageReference), null);
+        verify(this.captionPrefixTemplates, times(2)).invalidate();
+
+        this.mocker.getComponentUnderTest().onEvent(new ExtensionInstalledEvent(), null, null);
+        verify(this.captionPrefixTemplates, times(3)).invalidate();
+        verify(this.numberingCache, times(3)).invalidate();
+    }
+
+    @Test
+    public void onEventWhenTranslationObjectRemoved() throws Exception
+    {
+        DocumentReference translationsReference = new DocumentReference("wiki", "Space", "Translations");
+        when(this.documentAccessBridge.getProperty(translationsReference, TRANSLATION_CLASS, "scope"))
+            .thenReturn("WIKI");
+
+        // The original document is checked before the save, without invalidating anything yet.
+        DocumentModelBridge document = createDocument(translationsReference);
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatingEvent(), document, null);
+        verify(this.captionPrefixTemplates, never()).invalidate();
+
+        // The saved document doesn't have the translation object anymore.
+        when(this.documentAccessBridge.getProperty(translationsReference, TRANSLATION_CLASS, "scope"))
+            .thenReturn(null);
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), document, null);
+        verify(this.captionPrefixTemplates, times(1)).invalidate();
+        verify(this.numberingCache, times(1)).invalidate();
+
+        // It's not a translation document anymore.
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatingEvent(), document, null);
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), document, null);
+        verify(this.captionPrefixTemplates, times(1)).invalidate();
+    }
+
+    private DocumentModelBridge createDocument(DocumentReference documentReference)
+    {
+        DocumentModelBridge document = mock(DocumentModelBridge.class);
+        when(document.getDocumentReference()).thenReturn(documentReference);
+        return document;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.LocalizationContext;
+import org.xwiki.localization.Translation;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.CompositeBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CaptionPrefixTemplates}.
+ *
+ * @version $Id$
+ */
+public class CaptionPrefixTemplatesTest
+{
+    private static final String KEY = "transformation.numberedReferences.figurePrefix";
+
+    @Rule
+    public MockitoComponentMockingRule<CaptionPrefixTemplates> mocker =
+        new MockitoComponentMockingRule<>(CaptionPrefixTemplates.class);
+
+    private ContextualLocalizationManager localizationManager;
+
+    private LocalizationContext localizationContext;
+
+    private Translation translation;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.localizationManager = this.mocker.getInstance(ContextualLocalizationManager.class);
+        this.localizationContext = this.mocker.getInstance(LocalizationContext.class);
+        when(this.localizationContext.getCurrentLocale()).thenReturn(Locale.ENGLISH);
+
+        this.translation = mock(Translation.class);
+        when(this.translation.render(any())).thenAnswer(invocation -> new CompositeBlock(
+            Arrays.asList(new WordBlock("Figure"), new SpaceBlock(), new WordBlock(invocation.getArgument(0) + ":"))));
+        when(this.localizationManager.getTranslation(KEY)).thenReturn(this.translation);
+    }
+
+    @Test
+    public void getTemplate() throws Exception
+    {
+        CaptionPrefixTemplate template = this.mocker.getComponentUnderTest().getTemplate(KEY);
+        assertSame(template, this.mocker.getComponentUnderTest().getTemplate(KEY));
+
+        Block prefix = template.render(2);
+        assertEquals(new CompositeBlock(
+            Arrays.asList(new WordBlock("Figure"), new SpaceBlock(), new WordBlock("2:"))), prefix);
+        // The prefixes are rendered once per number but each call returns a copy that can be inserted in the XDOM.
+        assertNotSame(prefix, template.render(2));
+        verify(this.translation, times(1)).render(2);
+        verify(this.localizationManager, times(1)).getTranslation(KEY);
+
+        // The templates are kept per locale.
+        when(this.localizationContext.getCurrentLocale()).thenReturn(Locale.FRENCH);
+        this.mocker.getComponentUnderTest().getTemplate(KEY);
+        verify(this.localizationManager, times(2)).getTranslation(KEY);
+
+        // The translations are looked up again once the templates are invalidated.
+        when(this.localizationContext.getCurrentLocale()).thenReturn(Locale.ENGLISH);
+        this.mocker.getComponentUnderTest().invalidate();
+        assertNotSame(template, this.mocker.getComponentUnderTest().getTemplate(KEY));
+        verify(this.localizationManager, times(3)).getTranslation(KEY);
+    }
+
+    @Test
+    public void getTemplatePerWiki() throws Exception
+    {
+        ModelContext modelContext = this.mocker.getInstance(ModelContext.class);
+        when(modelContext.getCurrentEntityReference()).thenReturn(new DocumentReference("wiki1", "Space", "Page"));
+        CaptionPrefixTemplate template = this.mocker.getComponentUnderTest().getTemplate(KEY);
+
+        // The translation bundles can be defined per wiki.
+        when(modelContext.getCurrentEntityReference()).thenReturn(new DocumentReference("wiki2", "Space", "Page"));
+        assertNotSame(template, this.mocker.getComponentUnderTest().getTemplate(KEY));
+        verify(this.localizationManager, times(2)).getTranslation(KEY);
+
+        when(modelContext.getCurrentEntityReference()).thenReturn(new DocumentReference("wiki1", "Other", "Page"));
+        assertSame(template, this.mocker.getComponentUnderTest().getTemplate(KEY));
+    }
+
+    @Test
+    public void getTemplateWhenMissingTranslation() throws Exception
+    {
+        assertNull(this.mocker.getComponentUnderTest().getTemplate("missing"));
+    }
+}
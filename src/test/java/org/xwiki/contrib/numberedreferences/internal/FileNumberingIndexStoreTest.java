@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FileNumberingIndexStore}.
+ *
+ * @version $Id$
+ */
+public class FileNumberingIndexStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileNumberingIndexStore store;
+
+    private File directory;
+
+    @Before
+    public void setUp()
+    {
+        this.directory = new File(this.folder.getRoot(), "index");
+        this.store = new FileNumberingIndexStore();
+        this.store.setDirectory(this.directory);
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception
+    {
+        assertNull(this.store.load("Space.Page/FIGURE"));
+
+        NumberingIndex index = new NumberingIndex();
+        index.setContentHash(42L);
+        index.addBlockNumber(new int[] { 1 }, false);
+        index.addBlockNumber(new int[] { 1 }, true);
+        index.addBlockNumber(new int[] { 2 }, false);
+        index.put(ReferenceType.FIGURE, "F2", new int[] { 2 });
+        index.put(ReferenceType.FIGURE, "T1", new int[] { 1 });
+        this.store.save("Space.Page/FIGURE", index);
+
+        NumberingIndex loadedIndex = this.store.load("Space.Page/FIGURE");
+        assertEquals(42L, loadedIndex.getContentHash());
+        assertEquals(3, loadedIndex.getBlockNumbers().size());
+        assertArrayEquals(new int[] { 2 }, loadedIndex.getBlockNumbers().get(2));
+        assertFalse(loadedIndex.isTable(0));
+        assertTrue(loadedIndex.isTable(1));
+        assertArrayEquals(new int[] { 2 }, loadedIndex.get(ReferenceType.FIGURE, "F2"));
+        assertArrayEquals(new int[] { 1 }, loadedIndex.get(ReferenceType.FIGURE, "T1"));
+        assertNull(loadedIndex.get(ReferenceType.SECTION, "F2"));
+
+        // Only the index file is left in the directory.
+        assertEquals(1, this.directory.list().length);
+        assertNull(this.store.load("Other.Page/FIGURE"));
+    }
+
+    @Test
+    public void saveReplacesPreviousIndex() throws Exception
+    {
+        NumberingIndex index = new NumberingIndex();
+        index.setContentHash(1L);
+        index.put(ReferenceType.SECTION, "A", new int[] { 1, 2 });
+        this.store.save("Space.Page/SECTION", index);
+
+        index = new NumberingIndex();
+        index.setContentHash(2L);
+        this.store.save("Space.Page/SECTION", index);
+
+        NumberingIndex loadedIndex = this.store.load("Space.Page/SECTION");
+        assertEquals(2L, loadedIndex.getContentHash());
+        assertNull(loadedIndex.get(ReferenceType.SECTION, "A"));
+    }
+
+    @Test
+    public void loadIgnoresOtherFormats() throws Exception
+    {
+        this.store.save("Space.Page/SECTION", new NumberingIndex());
+        File file = this.directory.listFiles()[0];
+        Files.write(file.toPath(), new byte[] { 0, 0, 0, 0 });
+
+        assertNull(this.store.load("Space.Page/SECTION"));
+    }
+}
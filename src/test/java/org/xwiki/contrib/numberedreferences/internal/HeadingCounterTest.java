@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import org.junit.Test;
+import org.xwiki.rendering.listener.HeaderLevel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link HeadingCounter}.
+ *
+ * @version $Id$
+ */
+public class HeadingCounterTest
+{
+    @Test
+    public void next()
+    {
+        HeadingCounter counter = new HeadingCounter();
+        assertEquals("", counter.toString());
+
+        counter.next(HeaderLevel.LEVEL1);
+        assertEquals("1", counter.toString());
+        counter.next(HeaderLevel.LEVEL3);
+        assertEquals("1.1.1", counter.toString());
+        counter.next(HeaderLevel.LEVEL3);
+        assertEquals("1.1.2", counter.toString());
+        counter.next(HeaderLevel.LEVEL2);
+        assertEquals("1.2", counter.toString());
+        counter.next(HeaderLevel.LEVEL6);
+        assertEquals("1.2.1.1.1.1", counter.toString());
+        counter.next(HeaderLevel.LEVEL1);
+        assertEquals("2", counter.toString());
+        counter.next(HeaderLevel.LEVEL2);
+        assertEquals("2.1", counter.toString());
+
+        assertEquals(2, counter.getDepth());
+        assertEquals(2, counter.get(0));
+        assertArrayEquals(new int[] { 2, 1 }, counter.toArray());
+    }
+
+    @Test
+    public void nextFromNumber()
+    {
+        HeadingCounter counter = new HeadingCounter(new int[] { 1, 2, 3 });
+        assertEquals("1.2.3", counter.toString());
+
+        counter.next(HeaderLevel.LEVEL2);
+        assertEquals("1.3", counter.toString());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link NumberBlocks}.
+ *
+ * @version $Id$
+ */
+public class NumberBlocksTest
+{
+    @Test
+    public void getNumberBlock()
+    {
+        Block numberBlock = NumberBlocks.getNumberBlock(12);
+        assertNotSame(numberBlock, NumberBlocks.getNumberBlock(12));
+        assertEquals("12", ((WordBlock) numberBlock).getWord());
+        // The words of the small numbers are shared.
+        assertSame(((WordBlock) numberBlock).getWord(), ((WordBlock) NumberBlocks.getNumberBlock(12)).getWord());
+
+        int largeNumber = NumberBlocks.SHARED_NUMBER_COUNT;
+        assertEquals(String.valueOf(largeNumber), ((WordBlock) NumberBlocks.getNumberBlock(largeNumber)).getWord());
+    }
+
+    @Test
+    public void insertInSeveralParents()
+    {
+        Block firstParent = new ParagraphBlock(
+            Arrays.asList(NumberBlocks.getNumberBlock(1), NumberBlocks.getDotBlock(), NumberBlocks.getNumberBlock(2)));
+        Block secondParent = new ParagraphBlock(Arrays.asList(NumberBlocks.getDotBlock()));
+
+        // Each block is linked to its parent and siblings.
+        Block dotBlock = firstParent.getChildren().get(1);
+        assertSame(firstParent, dotBlock.getParent());
+        assertSame(firstParent.getChildren().get(2), dotBlock.getNextSibling());
+        assertSame(secondParent, secondParent.getChildren().get(0).getParent());
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.numberedreferences.NumberedEntityKind;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FigureBlock;
+import org.xwiki.rendering.block.GroupBlock;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.internal.transformation.macro.MacroTransformation;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.transformation.Transformation;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.rendering.transformation.TransformationException;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Integration tests for {@link NumberedEntitiesTransformation}.
+ *
+ * @version $Id$
+ */
+@AllComponents
+public class NumberedEntitiesTransformationTest
+{
+    private static final String CLASS = "class";
+
+    private static final String NUMBER_PARAMETER = "data-number";
+
+    @Rule
+    public MockitoComponentMockingRule<Transformation> mocker = new MockitoComponentMockingRule<>(
+        NumberedEntitiesTransformation.class);
+
+    /**
+     * Numbers the groups having a given class, the number being set as a parameter of the group.
+     */
+    private static final class GroupKind implements NumberedEntityKind
+    {
+        private final String classValue;
+
+        private final String counter;
+
+        GroupKind(String classValue, String counter)
+        {
+            this.classValue = classValue;
+            this.counter = counter;
+        }
+
+        @Override
+        public boolean match(Block block)
+        {
+            return block instanceof GroupBlock && this.classValue.equals(block.getParameter(CLASS));
+        }
+
+        @Override
+        public String getCounter()
+        {
+            return this.counter;
+        }
+
+        @Override
+        public void insertNumber(Block block, int[] number)
+        {
+            block.setParameter(NUMBER_PARAMETER, String.valueOf(number[0]));
+        }
+    }
+
+    @Test
+    public void transform() throws Exception
+    {
+        // Theorems and lemmas share the same counter.
+        this.mocker.registerComponent(NumberedEntityKind.class, "equation", new GroupKind("equation", "equation"));
+        this.mocker.registerComponent(NumberedEntityKind.class, "theorem", new GroupKind("theorem", "theorem"));
+        this.mocker.registerComponent(NumberedEntityKind.class, "lemma", new GroupKind("lemma", "theorem"));
+
+        String content = "(% class=\"theorem\" %)\n"
+            + "(((\n"
+            + "{{id name='T1'/}}Pythagoras\n"
+            + ")))\n\n"
+            + "(% class=\"equation\" %)\n"
+            + "(((\n"
+            + "E = mc2\n"
+            + ")))\n\n"
+            + "(% class=\"lemma\" %)\n"
+            + "(((\n"
+            + "{{id name='L1'/}}Lemma\n"
+            + ")))\n\n"
+            + "(% class=\"equation\" %)\n"
+            + "(((\n"
+            + "{{id name='E2'/}}F = ma\n"
+            + ")))\n\n"
+            + "See {{reference id='T1' type='entity'/}}, {{reference id='L1'/}} and {{reference id='E2'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        // Execute the Macro transformation
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        List<String> numbers = new ArrayList<>();
+        for (Block groupBlock : xdom.getBlocks(new ClassBlockMatcher(GroupBlock.class), Block.Axes.DESCENDANT)) {
+            numbers.add(groupBlock.getParameter(CLASS) + ' ' + groupBlock.getParameter(NUMBER_PARAMETER));
+        }
+        assertEquals(Arrays.asList("theorem 1", "equation 1", "lemma 2", "equation 2"), numbers);
+
+        List<String> labels = new ArrayList<>();
+        for (Block linkBlock : xdom.getBlocks(new ClassBlockMatcher(LinkBlock.class), Block.Axes.DESCENDANT)) {
+            labels.add(((WordBlock) linkBlock.getChildren().get(0)).getWord());
+        }
+        assertEquals(Arrays.asList("1", "2", "2"), labels);
+    }
+
+    @Test
+    public void transformWithSameIdInDifferentKinds() throws Exception
+    {
+        this.mocker.registerComponent(NumberedEntityKind.class, "equation", new GroupKind("equation", "equation"));
+        this.mocker.registerComponent(NumberedEntityKind.class, "theorem", new GroupKind("theorem", "theorem"));
+
+        String content = "(% class=\"equation\" %)\n"
+            + "(((\n"
+            + "{{id name='X'/}}E = mc2\n"
+            + ")))\n\n"
+            + "(% class=\"theorem\" %)\n"
+            + "(((\n"
+            + "{{id name='X'/}}Pythagoras\n"
+            + ")))";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        // A reference to X couldn't tell which entity it targets.
+        try {
+            this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+            fail("Should have rejected the duplicate id");
+        } catch (TransformationException expected) {
+            assertEquals("The id [X] is used by numbered entities of different kinds (counted as [equation] and "
+                + "[theorem])", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void renumber() throws Exception
+    {
+        this.mocker.registerComponent(NumberedEntityKind.class, "equation", new GroupKind("equation", "equation"));
+        this.mocker.registerComponent(NumberedEntityKind.class, "theorem", new GroupKind("theorem", "theorem"));
+
+        String content = "(% class=\"equation\" %)\n"
+            + "(((\n"
+            + "E = mc2\n"
+            + ")))\n\n"
+            + "(% class=\"theorem\" %)\n"
+            + "(((\n"
+            + "{{id name='T1'/}}Pythagoras\n"
+            + ")))\n\n"
+            + "See {{reference id='T1'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        NumberedEntitiesTransformation transformation =
+            (NumberedEntitiesTransformation) this.mocker.getComponentUnderTest();
+        NumberingState state = transformation.transformIncrementally(xdom, new TransformationContext());
+        assertEquals(Arrays.asList("equation 1", "theorem 1"), getNumbers(xdom));
+
+        // Insert a theorem before the referenced one: the kinds looked up by the transformation are reused.
+        Block theoremBlock =
+            parser.parse(new StringReader("(% class=\"theorem\" %)\n(((\nThales\n)))")).getChildren().get(0);
+        xdom.insertChildBefore(theoremBlock, xdom.getChildren().get(1));
+        transformation.renumber(state, null, theoremBlock);
+
+        assertEquals(Arrays.asList("equation 1", "theorem 1", "theorem 2"), getNumbers(xdom));
+        assertArrayEquals(new int[] { 2 }, state.getNumbers().get("T1"));
+    }
+
+    @Test
+    public void transformWithFigureKind() throws Exception
+    {
+        // Number the figures as listings.
+        this.mocker.registerComponent(NumberedEntityKind.class, "listing", new NumberedEntityKind()
+        {
+            @Override
+            public boolean match(Block block)
+            {
+                return block instanceof FigureBlock;
+            }
+
+            @Override
+            public String getCounter()
+            {
+                return "listing";
+            }
+
+            @Override
+            public void insertNumber(Block block, int[] number)
+            {
+                block.setParameter(NUMBER_PARAMETER, String.valueOf(number[0]));
+            }
+        });
+
+        String content = "{{figure}}\n"
+            + "{{id name='L1'/}}Some code\n"
+            + "{{/figure}}\n\n"
+            + "See {{reference id='L1'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        // The kinds are matched before the figures.
+        NumberedBlocks numberedBlocks = this.mocker.<NumberingEngine>getInstance(NumberingEngine.class).collect(xdom);
+        assertEquals(0, numberedBlocks.getFigureBlocks().size());
+        assertEquals(1, numberedBlocks.getEntityBlocks().size());
+
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        Block figureBlock = xdom.getFirstBlock(new ClassBlockMatcher(FigureBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("1", figureBlock.getParameter(NUMBER_PARAMETER));
+        LinkBlock linkBlock = xdom.getFirstBlock(new ClassBlockMatcher(LinkBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("1", ((WordBlock) linkBlock.getChildren().get(0)).getWord());
+    }
+
+    private List<String> getNumbers(XDOM xdom)
+    {
+        List<String> numbers = new ArrayList<>();
+        for (Block groupBlock : xdom.getBlocks(new ClassBlockMatcher(GroupBlock.class), Block.Axes.DESCENDANT)) {
+            numbers.add(groupBlock.getParameter(CLASS) + ' ' + groupBlock.getParameter(NUMBER_PARAMETER));
+        }
+        return numbers;
+    }
+}
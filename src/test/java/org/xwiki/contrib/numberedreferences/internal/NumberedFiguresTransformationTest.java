@@ -20,26 +20,38 @@
 package org.xwiki.contrib.numberedreferences.internal;
 
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.LocalizationContext;
 import org.xwiki.localization.Translation;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.CompositeBlock;
 import org.xwiki.rendering.block.FigureBlock;
 import org.xwiki.rendering.block.FigureCaptionBlock;
+import org.xwiki.rendering.block.IdBlock;
+import org.xwiki.rendering.block.LinkBlock;
 import org.xwiki.rendering.block.MacroMarkerBlock;
 import org.xwiki.rendering.block.SpaceBlock;
 import org.xwiki.rendering.block.SpecialSymbolBlock;
 import org.xwiki.rendering.block.WordBlock;
 import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.internal.transformation.macro.MacroTransformation;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
 import org.xwiki.rendering.parser.Parser;
 import org.xwiki.rendering.renderer.BlockRenderer;
 import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
@@ -83,6 +95,14 @@ public class NumberedFiguresTransformationTest
                     new WordBlock(String.valueOf(number)), new SpecialSymbolBlock(':')));
             }
         });
+        when(translation1.render(any(String.class))).thenAnswer(new Answer<Object>() {
+            @Override public Object answer(InvocationOnMock invocation)
+            {
+                String number = invocation.getArgument(0);
+                return new CompositeBlock(Arrays.asList(new WordBlock("Figure"), new SpaceBlock(),
+                    new WordBlock(number), new SpecialSymbolBlock(':')));
+            }
+        });
         when(localizationManager.getTranslation("transformation.numberedReferences.figurePrefix")).thenReturn(
             translation1);
 
@@ -95,8 +115,21 @@ public class NumberedFiguresTransformationTest
                     new WordBlock(String.valueOf(number)), new SpecialSymbolBlock(':')));
             }
         });
+        when(translation2.render(any(String.class))).thenAnswer(new Answer<Object>() {
+            @Override public Object answer(InvocationOnMock invocation)
+            {
+                String number = invocation.getArgument(0);
+                return new CompositeBlock(Arrays.asList(new WordBlock("Table"), new SpaceBlock(),
+                    new WordBlock(number), new SpecialSymbolBlock(':')));
+            }
+        });
         when(localizationManager.getTranslation("transformation.numberedReferences.tablePrefix")).thenReturn(
             translation2);
+
+        LocalizationContext localizationContext = this.mocker.registerMockComponent(LocalizationContext.class);
+        when(localizationContext.getCurrentLocale()).thenReturn(Locale.ENGLISH);
+
+        this.mocker.registerMockComponent(ModelContext.class);
     }
 
     @Test
@@ -526,6 +559,460 @@ public class NumberedFiguresTransformationTest
         assertEquals(expectedContent, printer.toString());
     }
 
+    @Test
+    public void transformWithChapterNumbers() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.figureChapterLevel", 0)).thenReturn(1);
+
+        String content = "{{figure}}\n"
+            + "Before the first chapter\n\n"
+            + "{{figureCaption}}\n"
+            + "Intro\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "= Chapter A =\n\n"
+            + "{{figure}}\n"
+            + "A1\n\n"
+            + "{{figureCaption}}\n"
+            + "First\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "|cell\n\n"
+            + "{{figureCaption}}\n"
+            + "Table\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "A2\n\n"
+            + "{{figureCaption}}\n"
+            + "Second\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "= Chapter B =\n\n"
+            + "== Section B.1 ==\n\n"
+            + "{{figure}}\n"
+            + "B1\n\n"
+            + "{{figureCaption}}\n"
+            + "{{id name='F3'/}}Third\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "See {{reference figure='F3'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // The figures and tables are counted from 1 in each chapter, the figures located before the first chapter
+        // being in chapter 0.
+        assertEquals(Arrays.asList("Figure 0.1: ", "Figure 1.1: ", "Table 1.1: ", "Figure 1.2: ", "Figure 2.1: "),
+            getCaptionPrefixes(xdom));
+
+        LinkBlock linkBlock = xdom.getFirstBlock(new ClassBlockMatcher(LinkBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("2.1", getText(linkBlock));
+    }
+
+    @Test
+    public void renumberWithChapterNumbers() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.figureChapterLevel", 0)).thenReturn(1);
+
+        String content = "= Chapter A =\n\n"
+            + "{{figure}}\n"
+            + "A1\n\n"
+            + "{{figureCaption}}\n"
+            + "First\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "A2\n\n"
+            + "{{figureCaption}}\n"
+            + "Second\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        NumberedFiguresTransformation transformation =
+            (NumberedFiguresTransformation) this.mocker.getComponentUnderTest();
+        NumberingState state = transformation.transformIncrementally(xdom, new TransformationContext());
+        assertEquals(Arrays.asList("Figure 1.1: ", "Figure 1.2: "), getCaptionPrefixes(xdom));
+
+        // Insert a chapter before the second figure: it's numbered in the new chapter.
+        Block secondFigure =
+            xdom.getBlocks(new ClassBlockMatcher(FigureBlock.class), Block.Axes.DESCENDANT).get(1).getParent();
+        Block chapterA = secondFigure.getParent();
+        Block chapterB = parser.parse(new StringReader("= Chapter B =")).getChildren().get(0);
+        chapterA.insertChildBefore(chapterB, secondFigure);
+        transformation.renumber(state, null, chapterB);
+        assertEquals(Arrays.asList("Figure 1.1: ", "Figure 2.1: "), getCaptionPrefixes(xdom));
+
+        // Remove it.
+        chapterA.removeBlock(chapterB);
+        transformation.renumber(state, chapterB, null);
+        assertEquals(Arrays.asList("Figure 1.1: ", "Figure 1.2: "), getCaptionPrefixes(xdom));
+    }
+
+    @Test
+    public void renumberWithChapterNumbersWhenChapterMoved() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.figureChapterLevel", 0)).thenReturn(1);
+
+        String figure = "{{figure}}\nImage\n\n{{figureCaption}}\nCaption\n{{/figureCaption}}\n{{/figure}}";
+        String content = "= Chapter A =\n\n" + figure + "\n\n= Chapter B =\n\n" + figure + "\n\n" + figure
+            + "\n\n= Chapter C =\n\n" + figure + "\n\n= Chapter D =\n\n" + figure;
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        NumberedFiguresTransformation transformation =
+            (NumberedFiguresTransformation) this.mocker.getComponentUnderTest();
+        NumberingState state = transformation.transformIncrementally(xdom, new TransformationContext());
+        assertEquals(Arrays.asList("Figure 1.1: ", "Figure 2.1: ", "Figure 2.2: ", "Figure 3.1: ", "Figure 4.1: "),
+            getCaptionPrefixes(xdom));
+
+        // Remove the second chapter with its figures: the following chapters are renumbered.
+        Block chapterB = xdom.getChildren().get(1);
+        xdom.removeBlock(chapterB);
+        transformation.renumber(state, chapterB, null);
+        assertEquals(Arrays.asList("Figure 1.1: ", "Figure 2.1: ", "Figure 3.1: "), getCaptionPrefixes(xdom));
+
+        // Insert it again after the third chapter.
+        xdom.insertChildAfter(chapterB, xdom.getChildren().get(1));
+        transformation.renumber(state, null, chapterB);
+        assertEquals(Arrays.asList("Figure 1.1: ", "Figure 2.1: ", "Figure 3.1: ", "Figure 3.2: ", "Figure 4.1: "),
+            getCaptionPrefixes(xdom));
+    }
+
+    @Test
+    public void transformWithChapterNumbersInSession() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.figureChapterLevel", 0)).thenReturn(1);
+        Execution execution = this.mocker.getInstance(Execution.class);
+        execution.setContext(new ExecutionContext());
+        NumberingSessionManager sessionManager = this.mocker.getInstance(NumberingSessionManager.class);
+        sessionManager.beginSession();
+
+        String figure = "{{figure}}\nImage\n\n{{figureCaption}}\nCaption\n{{/figureCaption}}\n{{/figure}}";
+        assertEquals(Arrays.asList("Figure 1.1: "), getCaptionPrefixes(transformInSession("= A =\n\n" + figure,
+            "Book.Chapter1")));
+        // The chapter continues in the next document, until a new chapter starts.
+        assertEquals(Arrays.asList("Figure 1.2: ", "Figure 2.1: "),
+            getCaptionPrefixes(transformInSession(figure + "\n\n= B =\n\n" + figure, "Book.Chapter2")));
+
+        sessionManager.endSession();
+    }
+
+    @Test
+    public void transformWithListsOfFiguresAndTables() throws Exception
+    {
+        String content = "{{listoffigures/}}\n\n"
+            + "{{listoftables/}}\n\n"
+            + "{{figure}}\n"
+            + "[[image:whatever]]\n\n"
+            + "{{figureCaption}}\n"
+            + "{{id name='F1'/}}Nice //image//\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "|a|b\n\n"
+            + "{{figureCaption}}\n"
+            + "Nice table\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "[[image:other]]\n\n"
+            + "{{figureCaption}}\n"
+            + "Other image\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // The lists are filled with the numbered captions, without the ids, linking to the figures having an id.
+        List<FigureListBlock> figureListBlocks =
+            xdom.getBlocks(new ClassBlockMatcher(FigureListBlock.class), Block.Axes.DESCENDANT);
+        assertEquals(2, figureListBlocks.size());
+
+        List<Block> figureItems = figureListBlocks.get(0).getChildren().get(0).getChildren();
+        assertEquals(2, figureItems.size());
+        assertEquals("Figure 1: Nice image", getText(figureItems.get(0)));
+        assertEquals("F1", ((DocumentResourceReference) ((LinkBlock) figureItems.get(0).getChildren().get(0))
+            .getReference()).getAnchor());
+        assertEquals("Figure 2: Other image", getText(figureItems.get(1)));
+
+        List<Block> tableItems = figureListBlocks.get(1).getChildren().get(0).getChildren();
+        assertEquals(1, tableItems.size());
+        assertEquals("Table 1: Nice table", getText(tableItems.get(0)));
+        assertEquals(1, xdom.getBlocks(new ClassBlockMatcher(IdBlock.class), Block.Axes.DESCENDANT).size());
+    }
+
+    @Test
+    public void transformWithListOfFiguresAndReferenceInCaption() throws Exception
+    {
+        // The references copied in the list are resolved by the transformations executed after this one.
+        assertEquals("Figure 2: Same as 1 in 1", transformWithListOfFiguresAndReferenceInCaption(false));
+    }
+
+    @Test
+    public void transformWithListOfFiguresAndReferenceInCaptionWhenHeadingsNumberedFirst() throws Exception
+    {
+        // The references resolved by the transformations executed before this one are copied as links.
+        assertEquals("Figure 2: Same as 1 in 1", transformWithListOfFiguresAndReferenceInCaption(true));
+    }
+
+    @Test
+    public void transformClassifiesFiguresFromTheirContent() throws Exception
+    {
+        String content = "{{figure}}\n"
+            + "|a|b\n\n"
+            + "Some text.\n\n"
+            + "{{figureCaption}}Table and text{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "{{figureCaption}}Caption first{{/figureCaption}}\n\n"
+            + "|c|d\n"
+            + "{{/figure}}";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // A figure is a table only when a table is its only content, wherever its caption is.
+        List<FigureCaptionBlock> captionBlocks =
+            xdom.getBlocks(new ClassBlockMatcher(FigureCaptionBlock.class), Block.Axes.DESCENDANT);
+        assertEquals(2, captionBlocks.size());
+        assertEquals("Figure 1: Table and text", getText(captionBlocks.get(0)));
+        assertEquals("Table 1: Caption first", getText(captionBlocks.get(1)));
+    }
+
+    @Test
+    public void transformWithClientSideNumbering() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.clientSideNumbering", Boolean.FALSE))
+            .thenReturn(true);
+
+        String content = "See {{reference figure='F1'/}}.\n\n"
+            + "{{figure}}\n"
+            + "[[image:whatever]]\n\n"
+            + "{{figureCaption}}{{id name='F1'/}}Nice image{{/figureCaption}}\n"
+            + "{{/figure}}";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // The caption prefix is not inserted in the caption but exposed to the client side numbering stylesheet.
+        FigureCaptionBlock captionBlock =
+            xdom.getFirstBlock(new ClassBlockMatcher(FigureCaptionBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("Figure 1:", captionBlock.getParameter("data-xwiki-caption-prefix"));
+        assertEquals("Nice image", getText(captionBlock));
+
+        // The reference is still resolved on the server side.
+        LinkBlock linkBlock = xdom.getFirstBlock(new ClassBlockMatcher(LinkBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("1", getText(linkBlock));
+    }
+
+    @Test
+    public void transformInTwoWikis() throws Exception
+    {
+        String content = "{{figure}}\n"
+            + "[[image:whatever]]\n\n"
+            + "{{figureCaption}}Nice image{{/figureCaption}}\n"
+            + "{{/figure}}";
+
+        ModelContext modelContext = this.mocker.getInstance(ModelContext.class);
+        when(modelContext.getCurrentEntityReference()).thenReturn(new DocumentReference("wiki1", "Space", "Page"));
+        assertEquals(Arrays.asList("Figure 1: "), getCaptionPrefixes(transform(content)));
+
+        // The same content rendered in a wiki translating the caption prefixes differently isn't replayed from the
+        // numbering of the first wiki.
+        Translation translation = mock(Translation.class);
+        when(translation.render(any(Integer.class))).thenAnswer(invocation -> new CompositeBlock(
+            Arrays.asList(new WordBlock("Abbildung"), new SpaceBlock(),
+                new WordBlock(String.valueOf(invocation.<Integer>getArgument(0))), new SpecialSymbolBlock(':'))));
+        ContextualLocalizationManager localizationManager =
+            this.mocker.getInstance(ContextualLocalizationManager.class);
+        when(localizationManager.getTranslation("transformation.numberedReferences.figurePrefix"))
+            .thenReturn(translation);
+        when(modelContext.getCurrentEntityReference()).thenReturn(new DocumentReference("wiki2", "Space", "Page"));
+        assertEquals(Arrays.asList("Abbildung 1: "), getCaptionPrefixes(transform(content)));
+    }
+
+    @Test
+    public void transformWhenCaptionPrefixTranslationIsMissing() throws Exception
+    {
+        ContextualLocalizationManager localizationManager =
+            this.mocker.getInstance(ContextualLocalizationManager.class);
+        when(localizationManager.getTranslation("transformation.numberedReferences.figurePrefix")).thenReturn(null);
+
+        XDOM xdom = transform("{{listoffigures/}}\n\n"
+            + "{{figure}}\n"
+            + "[[image:whatever]]\n\n"
+            + "{{figureCaption}}Nice image{{/figureCaption}}\n"
+            + "{{/figure}}");
+
+        // Only the number is displayed, in the caption and in the list of figures.
+        assertEquals(Arrays.asList("1 "), getCaptionPrefixes(xdom));
+        FigureListBlock figureListBlock =
+            xdom.getFirstBlock(new ClassBlockMatcher(FigureListBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("1 Nice image", getText(figureListBlock.getChildren().get(0).getChildren().get(0)));
+    }
+
+    @Test
+    public void transformInParallelSameAsSequentially() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.figureChapterLevel", 0)).thenReturn(1);
+        // Number the same content twice, without replaying the first numbering.
+        this.mocker.<NumberingCache>getInstance(NumberingCache.class).setCapacity(0);
+
+        StringBuilder content = new StringBuilder();
+        for (int chapter = 1; chapter <= 20; chapter++) {
+            content.append("= Chapter ").append(chapter).append(" =\n\n");
+            for (int figure = 1; figure <= 4; figure++) {
+                content.append("{{figure}}\n").append(figure == 1 ? "|cell" : "content").append("\n\n")
+                    .append("{{figureCaption}}\n{{id name='F").append(chapter).append('_').append(figure)
+                    .append("'/}}Caption\n{{/figureCaption}}\n{{/figure}}\n\n");
+            }
+            content.append("See {{reference figure='F").append(chapter).append("_3'/}}.\n\n");
+        }
+
+        when(configurationSource.getProperty("numberedreferences.parallelThreshold", 50000)).thenReturn(0);
+        String sequential = render(transform(content.toString()));
+        when(configurationSource.getProperty("numberedreferences.parallelThreshold", 50000)).thenReturn(1);
+        XDOM xdom = transform(content.toString());
+
+        assertEquals(sequential, render(xdom));
+        List<String> prefixes = getCaptionPrefixes(xdom);
+        assertEquals(80, prefixes.size());
+        assertEquals("Table 20.1: ", prefixes.get(76));
+        assertEquals("Figure 20.3: ", prefixes.get(79));
+    }
+
+    private String transformWithListOfFiguresAndReferenceInCaption(boolean headingsFirst) throws Exception
+    {
+        String content = "{{listoffigures/}}\n\n"
+            + "= {{id name='S'/}}Chapter =\n\n"
+            + "{{figure}}\n"
+            + "[[image:whatever]]\n\n"
+            + "{{figureCaption}}\n"
+            + "{{id name='F1'/}}Nice image\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}\n\n"
+            + "{{figure}}\n"
+            + "[[image:other]]\n\n"
+            + "{{figureCaption}}\n"
+            + "Same as {{reference figure='F1'/}} in {{reference section='S'/}}\n"
+            + "{{/figureCaption}}\n"
+            + "{{/figure}}";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        // The numbered transformations have the same priority so they can be executed in any order.
+        Transformation headingsTransformation =
+            this.mocker.getInstance(Transformation.class, NumberedHeadingsTransformation.HINT);
+        List<Transformation> transformations = headingsFirst
+            ? Arrays.asList(headingsTransformation, this.mocker.getComponentUnderTest())
+            : Arrays.asList(this.mocker.getComponentUnderTest(), headingsTransformation);
+        for (Transformation transformation : transformations) {
+            transformation.transform(xdom, new TransformationContext());
+        }
+
+        FigureListBlock figureListBlock =
+            xdom.getFirstBlock(new ClassBlockMatcher(FigureListBlock.class), Block.Axes.DESCENDANT);
+        List<Block> figureItems = figureListBlock.getChildren().get(0).getChildren();
+        return getText(figureItems.get(1));
+    }
+
+    private XDOM transform(String content) throws Exception
+    {
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+        return xdom;
+    }
+
+    private XDOM transformInSession(String content, String id) throws Exception
+    {
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        // The headings are numbered first so that the figures take their chapters from the session.
+        TransformationContext context = new TransformationContext();
+        context.setId(id);
+        this.mocker.<Transformation>getInstance(Transformation.class, NumberedHeadingsTransformation.HINT)
+            .transform(xdom, context);
+        this.mocker.getComponentUnderTest().transform(xdom, context);
+        return xdom;
+    }
+
+    private String render(Block block) throws Exception
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, Syntax.XWIKI_2_1.toIdString());
+        renderer.render(block, printer);
+        return printer.toString();
+    }
+
+    private List<String> getCaptionPrefixes(Block block)
+    {
+        List<String> prefixes = new ArrayList<>();
+        for (Block captionBlock : block.getBlocks(new ClassBlockMatcher(FigureCaptionBlock.class),
+            Block.Axes.DESCENDANT))
+        {
+            prefixes.add(getText(captionBlock.getChildren().get(0)));
+        }
+        return prefixes;
+    }
+
+    private String getText(Block block)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Block childBlock : block.getChildren()) {
+            if (childBlock instanceof WordBlock) {
+                builder.append(((WordBlock) childBlock).getWord());
+            } else if (childBlock instanceof SpaceBlock) {
+                builder.append(' ');
+            } else if (childBlock instanceof SpecialSymbolBlock) {
+                builder.append(((SpecialSymbolBlock) childBlock).getSymbol());
+            } else {
+                builder.append(getText(childBlock));
+            }
+        }
+        return builder.toString();
+    }
+
     private List<Block> blocks(Block... blocks)
     {
         return Arrays.asList(blocks);
@@ -24,28 +24,47 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.GroupBlock;
 import org.xwiki.rendering.block.HeaderBlock;
 import org.xwiki.rendering.block.MacroMarkerBlock;
 import org.xwiki.rendering.block.SectionBlock;
 import org.xwiki.rendering.block.WordBlock;
 import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.internal.transformation.MutableRenderingContext;
 import org.xwiki.rendering.internal.transformation.macro.MacroTransformation;
 import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.MetaData;
 import org.xwiki.rendering.parser.Parser;
 import org.xwiki.rendering.renderer.BlockRenderer;
 import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
 import org.xwiki.rendering.renderer.printer.WikiPrinter;
 import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.transformation.RenderingContext;
 import org.xwiki.rendering.transformation.Transformation;
 import org.xwiki.rendering.transformation.TransformationContext;
 import org.xwiki.test.annotation.AllComponents;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
 
 /**
  * Integration tests for {@link NumberedHeadingsTransformation}.
@@ -59,6 +78,9 @@ public class NumberedHeadingsTransformationTest
     public MockitoComponentMockingRule<Transformation> mocker = new MockitoComponentMockingRule<>(
         NumberedHeadingsTransformation.class);
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void transform() throws Exception
     {
@@ -217,4 +239,639 @@ public class NumberedHeadingsTransformationTest
 
         assertEquals(expectedContent, printer.toString());
     }
+
+    @Test
+    public void transformIgnoresReferencesOfOtherTypes() throws Exception
+    {
+        String content = "See {{reference figure='C'/}} and {{reference id='C'/}}.\n\n"
+            + "= {{id name='C'/}}heading C =\n";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        // Execute the Macro transformation
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        WikiPrinter printer = new DefaultWikiPrinter();
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, Syntax.EVENT_1_0.toIdString());
+        renderer.render(xdom, printer);
+
+        // The figure reference is left for the figures transformation
+        String expectedContent1 = "beginMacroMarkerInline [reference] [figure=C]\n"
+            + "endMacroMarkerInline [reference] [figure=C]\n";
+
+        assertTrue("Should have contained [\n" + expectedContent1 + "\n]. Got [\n" + printer.toString() + "\n]",
+            printer.toString().contains(expectedContent1));
+
+        // The reference without type is resolved
+        String expectedContent2 = "beginMacroMarkerInline [reference] [id=C]\n"
+            + "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+            + "onWord [1]\n"
+            + "endLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+            + "endMacroMarkerInline [reference] [id=C]\n";
+
+        assertTrue("Should have contained [\n" + expectedContent2 + "\n]. Got [\n" + printer.toString() + "\n]",
+            printer.toString().contains(expectedContent2));
+    }
+
+    @Test
+    public void transformWhenNestedContentAlreadyTransformed() throws Exception
+    {
+        Execution execution = this.mocker.getInstance(Execution.class);
+        execution.setContext(new ExecutionContext());
+
+        String content = "= heading A =\n\n"
+            + "(((\n"
+            + "= heading B =\n"
+            + "== {{id name='C'/}}heading C ==\n"
+            + ")))\n\n"
+            + "See {{reference section='C'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        // Execute the Macro transformation
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        // Simulate a macro executing the transformations on its content before the whole XDOM is transformed
+        Block groupBlock = xdom.getFirstBlock(new ClassBlockMatcher(GroupBlock.class), Block.Axes.DESCENDANT);
+        this.mocker.getComponentUnderTest().transform(groupBlock, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        WikiPrinter printer = new DefaultWikiPrinter();
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, Syntax.XWIKI_2_1.toIdString());
+        renderer.render(xdom, printer);
+
+        String expectedContent = "= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "(((\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading B =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)2.1 (%%){{id name=\"C\"/}}heading C ==\n"
+            + ")))\n\n"
+            + "See {{reference section=\"C\"/}}.";
+
+        assertEquals(expectedContent, printer.toString());
+
+        printer = new DefaultWikiPrinter();
+        renderer = this.mocker.getInstance(BlockRenderer.class, Syntax.EVENT_1_0.toIdString());
+        renderer.render(xdom, printer);
+
+        String expectedReference =
+            "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+            + "onWord [2]\n"
+            + "onSpecialSymbol [.]\n"
+            + "onWord [1]\n"
+            + "endLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n";
+
+        assertTrue("Should have contained [\n" + expectedReference + "\n]. Got [\n" + printer.toString() + "\n]",
+            printer.toString().contains(expectedReference));
+    }
+
+    @Test
+    public void transformWhenNestedContentModifiedAfterTransformation() throws Exception
+    {
+        Execution execution = this.mocker.getInstance(Execution.class);
+        execution.setContext(new ExecutionContext());
+
+        String content = "= heading A =\n\n"
+            + "(((\n"
+            + "(((\n"
+            + "= heading B =\n"
+            + ")))\n"
+            + ")))";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        // Transform the outer group, then add a heading deep inside it before the whole XDOM is transformed.
+        Block outerGroupBlock = xdom.getFirstBlock(new ClassBlockMatcher(GroupBlock.class), Block.Axes.DESCENDANT);
+        this.mocker.getComponentUnderTest().transform(outerGroupBlock, new TransformationContext());
+        Block innerGroupBlock =
+            outerGroupBlock.getFirstBlock(new ClassBlockMatcher(GroupBlock.class), Block.Axes.DESCENDANT);
+        innerGroupBlock.addChildren(parser.parse(new StringReader("= heading C =")).getChildren());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "(((\n"
+            + "(((\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading B =\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)3 (%%)heading C =\n"
+            + ")))\n"
+            + ")))", render(xdom, Syntax.XWIKI_2_1));
+    }
+
+    @Test
+    public void transformWithCopiedReference() throws Exception
+    {
+        Execution execution = this.mocker.getInstance(Execution.class);
+        execution.setContext(new ExecutionContext());
+
+        String content = "= {{id name='A'/}}heading A =\n\n"
+            + "See {{reference section='A'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        // Copy the paragraph holding the reference, as a macro copying some content would do.
+        Block sectionBlock = xdom.getChildren().get(0);
+        Block paragraphBlock = sectionBlock.getChildren().get(1);
+        sectionBlock.addChild(paragraphBlock.clone());
+
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // Both the reference created by the macro and its copy are resolved.
+        String expectedReference = "beginMacroMarkerInline [reference] [section=A]\n"
+            + "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [A]]] [false]\n"
+            + "onWord [1]\n"
+            + "endLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [A]]] [false]\n";
+        assertEquals(2, StringUtils.countMatches(render(xdom, Syntax.EVENT_1_0), expectedReference));
+    }
+
+    @Test
+    public void transformWithStoredIndex() throws Exception
+    {
+        FileNumberingIndexStore store = new FileNumberingIndexStore();
+        store.setDirectory(this.folder.getRoot());
+        this.mocker.registerComponent(NumberingIndexStore.class, store);
+        // Identical content is numbered from the in-memory cache, without looking at the index, so disable it.
+        this.mocker.<NumberingCache>getInstance(NumberingCache.class).setCapacity(0);
+
+        String content = "= heading A =\n"
+            + "== {{id name='B'/}}heading B ==\n\n"
+            + "See {{reference section='B'/}}.";
+
+        // The first rendering computes and stores the index.
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%){{id name=\"B\"/}}heading B ==\n\n"
+            + "See {{reference section=\"B\"/}}.", transformWithId(content, "Space.Page"));
+
+        // The index is written in the background.
+        NumberingIndexManager indexManager = this.mocker.getInstance(NumberingIndexManager.class);
+        indexManager.flush();
+        NumberingIndex index = store.load("Space.Page/SECTION");
+        assertEquals(2, index.getBlockNumbers().size());
+        assertArrayEquals(new int[] { 1, 1 }, index.get(ReferenceType.SECTION, "B"));
+
+        // Modify the stored numbers to verify that the following renderings apply them without recounting.
+        NumberingIndex modifiedIndex = new NumberingIndex();
+        modifiedIndex.setContentHash(index.getContentHash());
+        modifiedIndex.addBlockNumber(new int[] { 7 }, false);
+        modifiedIndex.addBlockNumber(new int[] { 7, 1 }, false);
+        modifiedIndex.put(ReferenceType.SECTION, "B", new int[] { 7, 1 });
+        store.save("Space.Page/SECTION", modifiedIndex);
+        // The index is kept in memory, so forget it to read the stored index again.
+        indexManager.clear();
+
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)7 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)7.1 (%%){{id name=\"B\"/}}heading B ==\n\n"
+            + "See {{reference section=\"B\"/}}.", transformWithId(content, "Space.Page"));
+
+        // The index is invalidated when the content changes.
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%){{id name=\"B\"/}}heading B =\n\n"
+            + "See {{reference section=\"B\"/}}.",
+            transformWithId(content.replace("== {{id name='B'/}}heading B ==", "= {{id name='B'/}}heading B ="),
+                "Space.Page"));
+        indexManager.flush();
+        assertArrayEquals(new int[] { 2 }, store.load("Space.Page/SECTION").get(ReferenceType.SECTION, "B"));
+    }
+
+    @Test
+    public void transformWithCachedNumbering() throws Exception
+    {
+        String content = "= heading A =\n"
+            + "== {{id name='B'/}}heading B ==\n\n"
+            + "See {{reference section='B'/}}.";
+        String expected = "= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%){{id name=\"B\"/}}heading B ==\n\n"
+            + "See {{reference section=\"B\"/}}.";
+        NumberingCache cache = this.mocker.getInstance(NumberingCache.class);
+
+        assertEquals(expected, transformWithId(content, null));
+        assertEquals(0, cache.getHitCount());
+
+        // Rendering the same content again replays the cached numbering.
+        assertEquals(expected, transformWithId(content, null));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void transformFragmentsWithoutIndexing() throws Exception
+    {
+        FileNumberingIndexStore store = new FileNumberingIndexStore();
+        store.setDirectory(this.folder.getRoot());
+        this.mocker.registerComponent(NumberingIndexStore.class, store);
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        TransformationContext context = new TransformationContext();
+        context.setId("wiki:Space.Page");
+
+        // Content of another document transformed in the context of the current document.
+        XDOM includedXDOM = parser.parse(new StringReader("= heading A ="));
+        includedXDOM.getMetaData().addMetaData(MetaData.SOURCE, "Space.Included");
+        this.mocker.getComponentUnderTest().transform(includedXDOM, context);
+
+        // Part of the current document.
+        XDOM xdom = parser.parse(new StringReader("= heading A =\n\n= heading B ="));
+        this.mocker.getComponentUnderTest().transform(xdom.getChildren().get(1), context);
+
+        NumberingIndexManager indexManager = this.mocker.getInstance(NumberingIndexManager.class);
+        indexManager.flush();
+        assertNull(store.load("wiki:Space.Page/SECTION"));
+
+        // The whole document is indexed.
+        xdom.getMetaData().addMetaData(MetaData.SOURCE, "Space.Page");
+        this.mocker.getComponentUnderTest().transform(xdom, context);
+        indexManager.flush();
+        assertEquals(2, store.load("wiki:Space.Page/SECTION").getBlockNumbers().size());
+    }
+
+    @Test
+    public void transformWithReferenceToOtherDocument() throws Exception
+    {
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        EntityReferenceSerializer<String> serializer =
+            this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING);
+        DocumentReference targetReference = new DocumentReference("xwiki", "Space", "Target");
+        when(resolver.resolve("Target")).thenReturn(targetReference);
+        when(serializer.serialize(targetReference)).thenReturn("xwiki:Space.Target");
+
+        String content = "See {{reference section='B' document='Target'/}}.";
+        String expectedReference = "beginMacroMarkerInline [reference] [section=B|document=Target]\n"
+            + "beginLink [Typed = [true] Type = [doc] Reference = [xwiki:Space.Target] "
+            + "Parameters = [[anchor] = [B]]] [false]\n"
+            + "onWord [1]\n"
+            + "onSpecialSymbol [.]\n"
+            + "onWord [1]\n";
+
+        // The reference can't be resolved as long as the target document hasn't been numbered: the number is displayed
+        // as unknown and counted as unresolved.
+        XDOM xdom = transform(content, "xwiki:Space.Other");
+        String result = render(xdom, Syntax.EVENT_1_0);
+        assertFalse(result.contains("beginLink"));
+        assertTrue(result.contains("beginFormat [NONE] [[class]=[wikigeneratedunknownreferencenumber]]\n"
+            + "onSpecialSymbol [?]\n"
+            + "onSpecialSymbol [?]\n"
+            + "endFormat [NONE] [[class]=[wikigeneratedunknownreferencenumber]]\n"));
+        NumberingMetrics metrics = this.mocker.getInstance(NumberingMetrics.class);
+        assertEquals(1, metrics.getMetrics(NumberedHeadingsTransformation.HINT).getUnresolvedReferenceCount());
+
+        // Numbering the target document indexes its numbers, which are then used to resolve the reference.
+        transform("= heading A =\n== {{id name='B'/}}heading B ==", "xwiki:Space.Target");
+        xdom = transform(content, "xwiki:Space.Other");
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains(expectedReference));
+    }
+
+    @Test
+    public void transformInSession() throws Exception
+    {
+        Execution execution = this.mocker.getInstance(Execution.class);
+        execution.setContext(new ExecutionContext());
+        NumberingSessionManager sessionManager = this.mocker.getInstance(NumberingSessionManager.class);
+        NumberingSession session = sessionManager.beginSession();
+
+        String firstChapter = "= heading A =\n== heading B ==\n\nSee {{reference section='D'/}}.";
+        String secondChapter = "== heading C ==\n= {{id name='D'/}}heading D =\n\nBack to {{reference section='D'/}}.";
+        String expectedReference = "beginLink [Typed = [true] Type = [doc] Reference = [] "
+            + "Parameters = [[anchor] = [D]]] [false]\n"
+            + "onWord [2]\n"
+            + "endLink";
+
+        // The numbering continues from one document to the next.
+        XDOM xdom = transform(firstChapter, "Book.Chapter1");
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%)heading B ==\n\n"
+            + "See {{reference section=\"D\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        xdom = transform(secondChapter, "Book.Chapter2");
+        assertEquals("== (% class=\"wikigeneratedheadingnumber\" %)1.2 (%%)heading C ==\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%){{id name=\"D\"/}}heading D =\n\n"
+            + "Back to {{reference section=\"D\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains(expectedReference));
+
+        // The forward reference of the first document is resolved by transforming it again.
+        assertEquals(Collections.singleton("Book.Chapter1"), session.getDocumentsToFixUp());
+        session.beginFixUp();
+        xdom = transform(firstChapter, "Book.Chapter1");
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%)heading B ==\n\n"
+            + "See {{reference section=\"D\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains(expectedReference));
+
+        // Once the session is ended, the documents are numbered independently.
+        sessionManager.endSession();
+        xdom = transform(secondChapter, "Book.Chapter2");
+        assertTrue(render(xdom, Syntax.XWIKI_2_1)
+            .startsWith("== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%)heading C =="));
+    }
+
+    @Test
+    public void transformNestedContentInSession() throws Exception
+    {
+        Execution execution = this.mocker.getInstance(Execution.class);
+        execution.setContext(new ExecutionContext());
+        NumberingSessionManager sessionManager = this.mocker.getInstance(NumberingSessionManager.class);
+        NumberingSession session = sessionManager.beginSession();
+
+        // The included content is transformed before the document including it.
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM includedXDOM = parser.parse(new StringReader("= heading B ="));
+        includedXDOM.getMetaData().addMetaData(MetaData.SOURCE, "Book.Included");
+        TransformationContext context = new TransformationContext();
+        context.setId("Book.Chapter1");
+        this.mocker.getComponentUnderTest().transform(includedXDOM, context);
+
+        String firstChapter = "= heading A =\n= heading B =\n\nSee {{reference id='E'/}}.";
+        String expected = "= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading B =\n\n"
+            + "See {{reference id=\"E\"/}}.";
+        assertEquals(expected, render(transform(firstChapter, "Book.Chapter1"), Syntax.XWIKI_2_1));
+
+        // A document transformed again replaces its numbering instead of advancing it.
+        assertEquals(expected, render(transform(firstChapter, "Book.Chapter1"), Syntax.XWIKI_2_1));
+
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)3 (%%)heading C =",
+            render(transform("= heading C =", "Book.Chapter2"), Syntax.XWIKI_2_1));
+
+        // The reference without type isn't counted as unresolved by the transformation but still has to be fixed up.
+        assertEquals(Collections.singleton("Book.Chapter1"), session.getDocumentsToFixUp());
+
+        sessionManager.endSession();
+    }
+
+    @Test
+    public void transformInParallel() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.parallelThreshold", 50000)).thenReturn(1);
+
+        String content = "=== heading A ===\n"
+            + "= heading B =\n"
+            + "== {{id name='C'/}}heading C ==\n"
+            + "= heading D =\n"
+            + "=== heading E ===\n"
+            + "= heading F =\n\n"
+            + "See {{reference section='C'/}}.";
+
+        // The top level sections are numbered in parallel, starting from the number of the previous section.
+        assertEquals("=== (% class=\"wikigeneratedheadingnumber\" %)1.1.1 (%%)heading A ===\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading B =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)2.1 (%%){{id name=\"C\"/}}heading C ==\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)3 (%%)heading D =\n\n"
+            + "=== (% class=\"wikigeneratedheadingnumber\" %)3.1.1 (%%)heading E ===\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)4 (%%)heading F =\n\n"
+            + "See {{reference section=\"C\"/}}.", transformWithId(content, null));
+    }
+
+    @Test
+    public void transformInParallelSameAsSequentially() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        // Number the same content twice, without replaying the first numbering.
+        this.mocker.<NumberingCache>getInstance(NumberingCache.class).setCapacity(0);
+
+        // Many top level sections, with skipped levels, after a first section without level 1 heading.
+        StringBuilder content = new StringBuilder("== heading 0 ==\n\n");
+        for (int i = 1; i <= 50; i++) {
+            content.append("= heading ").append(i).append(" =\n\n");
+            for (int j = 0; j < i % 4; j++) {
+                content.append("== heading ").append(i).append('.').append(j).append(" ==\n\n");
+                content.append("==== {{id name='H").append(i).append('_').append(j).append("'/}}heading ====\n\n");
+            }
+            content.append("See {{reference section='H").append(i).append("_0'/}}.\n\n");
+        }
+
+        when(configurationSource.getProperty("numberedreferences.parallelThreshold", 50000)).thenReturn(0);
+        String sequential = transformWithId(content.toString(), null);
+        when(configurationSource.getProperty("numberedreferences.parallelThreshold", 50000)).thenReturn(1);
+        String parallel = transformWithId(content.toString(), null);
+
+        assertEquals(sequential, parallel);
+        assertTrue(parallel.contains("= (% class=\"wikigeneratedheadingnumber\" %)50 (%%)heading 50 ="));
+        assertTrue(parallel.contains("== (% class=\"wikigeneratedheadingnumber\" %)49.1 (%%)heading 49.0 =="));
+    }
+
+    @Test
+    public void transformWithClientSideNumbering() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.parallelThreshold", 50000)).thenReturn(50000);
+        when(configurationSource.getProperty("numberedreferences.clientSideNumbering", Boolean.FALSE))
+            .thenReturn(true);
+
+        String content = "= heading A =\n"
+            + "== {{id name='C'/}}heading C ==\n\n"
+            + "See {{reference section='C'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // The numbers are not inserted in the headings but exposed to the client side numbering stylesheet.
+        List<HeaderBlock> headerBlocks =
+            xdom.getBlocks(new ClassBlockMatcher(HeaderBlock.class), Block.Axes.DESCENDANT);
+        assertEquals("1", headerBlocks.get(0).getParameter("data-xwiki-heading-number"));
+        assertEquals("1.1", headerBlocks.get(1).getParameter("data-xwiki-heading-number"));
+        assertTrue(xdom.getBlocks(new ClassBlockMatcher(FormatBlock.class), Block.Axes.DESCENDANT).isEmpty());
+
+        // The references are still resolved on the server side.
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains("beginMacroMarkerInline [reference] [section=C]\n"
+            + "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+            + "onWord [1]\n"
+            + "onSpecialSymbol [.]\n"
+            + "onWord [1]\n"));
+    }
+
+    @Test
+    public void transformWithClientSideNumberingForNonHTMLOutput() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.clientSideNumbering", Boolean.FALSE))
+            .thenReturn(true);
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader("= heading A ="));
+        TransformationContext context = new TransformationContext(xdom, Syntax.XWIKI_2_1);
+        context.setTargetSyntax(Syntax.PLAIN_1_0);
+        MutableRenderingContext renderingContext =
+            (MutableRenderingContext) this.mocker.<RenderingContext>getInstance(RenderingContext.class);
+        renderingContext.transformInContext(this.mocker.getComponentUnderTest(), context, xdom);
+
+        // The client can't display the numbers in plain text so they're inserted.
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =", render(xdom, Syntax.XWIKI_2_1));
+        assertNull(xdom.getFirstBlock(new ClassBlockMatcher(HeaderBlock.class), Block.Axes.DESCENDANT)
+            .getParameter("data-xwiki-heading-number"));
+    }
+
+    @Test
+    public void transformWithCompactLabels() throws Exception
+    {
+        ConfigurationSource configurationSource =
+            this.mocker.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configurationSource.getProperty("numberedreferences.compactLabels", Boolean.FALSE)).thenReturn(true);
+
+        String content = "= heading A =\n"
+            + "== {{id name='C'/}}heading C ==\n\n"
+            + "See {{reference section='C'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+        this.mocker.getComponentUnderTest().transform(xdom, new TransformationContext());
+
+        // The output is the same, but each number is a single word.
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%){{id name=\"C\"/}}heading C ==\n\n"
+            + "See {{reference section=\"C\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        String events = render(xdom, Syntax.EVENT_1_0);
+        assertTrue(events.contains("beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n"
+            + "onWord [1.1]\n"
+            + "onSpace\n"));
+        assertTrue(events.contains(
+            "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+            + "onWord [1.1]\n"
+            + "endLink"));
+    }
+
+    @Test
+    public void renumber() throws Exception
+    {
+        String content = "= heading A =\n"
+            + "== {{id name='C'/}}heading C ==\n"
+            + "= heading E =\n\n"
+            + "See {{reference section='C'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        NumberedHeadingsTransformation transformation =
+            (NumberedHeadingsTransformation) this.mocker.getComponentUnderTest();
+        NumberingState state = transformation.transformIncrementally(xdom, new TransformationContext());
+
+        List<HeaderBlock> headerBlocks =
+            xdom.getBlocks(new ClassBlockMatcher(HeaderBlock.class), Block.Axes.DESCENDANT);
+        Block sectionC = headerBlocks.get(1).getParent();
+        Block sectionA = sectionC.getParent();
+        String expectedReference = "beginMacroMarkerInline [reference] [section=C]\n"
+            + "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+            + "onWord [1]\n"
+            + "onSpecialSymbol [.]\n"
+            + "onWord [%s]\n";
+
+        // Insert a heading before the referenced one.
+        Block sectionB = parser.parse(new StringReader("== heading B ==")).getChildren().get(0);
+        sectionA.insertChildBefore(sectionB, sectionC);
+        transformation.renumber(state, null, sectionB);
+
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%)heading B ==\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.2 (%%){{id name=\"C\"/}}heading C ==\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading E =\n\n"
+            + "See {{reference section=\"C\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains(String.format(expectedReference, 2)));
+        assertArrayEquals(new int[] { 1, 2 }, state.getNumbers().get("C"));
+
+        // Remove it.
+        sectionA.removeBlock(sectionB);
+        transformation.renumber(state, sectionB, null);
+
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "== (% class=\"wikigeneratedheadingnumber\" %)1.1 (%%){{id name=\"C\"/}}heading C ==\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading E =\n\n"
+            + "See {{reference section=\"C\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains(String.format(expectedReference, 1)));
+
+        // Remove the referenced heading: the reference is not resolved anymore.
+        sectionA.removeBlock(sectionC);
+        transformation.renumber(state, sectionC, null);
+
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains("beginMacroMarkerInline [reference] [section=C]\n"
+            + "endMacroMarkerInline [reference] [section=C]\n"));
+        assertEquals(2, state.size());
+    }
+
+    @Test
+    public void renumberWhenIdRemovedFromHeading() throws Exception
+    {
+        String content = "= heading A =\n"
+            + "= {{id name='B'/}}heading B =\n\n"
+            + "See {{reference section='B'/}}.";
+
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        NumberedHeadingsTransformation transformation =
+            (NumberedHeadingsTransformation) this.mocker.getComponentUnderTest();
+        NumberingState state = transformation.transformIncrementally(xdom, new TransformationContext());
+        assertArrayEquals(new int[] { 2 }, state.getNumbers().get("B"));
+
+        // Remove the id from the heading: the heading keeps its number but the reference is not resolved anymore.
+        HeaderBlock headerB =
+            xdom.<HeaderBlock>getBlocks(new ClassBlockMatcher(HeaderBlock.class), Block.Axes.DESCENDANT).get(1);
+        Block idBlock = headerB.getFirstBlock(new ClassBlockMatcher(MacroMarkerBlock.class), Block.Axes.DESCENDANT);
+        idBlock.getParent().removeBlock(idBlock);
+        transformation.renumber(state, idBlock, null);
+
+        assertNull(state.getNumbers().get("B"));
+        assertEquals(2, state.size());
+        assertEquals("= (% class=\"wikigeneratedheadingnumber\" %)1 (%%)heading A =\n\n"
+            + "= (% class=\"wikigeneratedheadingnumber\" %)2 (%%)heading B =\n\n"
+            + "See {{reference section=\"B\"/}}.", render(xdom, Syntax.XWIKI_2_1));
+        assertTrue(render(xdom, Syntax.EVENT_1_0).contains("beginMacroMarkerInline [reference] [section=B]\n"
+            + "endMacroMarkerInline [reference] [section=B]\n"));
+    }
+
+    private XDOM transform(String content, String id) throws Exception
+    {
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        TransformationContext context = new TransformationContext();
+        context.setId(id);
+        this.mocker.getComponentUnderTest().transform(xdom, context);
+        return xdom;
+    }
+
+    private String render(Block block, Syntax syntax) throws Exception
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, syntax.toIdString());
+        renderer.render(block, printer);
+        return printer.toString();
+    }
+
+    private String transformWithId(String content, String id) throws Exception
+    {
+        Parser parser = this.mocker.getInstance(Parser.class, "xwiki/2.1");
+        XDOM xdom = parser.parse(new StringReader(content));
+        MacroTransformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+        macroTransformation.transform(xdom, new TransformationContext());
+
+        TransformationContext context = new TransformationContext();
+        context.setId(id);
+        this.mocker.getComponentUnderTest().transform(xdom, context);
+
+        WikiPrinter printer = new DefaultWikiPrinter();
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, Syntax.XWIKI_2_1.toIdString());
+        renderer.render(xdom, printer);
+        return printer.toString();
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.WordBlock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link NumberingCache}.
+ *
+ * @version $Id$
+ */
+public class NumberingCacheTest
+{
+    private static final String WIKI = "wiki";
+
+    @Test
+    public void getAndPut()
+    {
+        NumberingCache cache = new NumberingCache();
+        CachedNumbering english = new CachedNumbering(new NumberingIndex(), Collections.<Block>emptyList());
+        cache.put(ReferenceType.FIGURE, 42L, WIKI, Locale.ENGLISH, english);
+
+        assertSame(english, cache.get(ReferenceType.FIGURE, 42L, WIKI, Locale.ENGLISH));
+        assertNull(cache.get(ReferenceType.FIGURE, 42L, WIKI, Locale.FRENCH));
+        assertNull(cache.get(ReferenceType.SECTION, 42L, WIKI, Locale.ENGLISH));
+        assertNull(cache.get(ReferenceType.FIGURE, 43L, WIKI, Locale.ENGLISH));
+        // The caption prefixes can be translated differently in another wiki.
+        assertNull(cache.get(ReferenceType.FIGURE, 42L, "otherwiki", Locale.ENGLISH));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(1, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(ReferenceType.FIGURE, 42L, WIKI, Locale.ENGLISH));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+    {
+        NumberingCache cache = new NumberingCache();
+        cache.setCapacity(2);
+
+        CachedNumbering first = new CachedNumbering(new NumberingIndex(), Collections.<Block>emptyList());
+        CachedNumbering second = new CachedNumbering(new NumberingIndex(), Collections.<Block>emptyList());
+        CachedNumbering third = new CachedNumbering(new NumberingIndex(), Collections.<Block>emptyList());
+        cache.put(ReferenceType.SECTION, 1L, null, null, first);
+        cache.put(ReferenceType.SECTION, 2L, null, null, second);
+        // Access the first entry so that the second one becomes the least recently used.
+        cache.get(ReferenceType.SECTION, 1L, null, null);
+        cache.put(ReferenceType.SECTION, 3L, null, null, third);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(first, cache.get(ReferenceType.SECTION, 1L, null, null));
+        assertNull(cache.get(ReferenceType.SECTION, 2L, null, null));
+        assertSame(third, cache.get(ReferenceType.SECTION, 3L, null, null));
+
+        cache.setCapacity(1);
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void cloneCachedBlocks()
+    {
+        CachedNumbering cachedNumbering = new CachedNumbering(new NumberingIndex(),
+            Collections.<Block>singletonList(new WordBlock("1")));
+        assertNotSame(cachedNumbering.getInsertedBlock(0), cachedNumbering.getInsertedBlock(0));
+        assertEquals(new WordBlock("1"), cachedNumbering.getInsertedBlock(0));
+
+        int[] number = new int[] { 1, 2 };
+        List<Block> label = cachedNumbering.getLabel(number,
+            n -> Collections.<Block>singletonList(new WordBlock(n[0] + "." + n[1])));
+        List<Block> sameLabel = cachedNumbering.getLabel(number, n -> {
+            throw new AssertionError("The label should have been cached");
+        });
+        assertEquals(label, sameLabel);
+        assertNotSame(label.get(0), sameLabel.get(0));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit tests for {@link NumberingEvents}. The JFR API is only used through reflection since the tests are compiled
+ * for Java 8 too.
+ *
+ * @version $Id$
+ */
+public class NumberingEventsTest
+{
+    private static final String NUMBERING = "org.xwiki.contrib.numberedreferences.Numbering";
+
+    private static final String REFERENCE_RESOLUTION = "org.xwiki.contrib.numberedreferences.ReferenceResolution";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commit() throws Exception
+    {
+        assumeTrue(isJFRPresent());
+
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, NUMBERING);
+        recordingClass.getMethod("enable", String.class).invoke(recording, REFERENCE_RESOLUTION);
+        recordingClass.getMethod("start").invoke(recording);
+
+        NumberingStatistics statistics = new NumberingStatistics();
+        statistics.setBlockCount(42);
+        statistics.setHeaderCount(3);
+        Object event = NumberingEvents.beginNumbering();
+        assertNotNull(event);
+        Object resolutionEvent = NumberingEvents.beginReferenceResolution();
+        assertNotNull(resolutionEvent);
+        NumberingEvents.commitReferenceResolution(resolutionEvent, ReferenceType.SECTION, 2, 1);
+        NumberingEvents.commitNumbering(event, "numberedheadings", "Space.Page", statistics);
+
+        recordingClass.getMethod("stop").invoke(recording);
+        Path file = this.folder.getRoot().toPath().resolve("numbering.jfr");
+        recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+        recordingClass.getMethod("close").invoke(recording);
+
+        List<?> recordedEvents = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+            .getMethod("readAllEvents", Path.class).invoke(null, file);
+        List<Object> numberingEvents = getEvents(recordedEvents, NUMBERING);
+        assertEquals(1, numberingEvents.size());
+        assertEquals("numberedheadings", getValue(numberingEvents.get(0), "transformation"));
+        assertEquals("Space.Page", getValue(numberingEvents.get(0), "source"));
+        assertEquals(42, getValue(numberingEvents.get(0), "blockCount"));
+        assertEquals(3, getValue(numberingEvents.get(0), "headerCount"));
+
+        List<Object> resolutionEvents = getEvents(recordedEvents, REFERENCE_RESOLUTION);
+        assertEquals(1, resolutionEvents.size());
+        assertEquals("SECTION", getValue(resolutionEvents.get(0), "referenceType"));
+        assertEquals(2, getValue(resolutionEvents.get(0), "resolvedReferenceCount"));
+        assertEquals(1, getValue(resolutionEvents.get(0), "unresolvedReferenceCount"));
+    }
+
+    @Test
+    public void beginWithoutRecording()
+    {
+        assumeTrue(isJFRPresent());
+
+        // No event is created while no recording enables the event types.
+        assertNull(NumberingEvents.beginNumbering());
+        assertNull(NumberingEvents.beginReferenceResolution());
+    }
+
+    @Test
+    public void commitWithoutEvent()
+    {
+        // Nothing is emitted when JFR is not available, which is not an error.
+        NumberingEvents.commitNumbering(null, "numberedheadings", null, new NumberingStatistics());
+        NumberingEvents.commitReferenceResolution(null, null, 0, 0);
+    }
+
+    private boolean isJFRPresent()
+    {
+        try {
+            Class.forName("jdk.jfr.EventFactory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private List<Object> getEvents(List<?> recordedEvents, String name) throws Exception
+    {
+        List<Object> events = new ArrayList<>();
+        for (Object recordedEvent : recordedEvents) {
+            Object eventType = recordedEvent.getClass().getMethod("getEventType").invoke(recordedEvent);
+            if (name.equals(eventType.getClass().getMethod("getName").invoke(eventType))) {
+                events.add(recordedEvent);
+            }
+        }
+        return events;
+    }
+
+    private Object getValue(Object recordedEvent, String field) throws Exception
+    {
+        Method getValue = Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getValue", String.class);
+        return getValue.invoke(recordedEvent, field);
+    }
+}
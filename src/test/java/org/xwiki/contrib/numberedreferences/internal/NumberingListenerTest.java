@@ -0,0 +1,321 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.localization.LocalizationContext;
+import org.xwiki.localization.Translation;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.CompositeBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.transformation.Transformation;
+import org.xwiki.rendering.transformation.TransformationContext;
+import org.xwiki.test.annotation.AfterComponent;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Integration tests for {@link NumberingListener}.
+ *
+ * @version $Id$
+ */
+@AllComponents
+public class NumberingListenerTest
+{
+    private static final String CONTENT = "See {{reference section='C'/}}.\n\n"
+        + "= heading A =\n"
+        + "== {{id name='C'/}}heading C ==\n\n"
+        + "Back to {{reference id='C'/}}. Invalid {{reference section='invalid'/}}.";
+
+    private static final String REFERENCE_LINK =
+        "beginLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n"
+        + "onWord [1]\n"
+        + "onSpecialSymbol [.]\n"
+        + "onWord [1]\n"
+        + "endLink [Typed = [true] Type = [doc] Reference = [] Parameters = [[anchor] = [C]]] [false]\n";
+
+    @Rule
+    public MockitoComponentMockingRule<NumberingListenerFactory> mocker =
+        new MockitoComponentMockingRule<>(NumberingListenerFactory.class);
+
+    @AfterComponent
+    public void setUp() throws Exception
+    {
+        ContextualLocalizationManager localizationManager =
+            this.mocker.registerMockComponent(ContextualLocalizationManager.class);
+        Translation figureTranslation = createTranslation("Figure");
+        when(localizationManager.getTranslation("transformation.numberedReferences.figurePrefix"))
+            .thenReturn(figureTranslation);
+        Translation tableTranslation = createTranslation("Table");
+        when(localizationManager.getTranslation("transformation.numberedReferences.tablePrefix"))
+            .thenReturn(tableTranslation);
+
+        LocalizationContext localizationContext = this.mocker.registerMockComponent(LocalizationContext.class);
+        when(localizationContext.getCurrentLocale()).thenReturn(Locale.ENGLISH);
+    }
+
+    @Test
+    public void numberWhileStreaming() throws Exception
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        NumberingListener listener = this.mocker.getComponentUnderTest().createListener(createRenderer(printer));
+        getParser().parse(new StringReader(CONTENT), listener);
+
+        String result = printer.toString();
+
+        String expectedHeadingA = "beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n"
+            + "onWord [1]\n"
+            + "onSpace\n"
+            + "endFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n"
+            + "onWord [heading]\n";
+        assertTrue("Should have contained [\n" + expectedHeadingA + "\n]. Got [\n" + result + "\n]",
+            result.contains(expectedHeadingA));
+
+        String expectedHeadingC = "beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n"
+            + "onWord [1]\n"
+            + "onSpecialSymbol [.]\n"
+            + "onWord [1]\n"
+            + "onSpace\n"
+            + "endFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n";
+        assertTrue("Should have contained [\n" + expectedHeadingC + "\n]. Got [\n" + result + "\n]",
+            result.contains(expectedHeadingC));
+
+        // The forward reference is resolved and its events are sent before the heading events.
+        String expectedForwardReference = "beginMacroMarkerInline [reference] [section=C]\n"
+            + REFERENCE_LINK
+            + "endMacroMarkerInline [reference] [section=C]\n";
+        assertTrue("Should have contained [\n" + expectedForwardReference + "\n]. Got [\n" + result + "\n]",
+            result.contains(expectedForwardReference));
+        assertTrue(result.indexOf(expectedForwardReference) < result.indexOf(expectedHeadingA));
+
+        String expectedBackwardReference = "beginMacroMarkerInline [reference] [id=C]\n"
+            + REFERENCE_LINK
+            + "endMacroMarkerInline [reference] [id=C]\n";
+        assertTrue("Should have contained [\n" + expectedBackwardReference + "\n]. Got [\n" + result + "\n]",
+            result.contains(expectedBackwardReference));
+
+        // The invalid reference is left untouched.
+        assertTrue(result.contains("[reference] [section=invalid]"));
+        assertFalse(result.contains("beginMacroMarkerInline [reference] [section=invalid]"));
+    }
+
+    @Test
+    public void numberWithIndex() throws Exception
+    {
+        // First pass: only fill the index.
+        NumberingIndex index = new NumberingIndex();
+        getParser().parse(new StringReader(CONTENT),
+            this.mocker.getComponentUnderTest().createListener(createRenderer(new DefaultWikiPrinter()), index));
+        assertEquals(2, index.get(ReferenceType.SECTION, "C").length);
+
+        // Second pass: all the references are resolved as they pass.
+        WikiPrinter indexedPrinter = new DefaultWikiPrinter();
+        getParser().parse(new StringReader(CONTENT),
+            this.mocker.getComponentUnderTest().createListener(createRenderer(indexedPrinter), index));
+
+        WikiPrinter printer = new DefaultWikiPrinter();
+        getParser().parse(new StringReader(CONTENT),
+            this.mocker.getComponentUnderTest().createListener(createRenderer(printer)));
+
+        assertEquals(printer.toString(), indexedPrinter.toString());
+    }
+
+    @Test
+    public void numberWhenTooManyEventsHeldBack() throws Exception
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        NumberingListener listener = this.mocker.getComponentUnderTest().createListener(createRenderer(printer));
+        listener.setMaxHeldEvents(5);
+        getParser().parse(new StringReader("See {{reference section='C'/}}.\n\nSome text before the heading.\n\n"
+            + "= {{id name='C'/}}heading C ="), listener);
+
+        String result = printer.toString();
+
+        // The forward reference is given up when the held events exceed the limit, and the heading is still numbered.
+        assertTrue(result.contains("[reference] [section=C]"));
+        assertFalse(result.contains("beginMacroMarkerInline [reference] [section=C]"));
+        assertTrue(result.contains("beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\nonWord [1]\n"));
+        assertTrue(result.indexOf("[reference] [section=C]") < result.indexOf("onWord [Some]"));
+    }
+
+    @Test
+    public void numberTableFigureWithEmptyLines() throws Exception
+    {
+        // The empty lines don't prevent the figure from being a table, whether it's numbered while streaming or by the
+        // transformation.
+        String result = assertSameAsTransformations("{{figure}}\n"
+            + "|a|b\n\n\n\n"
+            + "{{figureCaption}}Caption{{/figureCaption}}\n\n\n"
+            + "{{/figure}}");
+
+        assertTrue(result.contains("onEmptyLines"));
+        assertTrue(result.contains("onWord [Table]"));
+        assertFalse(result.contains("onWord [Figure]"));
+    }
+
+    @Test
+    public void numberWithProtectedHeader() throws Exception
+    {
+        String result = assertSameAsTransformations("= heading A =\n\n"
+            + "(% data-xwiki-rendering-protected=\"true\" %)\n"
+            + "= {{id name='P'/}}protected heading =\n\n"
+            + "= heading B =");
+
+        // The protected heading is not numbered and isn't counted.
+        assertEquals(2, StringUtils.countMatches(result, "beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]"));
+        assertTrue(result.contains("beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n"
+            + "onWord [2]\n"
+            + "onSpace\n"
+            + "endFormat [NONE] [[class]=[wikigeneratedheadingnumber]]\n"
+            + "onWord [heading]\n"
+            + "onSpace\n"
+            + "onWord [B]"));
+    }
+
+    @Test
+    public void numberWithProtectedContent() throws Exception
+    {
+        String result = assertSameAsTransformations("(% data-xwiki-rendering-protected=\"true\" %)\n"
+            + "|(((\n"
+            + "= protected heading =\n"
+            + ")))\n\n"
+            + "= heading A =\n\n"
+            + "(% data-xwiki-rendering-protected=\"true\" %)\n"
+            + "(((\n"
+            + "{{figure}}\n"
+            + "Protected image\n\n"
+            + "{{figureCaption}}Protected{{/figureCaption}}\n"
+            + "{{/figure}}\n"
+            + ")))\n\n"
+            + "{{figure}}\n"
+            + "Image\n\n"
+            + "{{figureCaption}}Caption{{/figureCaption}}\n"
+            + "{{/figure}}");
+
+        // Neither the heading located in the protected table nor the figure located in the protected group are
+        // numbered.
+        assertEquals(1, StringUtils.countMatches(result, "beginFormat [NONE] [[class]=[wikigeneratedheadingnumber]]"));
+        assertEquals(1, StringUtils.countMatches(result, "onWord [Figure]"));
+        assertTrue(result.contains("onWord [Figure]\n"
+            + "onSpace\n"
+            + "onWord [1]"));
+    }
+
+    @Test
+    public void numberFigureWhenCaptionPrefixTranslationIsMissing() throws Exception
+    {
+        ContextualLocalizationManager localizationManager =
+            this.mocker.getInstance(ContextualLocalizationManager.class);
+        when(localizationManager.getTranslation("transformation.numberedReferences.figurePrefix")).thenReturn(null);
+
+        String result = assertSameAsTransformations("{{figure}}\n"
+            + "Image\n\n"
+            + "{{figureCaption}}Caption{{/figureCaption}}\n"
+            + "{{/figure}}");
+
+        // Only the number is displayed.
+        assertTrue(result.contains("beginFormat [NONE] [[class]=[wikigeneratedfigurenumber]]\n"
+            + "onWord [1]\n"
+            + "onSpace\n"
+            + "endFormat [NONE] [[class]=[wikigeneratedfigurenumber]]\n"));
+    }
+
+    /**
+     * Number the passed content both while streaming its events and with the numbered transformations, and check
+     * that the results are the same.
+     *
+     * @return the events of the numbered content
+     */
+    private String assertSameAsTransformations(String content) throws Exception
+    {
+        Parser parser = this.mocker.getInstance(Parser.class, Syntax.XWIKI_2_1.toIdString());
+        Transformation macroTransformation = this.mocker.getInstance(Transformation.class, "macro");
+
+        XDOM streamedXDOM = parser.parse(new StringReader(content));
+        macroTransformation.transform(streamedXDOM, new TransformationContext());
+        WikiPrinter streamedPrinter = new DefaultWikiPrinter();
+        streamedXDOM.traverse(this.mocker.getComponentUnderTest().createListener(createRenderer(streamedPrinter)));
+
+        XDOM transformedXDOM = parser.parse(new StringReader(content));
+        macroTransformation.transform(transformedXDOM, new TransformationContext());
+        for (String hint : Arrays.asList(NumberedHeadingsTransformation.HINT, NumberedFiguresTransformation.HINT)) {
+            this.mocker.<Transformation>getInstance(Transformation.class, hint).transform(transformedXDOM,
+                new TransformationContext());
+        }
+        WikiPrinter transformedPrinter = new DefaultWikiPrinter();
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, Syntax.EVENT_1_0.toIdString());
+        renderer.render(transformedXDOM, transformedPrinter);
+
+        assertEquals(transformedPrinter.toString(), streamedPrinter.toString());
+        return streamedPrinter.toString();
+    }
+
+    private Translation createTranslation(String prefix)
+    {
+        Translation translation = mock(Translation.class);
+        Answer<Block> answer = invocation -> {
+            Object number = invocation.getArgument(0);
+            return new CompositeBlock(Arrays.asList(new WordBlock(prefix), new SpaceBlock(),
+                new WordBlock(String.valueOf(number)), new SpecialSymbolBlock(':')));
+        };
+        when(translation.render(any(Integer.class))).thenAnswer(answer);
+        when(translation.render(any(String.class))).thenAnswer(answer);
+        return translation;
+    }
+
+    private StreamParser getParser() throws Exception
+    {
+        return this.mocker.getInstance(StreamParser.class, Syntax.XWIKI_2_1.toIdString());
+    }
+
+    private Listener createRenderer(WikiPrinter printer) throws Exception
+    {
+        PrintRendererFactory factory =
+            this.mocker.getInstance(PrintRendererFactory.class, Syntax.EVENT_1_0.toIdString());
+        return factory.createRenderer(printer);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xwiki.contrib.numberedreferences.ReferenceType;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Unit tests for {@link NumberingSession}.
+ *
+ * @version $Id$
+ */
+public class NumberingSessionTest
+{
+    private static final String INTRO = "intro";
+
+    @Test
+    public void getNumbersWithSameIdInSeveralDocuments()
+    {
+        NumberingSession session = new NumberingSession();
+        Map<String, int[]> firstNumbers = new HashMap<>();
+        firstNumbers.put(INTRO, new int[] { 1, 1 });
+        session.addNumbers(ReferenceType.SECTION, "Book.Chapter1", new int[0], new int[] { 1, 1 }, firstNumbers);
+        Map<String, int[]> secondNumbers = new HashMap<>();
+        secondNumbers.put(INTRO, new int[] { 2, 1 });
+        secondNumbers.put("conclusion", new int[] { 2, 2 });
+        session.addNumbers(ReferenceType.SECTION, "Book.Chapter2", new int[] { 1, 1 }, new int[] { 2, 2 },
+            secondNumbers);
+
+        // The ids of a document are resolved in that document first.
+        assertArrayEquals(new int[] { 1, 1 }, session.getNumbers(ReferenceType.SECTION, "Book.Chapter1").get(INTRO));
+        assertArrayEquals(new int[] { 2, 1 }, session.getNumbers(ReferenceType.SECTION, "Book.Chapter2").get(INTRO));
+        // Then in the other documents.
+        assertArrayEquals(new int[] { 2, 2 },
+            session.getNumbers(ReferenceType.SECTION, "Book.Chapter1").get("conclusion"));
+        assertArrayEquals(new int[] { 2, 1 }, session.getNumbers(ReferenceType.SECTION, "Book.Chapter3").get(INTRO));
+        assertArrayEquals(new int[] { 2, 1 }, session.getNumbers(ReferenceType.SECTION, null).get(INTRO));
+
+        // The fragments transformed for a document are numbered again with the whole document.
+        Map<String, int[]> fragmentNumbers = new HashMap<>();
+        fragmentNumbers.put("included", new int[] { 3, 1 });
+        session.addNumbers(ReferenceType.SECTION, "Book.Chapter3", fragmentNumbers);
+        assertArrayEquals(new int[] { 3, 1 },
+            session.getNumbers(ReferenceType.SECTION, "Book.Chapter3").get("included"));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.numberedreferences.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link TransformationMetrics}.
+ *
+ * @version $Id$
+ */
+public class TransformationMetricsTest
+{
+    @Test
+    public void record()
+    {
+        TransformationMetrics metrics = new TransformationMetrics("test");
+
+        NumberingStatistics statistics = new NumberingStatistics();
+        statistics.setHeaderCount(3);
+        statistics.setIdCount(2);
+        statistics.incrementResolvedReferenceCount();
+        statistics.incrementUnresolvedReferenceCount();
+        statistics.setCollectDuration(TimeUnit.MICROSECONDS.toNanos(5));
+        statistics.setNumberDuration(TimeUnit.MICROSECONDS.toNanos(50));
+        statistics.setResolveDuration(TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.record(statistics);
+        metrics.record(statistics);
+
+        assertEquals(2, metrics.getInvocationCount());
+        assertEquals(6, metrics.getHeaderCount());
+        assertEquals(0, metrics.getFigureCount());
+        assertEquals(4, metrics.getIdCount());
+        assertEquals(2, metrics.getResolvedReferenceCount());
+        assertEquals(2, metrics.getUnresolvedReferenceCount());
+        assertArrayEquals(new long[] { 2, 0, 0, 0, 0, 0, 0 }, metrics.getCollectLatencyHistogram());
+        assertArrayEquals(new long[] { 0, 2, 0, 0, 0, 0, 0 }, metrics.getNumberLatencyHistogram());
+        assertArrayEquals(new long[] { 0, 0, 0, 2, 0, 0, 0 }, metrics.getResolveLatencyHistogram());
+        assertEquals(2055, metrics.getMaxTotalLatency());
+
+        metrics.reset();
+        assertEquals(0, metrics.getInvocationCount());
+        assertArrayEquals(new long[7], metrics.getTotalLatencyHistogram());
+    }
+}